@@ -0,0 +1,149 @@
+package jcudalda.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.linchimin.jcudalda.LDAInferenceSession;
+import org.linchimin.jcudalda.LDAModel;
+
+
+/**
+ * <pre>
+ * Concurrency stress test and throughput benchmark of inference on one LDAModel shared by many threads:
+ *
+ * 1. the topic vectors of NUM_DISTINCT_REQUESTS requests, single texts and batches of BATCH_SIZE texts
+ * of "resources/example-docs.txt", are inferred by one thread first as the expected results;
+ * 2. for each number of threads, the threads send the requests in turns for a few seconds,
+ * the even threads by the 'inferTopics' methods of the model, and the odd threads by an LDAInferenceSession of their own;
+ * every result should be the same as the expected one, since a document is sampled with a seed of its index in a call,
+ * whichever thread, session, or backend workspace infers it;
+ * 3. the texts per second, the requests per second, and the number of mismatches and exceptions are reported.
+ *
+ * Usage: ConcurrentInferenceBenchmark [phis file] [vocabulary file] [numbers of threads, like "1,8,32"] [seconds per number of threads]
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+class ConcurrentInferenceBenchmark {
+
+	private static final int NUM_DISTINCT_REQUESTS = 256;
+
+	private static final int BATCH_SIZE = 8;
+
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String phisSerPath = (args.length > 0) ? args[0] : "resources/phis-wiki.ser";
+		String vocabularyFilePath = (args.length > 1) ? args[1] : "resources/enVocabulary-45k.txt";
+		String[] numsThreads = ((args.length > 2) ? args[2] : "1,8,32").split(",");
+		float seconds = (args.length > 3) ? Float.parseFloat(args[3]) : 5;
+
+		final LDAModel model = new LDAModel(phisSerPath, vocabularyFilePath);
+		final List<List<String>> requests = createRequests(readTexts("resources/example-docs.txt"));
+		final float[][][] expected = new float[requests.size()][][];
+		for (int r = 0; r < requests.size(); r++) {
+			expected[r] = model.inferTopics(requests.get(r));
+		}
+		System.out.println("ConcurrentInferenceBenchmark distinct requests = " + requests.size() + ", backend = " + model.getBackend().getClass().getSimpleName());
+
+		int totalNumFailures = 0;
+		for (String numThreadsString : numsThreads) {
+			int numThreads = Integer.parseInt(numThreadsString.trim());
+			final long endTime = System.nanoTime() + (long) (seconds * 1e9);
+			final AtomicInteger nextRequest = new AtomicInteger();
+			final AtomicLong numTexts = new AtomicLong();
+			final AtomicInteger numFailures = new AtomicInteger();
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread[] threads = new Thread[numThreads];
+			for (int t = 0; t < numThreads; t++) {
+				final boolean usesSession = (t % 2 == 1);
+				threads[t] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						LDAInferenceSession session = usesSession ? model.newInferenceSession() : null;
+						float[][] result = new float[BATCH_SIZE][session != null ? session.getK() : 0];
+						try {
+							start.await();
+							while (System.nanoTime() < endTime) {
+								int r = nextRequest.getAndIncrement() % requests.size();
+								List<String> request = requests.get(r);
+								float[][] topics;
+								if (session != null) {
+									session.inferTopics(request, result);
+									topics = Arrays.copyOf(result, request.size());
+								} else {
+									topics = model.inferTopics(request);
+								}
+								if (Arrays.deepEquals(topics, expected[r]) == false) {
+									numFailures.incrementAndGet();
+								}
+								numTexts.addAndGet(request.size());
+							}
+						} catch (Throwable e) {
+							e.printStackTrace();
+							numFailures.incrementAndGet();
+						} finally {
+							if (session != null) {
+								session.free();
+							}
+						}
+					}
+				});
+				threads[t].start();
+			}
+			long startTime = System.nanoTime();
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			float elapsedSeconds = (System.nanoTime() - startTime) / 1e9f;
+			System.out.println("ConcurrentInferenceBenchmark threads = " + numThreads
+					+ ", texts per second = " + (int) (numTexts.get() / elapsedSeconds)
+					+ ", requests per second = " + (int) (nextRequest.get() / elapsedSeconds)
+					+ ", mismatches and exceptions = " + numFailures.get());
+			totalNumFailures += numFailures.get();
+		}
+		System.out.println("ConcurrentInferenceBenchmark mismatches and exceptions = " + totalNumFailures);
+		model.free();
+	}
+
+
+	/**
+	 * @return NUM_DISTINCT_REQUESTS requests, alternately a single text and BATCH_SIZE texts
+	 */
+	private static List<List<String>> createRequests(List<String> texts) {
+		List<List<String>> requests = new ArrayList<List<String>>();
+		int offset = 0;
+		for (int r = 0; r < NUM_DISTINCT_REQUESTS; r++) {
+			int size = (r % 2 == 0) ? 1 : BATCH_SIZE;
+			List<String> request = new ArrayList<String>();
+			for (int i = 0; i < size; i++) {
+				request.add(texts.get(offset++ % texts.size()));
+			}
+			requests.add(request);
+		}
+		return requests;
+	}
+
+
+	/**
+	 * @return the non-empty lines of 'filePath'
+	 */
+	private static List<String> readTexts(String filePath) throws IOException {
+		List<String> texts = new ArrayList<String>();
+		for (String line : Files.readAllLines(Paths.get(filePath), StandardCharsets.UTF_8)) {
+			if (line.trim().isEmpty() == false) {
+				texts.add(line);
+			}
+		}
+		return texts;
+	}
+
+}
@@ -0,0 +1,220 @@
+package jcudalda.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.linchimin.jcudalda.LDAInferenceService;
+import org.linchimin.jcudalda.LDAModel;
+
+
+/**
+ * <pre>
+ * Benchmark of single-text inference by 'numClients' client threads, which send the lines of "resources/example-docs.txt" for a few seconds:
+ *
+ * 1. "direct": each client calls LDAModel.inferTopics(String), a call per text;
+ * 2. "service": each client calls LDAInferenceService.submit(text).get(), so the texts of the clients are inferred in micro-batches;
+ * 3. "http": each client POSTs the text to /topics of the HTTP server of the service and parses the JSON array.
+ *
+ * The texts per second, the median and 99th percentile latencies, the average batch size of the service,
+ * and the number of failures, i.e. exceptions or topic vectors that are not K probabilities summing to 1, are reported.
+ *
+ * Usage: InferenceServiceBenchmark [phis file] [vocabulary file] [numClients] [seconds per run] [maxBatchSize] [maxWaitMillis] [numWorkers]
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+class InferenceServiceBenchmark {
+
+	private interface Client {
+		float[] inferTopics(String text) throws Exception;
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		String phisSerPath = (args.length > 0) ? args[0] : "resources/phis-wiki.ser";
+		String vocabularyFilePath = (args.length > 1) ? args[1] : "resources/enVocabulary-45k.txt";
+		int numClients = (args.length > 2) ? Integer.parseInt(args[2]) : 64;
+		float seconds = (args.length > 3) ? Float.parseFloat(args[3]) : 5;
+		int maxBatchSize = (args.length > 4) ? Integer.parseInt(args[4]) : LDAInferenceService.DEFAULT_MAX_BATCH_SIZE;
+		float maxWaitMillis = (args.length > 5) ? Float.parseFloat(args[5]) : LDAInferenceService.DEFAULT_MAX_WAIT_MILLIS;
+		int numWorkers = (args.length > 6) ? Integer.parseInt(args[6]) : 1;
+
+		final LDAModel model = new LDAModel(phisSerPath, vocabularyFilePath);
+		List<String> texts = new ArrayList<String>();
+		for (String line : Files.readAllLines(Paths.get("resources/example-docs.txt"), StandardCharsets.UTF_8)) {
+			if (line.trim().isEmpty() == false) {
+				texts.add(line);
+			}
+		}
+		int K = model.inferTopics(texts.get(0)).length;
+		System.out.println("InferenceServiceBenchmark clients = " + numClients + ", texts = " + texts.size() + ", K = " + K
+				+ ", maxBatchSize = " + maxBatchSize + ", maxWaitMillis = " + maxWaitMillis + ", numWorkers = " + numWorkers);
+
+		int numFailures = run("direct", new Client() {
+			@Override
+			public float[] inferTopics(String text) {
+				return model.inferTopics(text);
+			}
+		}, texts, numClients, seconds, K);
+
+		final LDAInferenceService service = new LDAInferenceService(model, maxBatchSize, maxWaitMillis, numWorkers);
+		numFailures += run("service", new Client() {
+			@Override
+			public float[] inferTopics(String text) throws Exception {
+				return service.submit(text).get();
+			}
+		}, texts, numClients, seconds, K);
+		System.out.println("InferenceServiceBenchmark service batches = " + service.getNumBatches()
+				+ ", average batch size = " + (float) service.getNumTexts() / Math.max(1, service.getNumBatches()));
+
+		final URL url = new URL("http://localhost:" + service.startHttpServer(0) + "/topics");
+		numFailures += run("http", new Client() {
+			@Override
+			public float[] inferTopics(String text) throws IOException {
+				return post(url, text);
+			}
+		}, texts, numClients, seconds, K);
+
+		service.close();
+		model.free();
+		System.out.println("InferenceServiceBenchmark failures = " + numFailures);
+	}
+
+
+	/**
+	 * @return number of failures
+	 */
+	private static int run(String name, final Client client, final List<String> texts, int numClients, float seconds, final int K)
+			throws InterruptedException {
+		final long endTime = System.nanoTime() + (long) (seconds * 1e9);
+		final AtomicInteger nextText = new AtomicInteger();
+		final AtomicInteger numFailures = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[][] latencies = new long[numClients][];
+		final int[] numLatencies = new int[numClients];
+		Thread[] threads = new Thread[numClients];
+		for (int c = 0; c < numClients; c++) {
+			final int clientIndex = c;
+			threads[c] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long[] clientLatencies = new long[1024];
+					int count = 0;
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					while (System.nanoTime() < endTime) {
+						String text = texts.get(nextText.getAndIncrement() % texts.size());
+						long startTime = System.nanoTime();
+						try {
+							if (isTopicVector(client.inferTopics(text), K) == false) {
+								numFailures.incrementAndGet();
+							}
+						} catch (Exception e) {
+							if (numFailures.incrementAndGet() == 1) {
+								e.printStackTrace();
+							}
+						}
+						if (count == clientLatencies.length) {
+							clientLatencies = Arrays.copyOf(clientLatencies, count * 2);
+						}
+						clientLatencies[count++] = System.nanoTime() - startTime;
+					}
+					latencies[clientIndex] = clientLatencies;
+					numLatencies[clientIndex] = count;
+				}
+			});
+			threads[c].start();
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		float elapsedSeconds = (System.nanoTime() - startTime) / 1e9f;
+
+		int numTexts = 0;
+		for (int count : numLatencies) {
+			numTexts += count;
+		}
+		long[] allLatencies = new long[numTexts];
+		int offset = 0;
+		for (int c = 0; c < numClients; c++) {
+			System.arraycopy(latencies[c], 0, allLatencies, offset, numLatencies[c]);
+			offset += numLatencies[c];
+		}
+		Arrays.sort(allLatencies);
+		System.out.println("InferenceServiceBenchmark " + name + ": texts per second = " + (int) (numTexts / elapsedSeconds)
+				+ ", median latency ms = " + percentileMillis(allLatencies, 0.5)
+				+ ", p99 latency ms = " + percentileMillis(allLatencies, 0.99)
+				+ ", failures = " + numFailures.get());
+		return numFailures.get();
+	}
+
+	private static float percentileMillis(long[] sortedNanos, double percentile) {
+		if (sortedNanos.length == 0) {
+			return Float.NaN;
+		}
+		return sortedNanos[(int) Math.min(sortedNanos.length - 1, (long) (percentile * sortedNanos.length))] / 1e6f;
+	}
+
+	/**
+	 * @return whether 'topicVector' has K probabilities summing to 1
+	 */
+	private static boolean isTopicVector(float[] topicVector, int K) {
+		if (topicVector == null || topicVector.length != K) {
+			return false;
+		}
+		double sum = 0;
+		for (float probability : topicVector) {
+			if (probability < 0) {
+				return false;
+			}
+			sum += probability;
+		}
+		return Math.abs(sum - 1) < 1e-3;
+	}
+
+
+	private static float[] post(URL url, String text) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		OutputStream outputStream = connection.getOutputStream();
+		outputStream.write(text.getBytes(StandardCharsets.UTF_8));
+		outputStream.close();
+		if (connection.getResponseCode() != 200) {
+			throw new IOException("HTTP " + connection.getResponseCode());
+		}
+		InputStream inputStream = connection.getInputStream();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		inputStream.close();
+		String json = new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim();
+		String[] values = json.substring(1, json.length() - 1).split(",");
+		float[] topicVector = new float[values.length];
+		for (int k = 0; k < values.length; k++) {
+			topicVector[k] = Float.parseFloat(values[k]);
+		}
+		return topicVector;
+	}
+
+}
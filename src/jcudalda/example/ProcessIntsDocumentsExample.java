@@ -2,6 +2,7 @@ package jcudalda.example;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 
 import org.linchimin.jcudalda.CorpusProcessor;
 import org.linchimin.utils.FileUtils;
@@ -89,6 +90,11 @@ class ProcessIntsDocumentsExample {
 		 */
 		int numDocumentsInOneBatch = 10000;
 		
+		/**
+		 * number of threads that read and tokenize the text files
+		 */
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		
 		/**
 		 * enable debugging or not 
 		 */
@@ -103,45 +109,23 @@ class ProcessIntsDocumentsExample {
 		 */
 		CorpusProcessor corpusProcessor = new CorpusProcessor(vocabularyFilePath);
 		
-		ArrayList<String> filePaths = FileUtils.getFileListRecursively(sourceTextsDir);
-		
-		ArrayList<int[]> miniBatchDocuments = new ArrayList<int[]>(numDocumentsInOneBatch);
-		
+		/**
+		 * the files are written in the order of the sorted text file paths, the same for any 'numThreads'
+		 */
+		corpusProcessor.convertTextsToIntsCorpus(sourceTextsDir, intsCorpusDir, numDocumentsInOneBatch, numThreads);
 		
-		int count = 0;
-		for (int i = 0; i < filePaths.size(); i++) {
-			String docsFilePath = filePaths.get(i);
-			ArrayList<int[]> fileDocuments = corpusProcessor.tokenizeDocuments(docsFilePath);
-			
-			if (debug) {
-				if (fileDocuments.size() > 0) {
-					corpusProcessor.printWordIndicesAsText(fileDocuments.get(0));
-				}
+		if (debug) {
+			ArrayList<String> filePaths = FileUtils.getFileListRecursively(sourceTextsDir);
+			Collections.sort(filePaths);
+			ArrayList<int[]> fileDocuments = corpusProcessor.tokenizeDocuments(filePaths.get(0));
+			ArrayList<int[]> miniBatchDocuments = ObjectSerializer.deserialize(intsCorpusDir + "1.ser");
+			if (fileDocuments.size() > 0) {
+				corpusProcessor.printWordIndicesAsText(fileDocuments.get(0));
 			}
-			
-			System.out.println("CorpusProcessor.processIntsDocuments() docsFilePath = " + docsFilePath);
-			int currentSize = miniBatchDocuments.size();
-			int remaining = numDocumentsInOneBatch - currentSize;
-			if (remaining >= fileDocuments.size()){
-				miniBatchDocuments.addAll(fileDocuments);
-			} else {
-				count++;
-				miniBatchDocuments.addAll(fileDocuments.subList(0, remaining));
-				ObjectSerializer.serialize(miniBatchDocuments, intsCorpusDir + count + ".ser");
-				
-				if (debug) {
-					ArrayList<int[]> miniBatchDocuments2 = ObjectSerializer.deserialize(intsCorpusDir + count + ".ser");
-					for (int j = 0; j < miniBatchDocuments.size(); j++) {
-						int[] arr1 = miniBatchDocuments.get(j);
-						int[] arr2 = miniBatchDocuments2.get(j);
-						if (Arrays.equals(arr1, arr2) == false){
-							throw new Error("Error in ProcessIntsDocumentsExample.processIntsDocuments()");
-						}
-					}
+			for (int j = 0; j < Math.min(fileDocuments.size(), miniBatchDocuments.size()); j++) {
+				if (Arrays.equals(fileDocuments.get(j), miniBatchDocuments.get(j)) == false){
+					throw new Error("Error in ProcessIntsDocumentsExample.processIntsDocuments()");
 				}
-				
-				miniBatchDocuments.clear();
-				miniBatchDocuments.addAll(fileDocuments.subList(remaining, fileDocuments.size()));
 			}
 		}
 		
@@ -0,0 +1,97 @@
+package jcudalda.example;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+import org.linchimin.jcudalda.HostLDABackend;
+import org.linchimin.jcudalda.LDABackend;
+import org.linchimin.jcudalda.MiniBatch;
+
+
+/**
+ * <pre>
+ * Benchmark of the sampling modes of HostLDABackend on a synthetic corpus,
+ * reporting the sampled words per second of one iteration of 'drawLatentVariables' after a few warm-up iterations.
+ *
+ * Usage: SamplingModesBenchmark [numThreads] [Ks, like "100,1000,10000"] [numDocuments]
+ *
+ * Memory: each (K, mode) takes about 4 * K * (V + M) * 4 bytes, e.g. about 1GB for K = 10000, V = 2000, and M = 3000.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+class SamplingModesBenchmark {
+
+	private static final int V = 2000;
+
+	/**
+	 * number of topics of the synthetic corpus; each of them uses V / NUM_TRUE_TOPICS words
+	 */
+	private static final int NUM_TRUE_TOPICS = 20;
+
+	private static final int NUM_WARM_UP_ITERATIONS = 3;
+
+	private static final float ALPHA = 0.1f;
+	private static final float BETA = 0.01f;
+
+
+	public static void main(String[] args) {
+		int numThreads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		String[] Ks = ((args.length > 1) ? args[1] : "100,1000,10000").split(",");
+		int M = (args.length > 2) ? Integer.parseInt(args[2]) : 3000;
+
+		MiniBatch documents = createSyntheticDocuments(M);
+		System.out.println("SamplingModesBenchmark numThreads = " + numThreads + ", M = " + M + ", V = " + V
+				+ ", num documents words = " + documents.getNumWords());
+
+		for (String KString : Ks) {
+			int K = Integer.parseInt(KString.trim());
+			for (HostLDABackend.SamplingMode mode : HostLDABackend.SamplingMode.values()) {
+				HostLDABackend backend = new HostLDABackend(numThreads, mode);
+				LDABackend.TrainingContext context = backend.newTrainingContext(K, V, M);
+				context.computePhis(BETA);
+				context.computeThetas(ALPHA);
+
+				long samplingNanos = 0;
+				for (int iteration = 0; iteration <= NUM_WARM_UP_ITERATIONS; iteration++) {
+					context.resetCounts();
+					long startTime = System.nanoTime();
+					context.drawLatentVariables(documents, 0);
+					samplingNanos = System.nanoTime() - startTime;
+					context.computePhis(BETA);
+					context.computeThetas(ALPHA);
+				}
+				context.free();
+
+				System.out.println("K = " + K + ", mode = " + mode + ", sampled words per second = "
+						+ (long) (documents.getNumWords() / (samplingNanos / 1e9)));
+			}
+		}
+	}
+
+
+	/**
+	 * each document mixes one or two of NUM_TRUE_TOPICS topics with 20% of uniform noise words
+	 */
+	private static MiniBatch createSyntheticDocuments(int M) {
+		SplittableRandom random = new SplittableRandom(1);
+		int topicSize = V / NUM_TRUE_TOPICS;
+		ArrayList<int[]> docs = new ArrayList<int[]>(M);
+		for (int m = 0; m < M; m++) {
+			int topic1 = random.nextInt(NUM_TRUE_TOPICS);
+			int topic2 = random.nextInt(NUM_TRUE_TOPICS);
+			int[] doc = new int[50 + random.nextInt(400)];
+			for (int i = 0; i < doc.length; i++) {
+				if (random.nextInt(5) == 0) {
+					doc[i] = random.nextInt(V);
+				} else {
+					int topic = random.nextBoolean() ? topic1 : topic2;
+					doc[i] = topic * topicSize + random.nextInt(topicSize);
+				}
+			}
+			docs.add(doc);
+		}
+		return MiniBatch.pack(docs);
+	}
+
+}
@@ -0,0 +1,208 @@
+package jcudalda.example;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.linchimin.common.Dictionary;
+import org.linchimin.jcudalda.CorpusProcessor;
+import org.linchimin.jcudalda.LDAGPUTrainer;
+
+import smile.nlp.tokenizer.PennTreebankTokenizer;
+
+
+/**
+ * <pre>
+ * Differential check and benchmark of CorpusProcessor.lookupTextWordIndices, which looks up the spans of a text,
+ * against tokenizing a text to Strings and looking up their lower cases in the Dictionary:
+ *
+ * 1. the word indices of each document of a texts file, and of NUM_RANDOM_TEXTS random texts made of
+ * vocabulary words in mixed cases, punctuation, and non-ASCII characters, should be the same;
+ * the first difference is printed otherwise;
+ * 2. the documents are looked up NUM_ROUNDS times by each path, reporting megabytes per second
+ * and bytes allocated per character of text.
+ *
+ * Usage: TokenizeLookupBenchmark [vocabulary file] [texts file]
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+class TokenizeLookupBenchmark {
+
+	private static final int NUM_RANDOM_TEXTS = 100000;
+
+	private static final int NUM_ROUNDS = 5;
+
+	private static final String[] PIECES = {
+		" ", " ", " ", "\n", ".", ",", "'s", "n't", "Mr.", "U.S.", "-", "(", ")", "\"",
+		"\u00c9cole", "\u00e9", "STRASSE", "\u0130stanbul", "\u03a3\u039f\u03a6\u0399\u0391", "\ud83d\ude00", "\u00a0"
+	};
+
+
+	public static void main(String[] args) throws IOException {
+		String vocabularyFilePath = (args.length > 0) ? args[0] : "resources/enVocabulary-45k.txt";
+		String textsFilePath = (args.length > 1) ? args[1] : "resources/example-docs.txt";
+
+		Dictionary dictionary = Dictionary.loadFromWordList(vocabularyFilePath, true);
+		CorpusProcessor corpusProcessor = new CorpusProcessor(dictionary);
+		int unknownTokenIndex = dictionary.lookupIndex(LDAGPUTrainer.UNKNOWN_TOKEN);
+
+		ArrayList<String> documents = readDocuments(textsFilePath);
+		long numChars = 0;
+		for (String document : documents) {
+			numChars += document.length();
+		}
+		System.out.println("TokenizeLookupBenchmark documents = " + documents.size() + ", chars = " + numChars);
+
+		PennTreebankTokenizer tokenizer = PennTreebankTokenizer.getInstance();
+		int numDifferences = 0;
+		for (String document : documents) {
+			numDifferences += check(corpusProcessor, tokenizer, dictionary, unknownTokenIndex, document);
+		}
+		SplittableRandom random = new SplittableRandom(1);
+		StringBuilder builder = new StringBuilder();
+		for (int t = 0; t < NUM_RANDOM_TEXTS; t++) {
+			builder.setLength(0);
+			int numPieces = random.nextInt(16);
+			for (int i = 0; i < numPieces; i++) {
+				if (random.nextBoolean()) {
+					builder.append(randomCase(dictionary.lookupValue(random.nextInt(dictionary.size())), random));
+				} else {
+					builder.append(PIECES[random.nextInt(PIECES.length)]);
+				}
+			}
+			numDifferences += check(corpusProcessor, tokenizer, dictionary, unknownTokenIndex, builder.toString());
+		}
+		System.out.println("TokenizeLookupBenchmark differences = " + numDifferences + " of " + (documents.size() + NUM_RANDOM_TEXTS) + " texts");
+
+		for (int round = 0; round < NUM_ROUNDS; round++) {
+			long startBytes = allocatedBytes();
+			long startTime = System.nanoTime();
+			long numWords = 0;
+			for (String document : documents) {
+				numWords += lookupWithStrings(tokenizer, dictionary, unknownTokenIndex, document).length;
+			}
+			long stringsNanos = System.nanoTime() - startTime;
+			long stringsBytes = allocatedBytes() - startBytes;
+
+			startBytes = allocatedBytes();
+			startTime = System.nanoTime();
+			for (String document : documents) {
+				numWords -= corpusProcessor.lookupTextWordIndices(document).length;
+			}
+			long spansNanos = System.nanoTime() - startTime;
+			long spansBytes = allocatedBytes() - startBytes;
+
+			System.out.println("round = " + round + ", strings MB/s = " + megabytesPerSecond(numChars, stringsNanos)
+					+ ", allocated bytes/char = " + String.format("%.2f", (double) stringsBytes / numChars)
+					+ "; spans MB/s = " + megabytesPerSecond(numChars, spansNanos)
+					+ ", allocated bytes/char = " + String.format("%.2f", (double) spansBytes / numChars)
+					+ ((numWords != 0) ? ", word count differs" : ""));
+		}
+	}
+
+
+	/**
+	 * the lookup of the Strings of the tokens, as CorpusProcessor did before lookupTextWordIndices
+	 */
+	private static int[] lookupWithStrings(PennTreebankTokenizer tokenizer, Dictionary dictionary, int unknownTokenIndex, String text) {
+		String[] words = tokenizer.splitWithRegex(text);
+		int[] result = new int[words.length];
+		for (int i = 0; i < words.length; i++) {
+			String word = words[i].toLowerCase();
+			int wordIndex = dictionary.lookupIndex(word);
+			if (wordIndex < 0) {
+				wordIndex = unknownTokenIndex;
+			}
+			result[i] = wordIndex;
+		}
+		return result;
+	}
+
+
+	/**
+	 * @return 1 if the word indices differ, printing the text and both word indices; 0 otherwise
+	 */
+	private static int check(CorpusProcessor corpusProcessor, PennTreebankTokenizer tokenizer, Dictionary dictionary, int unknownTokenIndex, String text) {
+		int[] expected = lookupWithStrings(tokenizer, dictionary, unknownTokenIndex, text);
+		int[] actual = corpusProcessor.lookupTextWordIndices(text);
+		if (Arrays.equals(expected, actual)) {
+			return 0;
+		}
+		System.out.println("TokenizeLookupBenchmark difference for text " + escape(text) + "\n  strings = " + Arrays.toString(expected)
+				+ "\n  spans = " + Arrays.toString(actual));
+		return 1;
+	}
+
+
+	private static String randomCase(String word, SplittableRandom random) {
+		switch (random.nextInt(3)) {
+		case 0:
+			return word;
+		case 1:
+			return word.toUpperCase();
+		default:
+			return word.isEmpty() ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1);
+		}
+	}
+
+
+	/**
+	 * @return bytes allocated by the current thread so far, or 0 if not supported by the JVM
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+
+	private static String escape(String text) {
+		StringBuilder builder = new StringBuilder("\"");
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x20 || c > 0x7e) {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.append('"').toString();
+	}
+
+
+	private static String megabytesPerSecond(long numChars, long nanos) {
+		return String.format("%.2f", numChars / 1e6 / (nanos / 1e9));
+	}
+
+
+	/**
+	 * @return the texts between the lines of "&lt;doc ...&gt;" and "&lt;/doc&gt;", the same as CorpusProcessor reads them
+	 */
+	private static ArrayList<String> readDocuments(String textsFilePath) throws IOException {
+		ArrayList<String> documents = new ArrayList<String>();
+		StringBuilder builder = null;
+		for (String line : Files.readAllLines(Paths.get(textsFilePath), StandardCharsets.UTF_8)) {
+			if (builder == null) {
+				String trimmed = line.trim();
+				if (trimmed.startsWith("<doc") && trimmed.endsWith(">")) {
+					builder = new StringBuilder();
+				}
+			} else if (line.startsWith("</doc>")) {
+				documents.add(builder.toString());
+				builder = null;
+			} else {
+				builder.append(line).append('\n');
+			}
+		}
+		return documents;
+	}
+
+}
@@ -0,0 +1,159 @@
+package jcudalda.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import smile.nlp.tokenizer.PennTreebankScanner;
+import smile.nlp.tokenizer.PennTreebankTokenizer;
+
+
+/**
+ * <pre>
+ * Differential check and benchmark of PennTreebankTokenizer.split, scanned by a PennTreebankScanner,
+ * against PennTreebankTokenizer.splitWithRegex:
+ *
+ * 1. the tokens of each document of a texts file, and of NUM_RANDOM_TEXTS random texts made of contractions,
+ * punctuation, whitespace, and non-ASCII characters, should be the same; the first difference is printed otherwise;
+ * 2. the documents are tokenized NUM_ROUNDS times by each implementation, reporting megabytes per second.
+ *
+ * Usage: TokenizerBenchmark [texts file, like "resources/example-docs.txt"]
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+class TokenizerBenchmark {
+
+	private static final int NUM_RANDOM_TEXTS = 200000;
+
+	private static final int NUM_ROUNDS = 5;
+
+	/**
+	 * pieces of the random texts
+	 */
+	private static final String[] PIECES = {
+		"word", "Mr", "etc", "don", "n't", "'s", "'ll", "'re", "'ve", "'m", "'d", "'D", "N'T", "can", "not", "cannot", "Cannot",
+		"d'ye", "gimme", "gonna", "Gotta", "lemme", "mor'n", "tis", "'tis", "twas", "wanna", "whaddya", "whadddya", "whatcha",
+		"'", "''", ",", ".", "..", "-", "/", "&", "_", "(", ")", "\"", ";", "2,500", "U.S.",
+		" ", " ", " ", "  ", "\n", "\t", "\r\n", " \n", "\u000B", "\f",
+		"\u00e9", "\u00fc", "caf\u00e9", "e\u0301", "\u0301", "\u00a0", "\u2028", "\u0085", "\ud83d\ude00", "\ud83d", "\u0663"
+	};
+
+
+	public static void main(String[] args) throws IOException {
+		String textsFilePath = (args.length > 0) ? args[0] : "resources/example-docs.txt";
+		ArrayList<String> documents = readDocuments(textsFilePath);
+		long numChars = 0;
+		for (String document : documents) {
+			numChars += document.length();
+		}
+		System.out.println("TokenizerBenchmark documents = " + documents.size() + ", chars = " + numChars);
+
+		PennTreebankTokenizer tokenizer = PennTreebankTokenizer.getInstance();
+
+		int numDifferences = 0;
+		for (String document : documents) {
+			numDifferences += check(tokenizer, document);
+		}
+		SplittableRandom random = new SplittableRandom(1);
+		StringBuilder builder = new StringBuilder();
+		for (int t = 0; t < NUM_RANDOM_TEXTS; t++) {
+			builder.setLength(0);
+			int numPieces = random.nextInt(12);
+			for (int i = 0; i < numPieces; i++) {
+				builder.append(PIECES[random.nextInt(PIECES.length)]);
+			}
+			numDifferences += check(tokenizer, builder.toString());
+		}
+		System.out.println("TokenizerBenchmark differences = " + numDifferences + " of " + (documents.size() + NUM_RANDOM_TEXTS) + " texts");
+
+		PennTreebankScanner scanner = new PennTreebankScanner();
+		for (int round = 0; round < NUM_ROUNDS; round++) {
+			long startTime = System.nanoTime();
+			long numTokens = 0;
+			for (String document : documents) {
+				numTokens += tokenizer.splitWithRegex(document).length;
+			}
+			long regexNanos = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			for (String document : documents) {
+				numTokens -= tokenizer.split(document).length;
+			}
+			long splitNanos = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			for (String document : documents) {
+				scanner.scan(document);
+			}
+			long scanNanos = System.nanoTime() - startTime;
+
+			System.out.println("round = " + round + ", regex MB/s = " + megabytesPerSecond(numChars, regexNanos)
+					+ ", split MB/s = " + megabytesPerSecond(numChars, splitNanos)
+					+ ", scan (spans only) MB/s = " + megabytesPerSecond(numChars, scanNanos)
+					+ ((numTokens != 0) ? ", token count differs" : ""));
+		}
+	}
+
+
+	/**
+	 * @return 1 if the tokens differ, printing the text and both tokens; 0 otherwise
+	 */
+	private static int check(PennTreebankTokenizer tokenizer, String text) {
+		String[] expected = tokenizer.splitWithRegex(text);
+		String[] actual = tokenizer.split(text);
+		if (Arrays.equals(expected, actual)) {
+			return 0;
+		}
+		System.out.println("TokenizerBenchmark difference for text " + escape(text) + "\n  regex = " + escape(Arrays.toString(expected))
+				+ "\n  split = " + escape(Arrays.toString(actual)));
+		return 1;
+	}
+
+
+	private static String escape(String text) {
+		StringBuilder builder = new StringBuilder("\"");
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x20 || c > 0x7e) {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.append('"').toString();
+	}
+
+
+	private static String megabytesPerSecond(long numChars, long nanos) {
+		return String.format("%.2f", numChars / 1e6 / (nanos / 1e9));
+	}
+
+
+	/**
+	 * @return the texts between the lines of "&lt;doc ...&gt;" and "&lt;/doc&gt;", the same as CorpusProcessor reads them
+	 */
+	private static ArrayList<String> readDocuments(String textsFilePath) throws IOException {
+		ArrayList<String> documents = new ArrayList<String>();
+		StringBuilder builder = null;
+		for (String line : Files.readAllLines(Paths.get(textsFilePath), StandardCharsets.UTF_8)) {
+			if (builder == null) {
+				String trimmed = line.trim();
+				if (trimmed.startsWith("<doc") && trimmed.endsWith(">")) {
+					builder = new StringBuilder();
+				}
+			} else if (line.startsWith("</doc>")) {
+				documents.add(builder.toString());
+				builder = null;
+			} else {
+				builder.append(line).append('\n');
+			}
+		}
+		return documents;
+	}
+
+}
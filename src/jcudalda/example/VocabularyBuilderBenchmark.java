@@ -0,0 +1,218 @@
+package jcudalda.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.linchimin.common.Dictionary;
+import org.linchimin.jcudalda.VocabularyBuilder;
+
+import smile.nlp.tokenizer.PennTreebankTokenizer;
+
+
+/**
+ * <pre>
+ * Differential check and benchmark of VocabularyBuilder against counting the lower cases of PennTreebankTokenizer.split tokens in a HashMap:
+ *
+ * 1. a temporary texts corpus of NUM_FILES files is generated, with the words of a vocabulary drawn by a Zipf distribution
+ * in mixed cases, and a rare random "misspelling" per sentence;
+ * 2. the word lists built with 1 thread, with at least 4 threads, and with at least 4 threads and a CountMinSketch
+ * should all be the same as the HashMap counts pruned and sorted the same way; the first difference is printed otherwise;
+ * 3. the seconds of each build and the number of words counted before pruning are reported.
+ *
+ * Usage: VocabularyBuilderBenchmark [vocabulary file] [number of documents, like 100000]
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+class VocabularyBuilderBenchmark {
+
+	private static final int NUM_FILES = 32;
+
+	private static final int MIN_DOCUMENT_FREQUENCY = 3;
+
+	private static final float MAX_DOCUMENT_FREQUENCY_RATIO = 0.3f;
+
+	private static final int MAX_VOCABULARY_SIZE = 20000;
+
+
+	public static void main(String[] args) throws IOException {
+		String vocabularyFilePath = (args.length > 0) ? args[0] : "resources/enVocabulary-45k.txt";
+		int numDocuments = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+
+		Dictionary dictionary = Dictionary.loadFromWordList(vocabularyFilePath);
+		File directory = Files.createTempDirectory("jcudalda-texts").toFile();
+		long numChars = writeCorpus(dictionary, directory, numDocuments);
+		System.out.println("VocabularyBuilderBenchmark documents = " + numDocuments + ", chars = " + numChars);
+
+		long startTime = System.currentTimeMillis();
+		List<String> expected = buildWithHashMap(directory, numDocuments);
+		System.out.println("HashMap words = " + expected.size() + ", seconds = " + (System.currentTimeMillis() - startTime) / 1000f);
+
+		int numThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		int numDifferences = 0;
+		numDifferences += check("1 thread", expected, build(directory, 1, 0));
+		numDifferences += check(numThreads + " threads", expected, build(directory, numThreads, 0));
+		numDifferences += check(numThreads + " threads with a sketch", expected, build(directory, numThreads, 1 << 18));
+		System.out.println("VocabularyBuilderBenchmark differences = " + numDifferences);
+
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+
+	/**
+	 * @return lines of "word \t term frequency \t document frequency" built by a VocabularyBuilder
+	 */
+	private static List<String> build(File directory, int numThreads, int sketchWidth) throws IOException {
+		VocabularyBuilder builder = new VocabularyBuilder();
+		builder.setNumThreads(numThreads);
+		builder.setMinDocumentFrequency(MIN_DOCUMENT_FREQUENCY);
+		builder.setMaxDocumentFrequencyRatio(MAX_DOCUMENT_FREQUENCY_RATIO);
+		builder.setMaxVocabularySize(MAX_VOCABULARY_SIZE);
+		builder.setCountMinSketch(sketchWidth, 4);
+		File wordListFile = new File(directory.getParentFile(), directory.getName() + "-vocabulary.txt");
+		long startTime = System.currentTimeMillis();
+		builder.buildWordList(directory.getPath(), wordListFile.getPath());
+		System.out.println("VocabularyBuilder threads = " + numThreads + ", sketch width = " + sketchWidth
+				+ ", counted words = " + builder.getWordCounts().size() + ", seconds = " + (System.currentTimeMillis() - startTime) / 1000f);
+		List<String> lines = Files.readAllLines(wordListFile.toPath(), StandardCharsets.UTF_8);
+		wordListFile.delete();
+		return lines;
+	}
+
+
+	/**
+	 * the reference: the lower cases of the tokens of PennTreebankTokenizer.split counted in a HashMap of Strings
+	 */
+	private static List<String> buildWithHashMap(File directory, int numDocuments) throws IOException {
+		PennTreebankTokenizer tokenizer = PennTreebankTokenizer.getInstance();
+		final HashMap<String, long[]> counts = new HashMap<String, long[]>();
+		for (File file : directory.listFiles()) {
+			for (String document : readDocuments(file)) {
+				HashSet<String> documentWords = new HashSet<String>();
+				for (String token : tokenizer.split(document)) {
+					String word = token.toLowerCase();
+					long[] count = counts.get(word);
+					if (count == null) {
+						count = new long[2];
+						counts.put(word, count);
+					}
+					count[0]++;
+					if (documentWords.add(word)) {
+						count[1]++;
+					}
+				}
+			}
+		}
+		long maxDocumentFrequency = (long) Math.floor((double) MAX_DOCUMENT_FREQUENCY_RATIO * numDocuments);
+		ArrayList<String> words = new ArrayList<String>();
+		for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+			long documentFrequency = entry.getValue()[1];
+			if (documentFrequency >= MIN_DOCUMENT_FREQUENCY && documentFrequency <= maxDocumentFrequency) {
+				words.add(entry.getKey());
+			}
+		}
+		Collections.sort(words, new Comparator<String>() {
+			@Override
+			public int compare(String w1, String w2) {
+				long[] c1 = counts.get(w1);
+				long[] c2 = counts.get(w2);
+				int result = Long.compare(c2[0], c1[0]);
+				if (result == 0) {
+					result = Long.compare(c2[1], c1[1]);
+				}
+				return (result != 0) ? result : w1.compareTo(w2);
+			}
+		});
+		ArrayList<String> lines = new ArrayList<String>();
+		for (String word : words.subList(0, Math.min(words.size(), MAX_VOCABULARY_SIZE))) {
+			lines.add(word + "\t" + counts.get(word)[0] + "\t" + counts.get(word)[1]);
+		}
+		return lines;
+	}
+
+
+	private static int check(String name, List<String> expected, List<String> actual) {
+		for (int i = 0; i < Math.max(expected.size(), actual.size()); i++) {
+			String expectedLine = (i < expected.size()) ? expected.get(i) : null;
+			String actualLine = (i < actual.size()) ? actual.get(i) : null;
+			if (expectedLine == null || expectedLine.equals(actualLine) == false) {
+				System.out.println("VocabularyBuilderBenchmark difference of " + name + " at line " + i
+						+ ": expected " + expectedLine + ", actual " + actualLine);
+				return 1;
+			}
+		}
+		return 0;
+	}
+
+
+	/**
+	 * @return number of characters of the documents
+	 */
+	private static long writeCorpus(Dictionary dictionary, File directory, int numDocuments) throws IOException {
+		SplittableRandom random = new SplittableRandom(1);
+		double[] cumulative = new double[dictionary.size()];
+		double sum = 0;
+		for (int i = 0; i < cumulative.length; i++) {
+			sum += 1.0 / (i + 1);
+			cumulative[i] = sum;
+		}
+		long numChars = 0;
+		for (int f = 0; f < NUM_FILES; f++) {
+			StringBuilder builder = new StringBuilder();
+			for (int d = f; d < numDocuments; d += NUM_FILES) {
+				builder.append("<doc id=\"").append(d).append("\">\n");
+				int start = builder.length();
+				int numSentences = 1 + random.nextInt(8);
+				for (int s = 0; s < numSentences; s++) {
+					int numWords = 3 + random.nextInt(15);
+					for (int w = 0; w < numWords; w++) {
+						int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+						String word = dictionary.lookupValue((index < 0) ? -index - 1 : index);
+						builder.append((random.nextInt(8) == 0) ? word.toUpperCase() : word).append(' ');
+					}
+					builder.append("misspelt").append(random.nextInt(1 << 20)).append(". ");
+				}
+				builder.append('\n');
+				numChars += builder.length() - start;
+				builder.append("</doc>\n");
+			}
+			Files.write(new File(directory, "wiki_" + f).toPath(), builder.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return numChars;
+	}
+
+
+	private static ArrayList<String> readDocuments(File file) throws IOException {
+		ArrayList<String> documents = new ArrayList<String>();
+		StringBuilder builder = null;
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			if (builder == null) {
+				String trimmed = line.trim();
+				if (trimmed.startsWith("<doc") && trimmed.endsWith(">")) {
+					builder = new StringBuilder();
+				}
+			} else if (line.startsWith("</doc>")) {
+				documents.add(builder.toString());
+				builder = null;
+			} else {
+				builder.append(line).append('\n');
+			}
+		}
+		return documents;
+	}
+
+}
@@ -0,0 +1,164 @@
+package jcudalda.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+import org.linchimin.common.Dictionary;
+import org.linchimin.common.VocabularyIndex;
+
+
+/**
+ * <pre>
+ * Differential check and benchmark of VocabularyIndex against Dictionary for a vocabulary of random words:
+ *
+ * 1. lookupIndex of NUM_QUERIES words, of which a quarter are absent, and lookupValue of all indices should be the same,
+ * except that an absent word is -1 for both;
+ * 2. the heap bytes of each structure are measured after a garbage collection, and
+ * the queries are looked up NUM_ROUNDS times by each structure, reporting nanoseconds per lookup;
+ * 3. the vocabulary is written as a word list and as a binary vocabulary file to a temporary directory,
+ * and the time of loading the word list by Dictionary.loadFromWordList and building a VocabularyIndex
+ * is compared with the time of VocabularyIndex.open; the opened index is checked and benchmarked as in 1 and 2.
+ *
+ * Usage: VocabularyIndexBenchmark [vocabulary size, like 1000000]
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+class VocabularyIndexBenchmark {
+
+	private static final int NUM_QUERIES = 2000000;
+
+	private static final int NUM_ROUNDS = 5;
+
+
+	public static void main(String[] args) throws IOException {
+		int vocabularySize = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		SplittableRandom random = new SplittableRandom(1);
+
+		// the Dictionary is measured with its words, which are copied from the HashSet
+		long startBytes = usedHeapBytes();
+		Dictionary dictionary = new Dictionary(vocabularySize);
+		HashSet<String> distinctWords = new HashSet<String>(vocabularySize * 2);
+		while (dictionary.size() < vocabularySize) {
+			String word = randomWord(random);
+			if (distinctWords.add(word)) {
+				dictionary.add(new String(word.toCharArray()));
+			}
+		}
+		distinctWords = null;
+		long dictionaryBytes = usedHeapBytes() - startBytes;
+
+		startBytes = usedHeapBytes();
+		VocabularyIndex vocabularyIndex = new VocabularyIndex(dictionary);
+		long indexBytes = usedHeapBytes() - startBytes;
+
+		String[] queries = new String[NUM_QUERIES];
+		for (int i = 0; i < NUM_QUERIES; i++) {
+			// copies, so that neither structure finds a query by identity
+			queries[i] = (i % 4 == 0) ? randomWord(random) : new String(dictionary.lookupValue(random.nextInt(vocabularySize)).toCharArray());
+		}
+		System.out.println("VocabularyIndexBenchmark words = " + vocabularySize
+				+ ", Dictionary bytes/word = " + dictionaryBytes / vocabularySize
+				+ ", VocabularyIndex bytes/word = " + indexBytes / vocabularySize
+				+ " (arrays " + vocabularyIndex.getNumBytes() / vocabularySize + ")");
+
+		int numDifferences = 0;
+		for (String query : queries) {
+			if (dictionary.lookupIndex(query) != vocabularyIndex.lookupIndex(query)) {
+				numDifferences++;
+			}
+		}
+		for (int i = 0; i < vocabularySize; i++) {
+			if (dictionary.lookupValue(i).equals(vocabularyIndex.lookupValue(i)) == false) {
+				numDifferences++;
+			}
+		}
+		System.out.println("VocabularyIndexBenchmark differences = " + numDifferences);
+		benchmark(dictionary, vocabularyIndex, queries);
+
+		File directory = Files.createTempDirectory("jcudalda-vocabulary").toFile();
+		File wordListFile = new File(directory, "vocabulary.txt");
+		File binaryFile = new File(directory, "vocabulary.bin");
+		Files.write(wordListFile.toPath(), dictionary.getValues(), StandardCharsets.UTF_8);
+		vocabularyIndex.write(binaryFile.getPath());
+		vocabularyIndex = null;
+
+		long startTime = System.nanoTime();
+		VocabularyIndex loadedIndex = new VocabularyIndex(Dictionary.loadFromWordList(wordListFile.getPath()));
+		long loadNanos = System.nanoTime() - startTime;
+		loadedIndex = null;
+
+		startTime = System.nanoTime();
+		VocabularyIndex openedIndex = VocabularyIndex.open(binaryFile.getPath());
+		long openNanos = System.nanoTime() - startTime;
+		System.out.println("VocabularyIndexBenchmark word list load and build ms = " + String.format("%.1f", loadNanos / 1e6)
+				+ ", binary file open ms = " + String.format("%.3f", openNanos / 1e6)
+				+ ", binary file bytes/word = " + binaryFile.length() / vocabularySize);
+
+		numDifferences = 0;
+		for (String query : queries) {
+			if (dictionary.lookupIndex(query) != openedIndex.lookupIndex(query)) {
+				numDifferences++;
+			}
+		}
+		for (int i = 0; i < vocabularySize; i++) {
+			if (dictionary.lookupValue(i).equals(openedIndex.lookupValue(i)) == false) {
+				numDifferences++;
+			}
+		}
+		System.out.println("VocabularyIndexBenchmark opened differences = " + numDifferences);
+		benchmark(dictionary, openedIndex, queries);
+
+		for (File file : new File[] {wordListFile, binaryFile, directory}) {
+			file.delete();
+		}
+	}
+
+
+	private static void benchmark(Dictionary dictionary, VocabularyIndex vocabularyIndex, String[] queries) {
+		for (int round = 0; round < NUM_ROUNDS; round++) {
+			long checksum = 0;
+			long startTime = System.nanoTime();
+			for (String query : queries) {
+				checksum += dictionary.lookupIndex(query);
+			}
+			long dictionaryNanos = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			for (String query : queries) {
+				checksum -= vocabularyIndex.lookupIndex(query);
+			}
+			long indexNanos = System.nanoTime() - startTime;
+
+			System.out.println("round = " + round + ", Dictionary ns/lookup = " + String.format("%.1f", (double) dictionaryNanos / NUM_QUERIES)
+					+ ", VocabularyIndex ns/lookup = " + String.format("%.1f", (double) indexNanos / NUM_QUERIES)
+					+ ((checksum != 0) ? ", indices differ" : ""));
+		}
+	}
+
+
+	/**
+	 * @return a word of 3 to 12 lower case letters
+	 */
+	private static String randomWord(SplittableRandom random) {
+		char[] chars = new char[3 + random.nextInt(10)];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(chars);
+	}
+
+
+	private static long usedHeapBytes() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
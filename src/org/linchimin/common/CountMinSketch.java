@@ -0,0 +1,99 @@
+package org.linchimin.common;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * <pre>
+ * a count-min sketch of 'depth' rows of 'width' counters, which estimates the counts of keys in a fixed memory of 4 * depth * width bytes:
+ *
+ * add(hash) : count the key of 'hash' once more, in one counter of each row
+ * estimate(hash) : the minimum of the counters of the key, which is never less than the true count of the key;
+ * with N the sum of all counts, it exceeds the true count by more than e * N / width with probability at most exp(-depth)
+ *
+ * The keys are 32-bit hashes, e.g. VocabularyIndex.lowerCaseHashCode of words, so keys of the same hash share their counters.
+ * The counters are atomic, so threads add to a shared sketch, whose memory does not grow with the number of threads.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+public final class CountMinSketch {
+
+	private final int width;
+
+	private final int depth;
+
+	private final int mask;
+
+	/**
+	 * counters[row * width + column]
+	 */
+	private final AtomicIntegerArray counters;
+
+
+	/**
+	 * @param width : rounded up to a power of 2
+	 * @param depth : number of rows, like 4
+	 */
+	public CountMinSketch(int width, int depth) {
+		if (width <= 0 || width > (1 << 30) || depth <= 0 || (long) Integer.highestOneBit(width * 2 - 1) * depth > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("IllegalArgumentException: width = " + width + ", depth = " + depth);
+		}
+		this.width = Integer.highestOneBit(width * 2 - 1);
+		this.depth = depth;
+		this.mask = this.width - 1;
+		this.counters = new AtomicIntegerArray(this.width * depth);
+	}
+
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public void add(int hash) {
+		for (int row = 0; row < depth; row++) {
+			counters.incrementAndGet(row * width + column(hash, row));
+		}
+	}
+
+	/**
+	 * @return an estimate of the count of the key of 'hash', never less than the true count
+	 */
+	public int estimate(int hash) {
+		int result = Integer.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			result = Math.min(result, counters.get(row * width + column(hash, row)));
+		}
+		return result;
+	}
+
+
+	/**
+	 * a 64-bit finalizer of SplittableRandom seeded by the row, so the columns of the rows are independent of each other
+	 */
+	private int column(int hash, int row) {
+		long x = (hash & 0xFFFFFFFFL) + (row + 1) * 0x9E3779B97F4A7C15L;
+		x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+		return (int) (x ^ (x >>> 31)) & mask;
+	}
+
+
+	/**
+	 * @return number of bytes of the counters
+	 */
+	public long getNumBytes() {
+		return 4L * width * depth;
+	}
+
+
+	@Override
+	public String toString() {
+		return "CountMinSketch [width = " + width + ", depth = " + depth + "]";
+	}
+
+}
@@ -8,6 +8,7 @@ import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -133,7 +134,7 @@ public class Dictionary implements Serializable {
 	}
 
 	/**
-	 * return noEntryValue = getNoEntryValue() if no present
+	 * return -1 if not present
 	 * @param word
 	 * @return
 	 */
@@ -147,7 +148,12 @@ public class Dictionary implements Serializable {
 		}
 		
 		int wordIndex = valueToIndexMap.get(word);
-		if (addIfNotPresent){
+		if (addIfNotPresent == false){
+			// the map returns NO_ENTRY_VALUE, which is also the index of the first word, for an absent word
+			if (wordIndex == NO_ENTRY_VALUE && valueToIndexMap.containsKey(word) == false){
+				return -1;
+			}
+		} else {
 			if (wordIndex == NO_ENTRY_VALUE && valueToIndexMap.containsKey(word) == false){
 				wordIndex = values.size();
 				valueToIndexMap.put(word, wordIndex);
@@ -172,6 +178,13 @@ public class Dictionary implements Serializable {
 	public String lookupValue(int index) {
 		return values.get(index);
 	}
+	
+	/**
+	 * @return an unmodifiable view of the words; the index of a word is its position
+	 */
+	public List<String> getValues() {
+		return Collections.unmodifiableList(values);
+	}
 
 	
 	/**index, word, and frequency; for logging
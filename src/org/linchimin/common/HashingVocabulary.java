@@ -0,0 +1,149 @@
+package org.linchimin.common;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * <pre>
+ * a vocabulary of 'numBuckets' hash buckets for the hashing trick: the lower case of a word is mapped to
+ * a bucket by its String.hashCode, so any word has an index in [0, numBuckets) without a word list,
+ * at the cost of unrelated words sharing a bucket. The buckets depend only on the words and numBuckets,
+ * so a model trained with a HashingVocabulary infers with any HashingVocabulary of the same number of buckets.
+ *
+ * For displaying topic words, each bucket keeps a sample of the first 'numSamplesPerBucket' distinct words
+ * looked up in it; the samples are filled by compare-and-set without locks, so tokenizing threads share
+ * a HashingVocabulary, and a word String is created only when it is added to a sample.
+ * Serialize a HashingVocabulary, e.g. by ObjectSerializer, to keep the samples with a trained model.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+public final class HashingVocabulary implements Vocabulary, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int DEFAULT_NUM_SAMPLES_PER_BUCKET = 4;
+
+	private final int numBuckets;
+
+	private final int numSamplesPerBucket;
+
+	/**
+	 * samples[bucket * numSamplesPerBucket + k] : the k-th sampled word of 'bucket', or null
+	 */
+	private final AtomicReferenceArray<String> samples;
+
+
+	public HashingVocabulary(int numBuckets) {
+		this(numBuckets, DEFAULT_NUM_SAMPLES_PER_BUCKET);
+	}
+
+	/**
+	 * @param numBuckets : the vocabulary size V
+	 * @param numSamplesPerBucket : 0 to keep no samples
+	 */
+	public HashingVocabulary(int numBuckets, int numSamplesPerBucket) {
+		if (numBuckets <= 0 || numSamplesPerBucket < 0 || (long) numBuckets * numSamplesPerBucket > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("IllegalArgumentException: numBuckets = " + numBuckets + ", numSamplesPerBucket = " + numSamplesPerBucket);
+		}
+		this.numBuckets = numBuckets;
+		this.numSamplesPerBucket = numSamplesPerBucket;
+		this.samples = new AtomicReferenceArray<String>(numBuckets * numSamplesPerBucket);
+	}
+
+
+	@Override
+	public int size() {
+		return numBuckets;
+	}
+
+	public int getNumSamplesPerBucket() {
+		return numSamplesPerBucket;
+	}
+
+	/**
+	 * @return the sampled words of 'bucket' separated by '|', or "#bucket" if none
+	 */
+	@Override
+	public String lookupValue(int bucket) {
+		if (bucket < 0 || bucket >= numBuckets) {
+			throw new IndexOutOfBoundsException("IndexOutOfBoundsException: bucket = " + bucket + ", numBuckets = " + numBuckets);
+		}
+		StringBuilder builder = new StringBuilder();
+		for (int k = 0; k < numSamplesPerBucket; k++) {
+			String sample = samples.get(bucket * numSamplesPerBucket + k);
+			if (sample == null) {
+				break;
+			}
+			if (k > 0) {
+				builder.append('|');
+			}
+			builder.append(sample);
+		}
+		return (builder.length() > 0) ? builder.toString() : "#" + bucket;
+	}
+
+	/**
+	 * @return the bucket of the lower case of 'word', the same as lookupLowerCaseIndex of a tokenized 'word'; the samples are not changed
+	 */
+	@Override
+	public int lookupIndex(String word) {
+		return toBucket(VocabularyIndex.lowerCaseHashCode(word, 0, word.length()));
+	}
+
+	/**
+	 * @return the bucket of text[start, end).toString().toLowerCase(), whose samples may get the word
+	 */
+	@Override
+	public int lookupLowerCaseIndex(CharSequence text, int start, int end) {
+		int bucket = toBucket(VocabularyIndex.lowerCaseHashCode(text, start, end));
+		if (numSamplesPerBucket > 0) {
+			sample(bucket, text, start, end);
+		}
+		return bucket;
+	}
+
+
+	/**
+	 * maps the mixed hash to [0, numBuckets) by the high bits of a 64-bit product, which avoids a division
+	 */
+	private int toBucket(int hash) {
+		return (int) (((VocabularyIndex.mix(hash) & 0xFFFFFFFFL) * numBuckets) >>> 32);
+	}
+
+
+	/**
+	 * add the lower case of text[start, end) to the samples of 'bucket' if not present and the samples are not full
+	 */
+	private void sample(int bucket, CharSequence text, int start, int end) {
+		int first = bucket * numSamplesPerBucket;
+		for (int k = 0; k < numSamplesPerBucket; k++) {
+			String sample = samples.get(first + k);
+			if (sample == null) {
+				String word = text.subSequence(start, end).toString().toLowerCase();
+				if (samples.compareAndSet(first + k, null, word)) {
+					return;
+				}
+				// another thread added a sample here; check it like the others
+				sample = samples.get(first + k);
+			}
+			if (equalsLowerCase(sample, text, start, end)) {
+				return;
+			}
+		}
+	}
+
+	private static boolean equalsLowerCase(String sample, CharSequence text, int start, int end) {
+		if (sample.length() != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (sample.charAt(i - start) != VocabularyIndex.toLowerCase(text.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
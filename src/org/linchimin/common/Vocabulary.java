@@ -0,0 +1,34 @@
+package org.linchimin.common;
+
+
+/**
+ * <pre>
+ * the mapping of words and word indices [0, size()) used to tokenize documents:
+ * a VocabularyIndex of a fixed list of words, or a HashingVocabulary of hash buckets for open vocabularies
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+public interface Vocabulary {
+
+	/**
+	 * @return number of word indices
+	 */
+	int size();
+
+	/**
+	 * @return the word of 'index', for displaying topic words
+	 */
+	String lookupValue(int index);
+
+	/**
+	 * @return index of 'word', or -1 if not present; a HashingVocabulary returns the bucket of the lower case of any word
+	 */
+	int lookupIndex(String word);
+
+	/**
+	 * @return index of text[start, end).toString().toLowerCase(), or -1 if not present
+	 */
+	int lookupLowerCaseIndex(CharSequence text, int start, int end);
+
+}
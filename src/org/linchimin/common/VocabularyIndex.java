@@ -0,0 +1,436 @@
+package org.linchimin.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * <pre>
+ * an immutable index of a vocabulary of words, a read-optimized replacement of Dictionary.lookupIndex and lookupValue:
+ *
+ * lookupIndex(word) : index of 'word', or -1 if not present
+ * lookupIndex(text, start, end) : index of the word equal to text[start, end), or -1 if not present
+ * lookupLowerCaseIndex(text, start, end) : index of the word equal to text[start, end).toString().toLowerCase(), or -1 if not present
+ * lookupValue(index) : the word of 'index'
+ *
+ * The words are packed one after another in a single char[] 'chars'; the i-th word is chars[wordOffsets[i], wordOffsets[i + 1]).
+ * They are hashed by String.hashCode into an open-addressing table of (hash, word index) pairs with linear probing,
+ * so a lookup compares the characters of a word only if its full hash matches, and looks up spans of a text
+ * without creating a String; an absent word is -1 instead of a value that is also the index of a word.
+ *
+ * Compared with a Dictionary, which keeps a String object per word and a TObjectIntHashMap of them,
+ * the index takes about half of the memory, e.g. 36 instead of 76 bytes per word for 1M words of 7.5 characters on average.
+ *
+ * All the fields are final and never modified after construction, so an index can be shared by threads without locking.
+ *
+ * An index can be written to a binary vocabulary file by 'write' and loaded back by 'open', all little-endian:
+ *
+ * header : MAGIC, VERSION, size, numChars, numSlots, as 32-bit ints
+ * wordOffsets : size + 1 32-bit ints
+ * table : 2 * numSlots 32-bit ints
+ * chars : numChars 16-bit chars
+ *
+ * 'open' maps the file and copies the arrays in bulk without hashing the words again, so a model server
+ * loads a vocabulary of 1M words in tens of milliseconds instead of seconds; the lookups then read the heap arrays,
+ * which are faster than reading the mapped file.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+public final class VocabularyIndex implements Vocabulary {
+
+	/**
+	 * "JVOC" in little-endian
+	 */
+	public static final int MAGIC = 0x434F564A;
+
+	public static final int VERSION = 1;
+
+	private static final int HEADER_NUM_INTS = 5;
+
+	private static final int NO_ENTRY = -1;
+
+	/**
+	 * the characters of all words, one word after another
+	 */
+	private final char[] chars;
+
+	/**
+	 * wordOffsets[i] : offset of the i-th word in 'chars'; wordOffsets[size] is chars.length
+	 */
+	private final int[] wordOffsets;
+
+	/**
+	 * table[2 * slot] : hash of the word of the slot; table[2 * slot + 1] : index of the word, or NO_ENTRY;
+	 * the number of slots is a power of 2 and at least 4/3 of the number of words
+	 */
+	private final int[] table;
+
+	private final int mask;
+
+
+	private VocabularyIndex(char[] chars, int[] wordOffsets, int[] table) {
+		this.chars = chars;
+		this.wordOffsets = wordOffsets;
+		this.table = table;
+		this.mask = table.length / 2 - 1;
+	}
+
+
+	/**
+	 * @param dictionary : the words are copied, so later additions to 'dictionary' are not indexed
+	 */
+	public VocabularyIndex(Dictionary dictionary) {
+		this(dictionary.getValues());
+	}
+
+	/**
+	 * @param words : distinct words; the index of a word is its position in 'words'
+	 * @throws IllegalArgumentException if 'words' contains duplicates
+	 */
+	public VocabularyIndex(List<String> words) {
+		final int size = words.size();
+		long numChars = 0;
+		for (String word : words) {
+			numChars += word.length();
+		}
+		if (numChars > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("IllegalArgumentException: too many characters of words: " + numChars);
+		}
+		this.chars = new char[(int) numChars];
+		this.wordOffsets = new int[size + 1];
+		long numSlots = Long.highestOneBit(Math.max(2, (long) size * 4 / 3) * 2 - 1);
+		if (numSlots > (1 << 29)) {
+			throw new IllegalArgumentException("IllegalArgumentException: too many words: " + size);
+		}
+		this.table = new int[(int) numSlots * 2];
+		this.mask = (int) numSlots - 1;
+		for (int slot = 0; slot < numSlots; slot++) {
+			table[2 * slot + 1] = NO_ENTRY;
+		}
+
+		int offset = 0;
+		for (int i = 0; i < size; i++) {
+			String word = words.get(i);
+			word.getChars(0, word.length(), chars, offset);
+			wordOffsets[i] = offset;
+			offset += word.length();
+			wordOffsets[i + 1] = offset;
+
+			int hash = word.hashCode();
+			int slot = mix(hash) & mask;
+			while (table[2 * slot + 1] != NO_ENTRY) {
+				if (table[2 * slot] == hash && regionEquals(table[2 * slot + 1], chars, wordOffsets[i], offset)) {
+					throw new IllegalArgumentException("IllegalArgumentException: duplicate words at " + table[2 * slot + 1] + " and " + i + ": " + word);
+				}
+				slot = (slot + 1) & mask;
+			}
+			table[2 * slot] = hash;
+			table[2 * slot + 1] = i;
+		}
+	}
+
+
+	@Override
+	public int size() {
+		return wordOffsets.length - 1;
+	}
+
+	/**
+	 * @return a new String of the word of 'index'
+	 */
+	@Override
+	public String lookupValue(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("IndexOutOfBoundsException: index = " + index + ", size = " + size());
+		}
+		return new String(chars, wordOffsets[index], wordOffsets[index + 1] - wordOffsets[index]);
+	}
+
+	public boolean containsWord(String word) {
+		return lookupIndex(word) >= 0;
+	}
+
+	/**
+	 * @return index of 'word', or -1 if not present
+	 */
+	@Override
+	public int lookupIndex(String word) {
+		return lookup(word.hashCode(), word, 0, word.length(), false);
+	}
+
+	/**
+	 * @return index of the word equal to text[start, end), or -1 if not present
+	 */
+	public int lookupIndex(CharSequence text, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + text.charAt(i);
+		}
+		return lookup(hash, text, start, end, false);
+	}
+
+
+	/**
+	 * <pre>
+	 * the characters are lower-cased one at a time by Character.toLowerCase, which agrees with String.toLowerCase
+	 * except for surrogate pairs, the capital dotted I, the capital sigma, and the languages of Locale.getDefault() with special casing rules;
+	 * a span with those is converted to a String and looked up.
+	 * </pre>
+	 * @return index of the word equal to text[start, end).toString().toLowerCase(), or -1 if not present
+	 */
+	@Override
+	public int lookupLowerCaseIndex(CharSequence text, int start, int end) {
+		if (hasSpecialCasing(Locale.getDefault())) {
+			return lookupIndex(text.subSequence(start, end).toString().toLowerCase());
+		}
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c >= 0x80 && hasSpecialCasing(c)) {
+				return lookupIndex(text.subSequence(start, end).toString().toLowerCase());
+			}
+			hash = 31 * hash + toLowerCase(c);
+		}
+		return lookup(hash, text, start, end, true);
+	}
+
+
+	private int lookup(int hash, CharSequence text, int start, int end, boolean lowerCase) {
+		int slot = mix(hash) & mask;
+		for (;;) {
+			int index = table[2 * slot + 1];
+			if (index == NO_ENTRY) {
+				return -1;
+			}
+			if (table[2 * slot] == hash && regionEquals(index, text, start, end, lowerCase)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+
+	/**
+	 * @return whether the word of 'index' equals text[start, end), lower-cased if 'lowerCase'
+	 */
+	private boolean regionEquals(int index, CharSequence text, int start, int end, boolean lowerCase) {
+		int offset = wordOffsets[index];
+		if (wordOffsets[index + 1] - offset != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (lowerCase) {
+				c = toLowerCase(c);
+			}
+			if (chars[offset + i - start] != c) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether the word of 'index' equals array[start, end)
+	 */
+	private boolean regionEquals(int index, char[] array, int start, int end) {
+		int offset = wordOffsets[index];
+		if (wordOffsets[index + 1] - offset != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (chars[offset + i - start] != array[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return text[start, end).toString().toLowerCase().hashCode(), without creating the String unless special casing applies
+	 */
+	public static int lowerCaseHashCode(CharSequence text, int start, int end) {
+		if (hasSpecialCasing(Locale.getDefault())) {
+			return text.subSequence(start, end).toString().toLowerCase().hashCode();
+		}
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c >= 0x80 && hasSpecialCasing(c)) {
+				return text.subSequence(start, end).toString().toLowerCase().hashCode();
+			}
+			hash = 31 * hash + toLowerCase(c);
+		}
+		return hash;
+	}
+
+	static char toLowerCase(char c) {
+		if (c < 0x80) {
+			return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+		}
+		return Character.toLowerCase(c);
+	}
+
+	/**
+	 * spreads the hash codes of similar words over the table
+	 */
+	static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @return whether text[start, end).toString().toLowerCase() differs from lower-casing its characters one at a time
+	 */
+	static boolean hasSpecialCasing(CharSequence text, int start, int end) {
+		if (hasSpecialCasing(Locale.getDefault())) {
+			return true;
+		}
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c >= 0x80 && hasSpecialCasing(c)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether String.toLowerCase lower-cases 'c' by other than Character.toLowerCase(c)
+	 */
+	private static boolean hasSpecialCasing(char c) {
+		return Character.isSurrogate(c) || c == '\u0130' || c == '\u03A3';
+	}
+
+	/**
+	 * @return whether String.toLowerCase has special casing rules for the language of 'locale'
+	 */
+	private static boolean hasSpecialCasing(Locale locale) {
+		String language = locale.getLanguage();
+		return language.equals("tr") || language.equals("az") || language.equals("lt");
+	}
+
+
+	/**
+	 * @return number of bytes of the arrays
+	 */
+	public long getNumBytes() {
+		return 2L * chars.length + 4L * (wordOffsets.length + table.length);
+	}
+
+
+	@Override
+	public String toString() {
+		final int printSize = Math.min(30, size());
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < printSize; i++) {
+			builder.append(i).append('-').append(chars, wordOffsets[i], wordOffsets[i + 1] - wordOffsets[i]);
+			builder.append(", ");
+		}
+		if (printSize < size()) {
+			builder.append("... ");
+		}
+		return "VocabularyIndex [size = " + size() + ", indices and words = " + builder + "]";
+	}
+
+
+	/**
+	 * write the index to a binary vocabulary file, which 'open' loads
+	 */
+	public void write(String filePath) {
+		File parent = new File(filePath).getAbsoluteFile().getParentFile();
+		if (parent != null && parent.exists() == false) {
+			parent.mkdirs();
+		}
+		long fileSize = 4L * HEADER_NUM_INTS + getNumBytes();
+		if (fileSize > Integer.MAX_VALUE) {
+			throw new IllegalStateException("IllegalStateException: the binary vocabulary file would exceed 2GB: " + fileSize + " bytes");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) fileSize).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(size());
+		buffer.putInt(chars.length);
+		buffer.putInt(table.length / 2);
+		buffer.asIntBuffer().put(wordOffsets).put(table);
+		((Buffer) buffer).position(4 * (HEADER_NUM_INTS + wordOffsets.length + table.length));
+		buffer.asCharBuffer().put(chars);
+		((Buffer) buffer).clear();
+
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+				FileChannel channel = file.getChannel()) {
+			channel.truncate(0);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot write " + filePath, e);
+		}
+	}
+
+
+	/**
+	 * load a binary vocabulary file written by 'write'
+	 */
+	public static VocabularyIndex open(String filePath) {
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "r");
+				FileChannel channel = file.getChannel()) {
+
+			long fileSize = channel.size();
+			if (fileSize < HEADER_NUM_INTS * 4 || fileSize > Integer.MAX_VALUE) {
+				throw new IllegalStateException("IllegalStateException: invalid binary vocabulary file size " + fileSize + " of " + filePath);
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+			int magic = mapped.getInt(0);
+			int version = mapped.getInt(4);
+			int size = mapped.getInt(8);
+			int numChars = mapped.getInt(12);
+			int numSlots = mapped.getInt(16);
+			long expectedSize = 4L * (HEADER_NUM_INTS + size + 1 + 2L * numSlots) + 2L * numChars;
+			if (magic != MAGIC || version != VERSION || size < 0 || numChars < 0 || numSlots <= size
+					|| Integer.bitCount(numSlots) != 1 || expectedSize != fileSize) {
+				throw new IllegalStateException("IllegalStateException: not a binary vocabulary file of version " + VERSION + ": " + filePath
+						+ "; magic = " + Integer.toHexString(magic) + ", version = " + version + ", size = " + size
+						+ ", numChars = " + numChars + ", numSlots = " + numSlots + ", file size = " + fileSize);
+			}
+
+			int[] wordOffsets = new int[size + 1];
+			int[] table = new int[2 * numSlots];
+			char[] chars = new char[numChars];
+			((Buffer) mapped).position(4 * HEADER_NUM_INTS);
+			mapped.asIntBuffer().get(wordOffsets).get(table);
+			((Buffer) mapped).position(4 * (HEADER_NUM_INTS + wordOffsets.length + table.length));
+			mapped.asCharBuffer().get(chars);
+			if (wordOffsets[0] != 0 || wordOffsets[size] != numChars) {
+				throw new IllegalStateException("IllegalStateException: invalid word offsets of binary vocabulary file " + filePath);
+			}
+			return new VocabularyIndex(chars, wordOffsets, table);
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot map " + filePath, e);
+		}
+	}
+
+
+	/**
+	 * @return whether the file starts with MAGIC, i.e. a binary vocabulary file rather than a word list
+	 */
+	public static boolean isBinaryFile(String filePath) {
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+			return file.length() >= 4 && Integer.reverseBytes(file.readInt()) == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+}
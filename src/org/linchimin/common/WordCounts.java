@@ -0,0 +1,301 @@
+package org.linchimin.common;
+
+import java.util.Arrays;
+
+
+/**
+ * <pre>
+ * a growable map from lower-cased words to their term frequencies and document frequencies, for building vocabularies:
+ *
+ * add(text, start, end, document) : count text[start, end).toString().toLowerCase() once more,
+ * and once more for its document frequency if 'document' differs from the last document the word was counted in
+ * addAll(other) : add the counts of 'other', whose documents are assumed disjoint from those of this map
+ *
+ * The words are packed in a char[] and hashed into an open-addressing table of (hash, word index) pairs,
+ * the same as VocabularyIndex, and the counts are kept in primitive arrays by word index,
+ * so counting a token looks up its span without creating a String; a String is created only for special casing.
+ *
+ * Not thread-safe; each counting thread keeps its own map, and the maps are merged by addAll at the end.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+public final class WordCounts {
+
+	private static final int NO_ENTRY = -1;
+
+	private char[] chars;
+
+	private int numChars;
+
+	/**
+	 * wordOffsets[i] : offset of the i-th word in 'chars'; wordOffsets[size] is numChars
+	 */
+	private int[] wordOffsets;
+
+	private long[] termFrequencies;
+
+	private int[] documentFrequencies;
+
+	/**
+	 * lastDocuments[i] : the last document the i-th word was counted in
+	 */
+	private int[] lastDocuments;
+
+	/**
+	 * table[2 * slot] : hash of the word of the slot; table[2 * slot + 1] : index of the word, or NO_ENTRY
+	 */
+	private int[] table;
+
+	private int mask;
+
+	private int size;
+
+
+	public WordCounts() {
+		this(1024);
+	}
+
+	public WordCounts(int initialCapacity) {
+		int capacity = Math.max(16, initialCapacity);
+		this.chars = new char[capacity * 8];
+		this.wordOffsets = new int[capacity + 1];
+		this.termFrequencies = new long[capacity];
+		this.documentFrequencies = new int[capacity];
+		this.lastDocuments = new int[capacity];
+		int numSlots = Integer.highestOneBit(capacity * 2 - 1) * 2;
+		this.table = new int[numSlots * 2];
+		this.mask = numSlots - 1;
+		Arrays.fill(table, NO_ENTRY);
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+	public String getWord(int index) {
+		checkIndex(index);
+		return new String(chars, wordOffsets[index], wordOffsets[index + 1] - wordOffsets[index]);
+	}
+
+	public long getTermFrequency(int index) {
+		checkIndex(index);
+		return termFrequencies[index];
+	}
+
+	public int getDocumentFrequency(int index) {
+		checkIndex(index);
+		return documentFrequencies[index];
+	}
+
+	/**
+	 * @return index of 'word', or -1 if not counted
+	 */
+	public int lookupIndex(String word) {
+		int hash = word.hashCode();
+		int slot = VocabularyIndex.mix(hash) & mask;
+		for (;;) {
+			int index = table[2 * slot + 1];
+			if (index == NO_ENTRY) {
+				return -1;
+			}
+			if (table[2 * slot] == hash && regionEquals(index, word, 0, word.length(), false)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+
+	/**
+	 * count text[start, end).toString().toLowerCase() in 'document'
+	 * @param document : a number of the document that increases, or at least changes, from one document to the next
+	 * @return index of the word
+	 */
+	public int add(CharSequence text, int start, int end, int document) {
+		int hash = VocabularyIndex.lowerCaseHashCode(text, start, end);
+		boolean lowerCase = true;
+		if (VocabularyIndex.hasSpecialCasing(text, start, end)) {
+			text = text.subSequence(start, end).toString().toLowerCase();
+			start = 0;
+			end = text.length();
+			lowerCase = false;
+		}
+		int index = findOrInsert(hash, text, start, end, lowerCase);
+		termFrequencies[index]++;
+		if (lastDocuments[index] != document || documentFrequencies[index] == 0) {
+			lastDocuments[index] = document;
+			documentFrequencies[index]++;
+		}
+		return index;
+	}
+
+
+	/**
+	 * add the term and document frequencies of 'other', whose documents are assumed disjoint from those of this map
+	 */
+	public void addAll(WordCounts other) {
+		CharArraySequence otherChars = new CharArraySequence(other.chars);
+		for (int i = 0; i < other.size; i++) {
+			int start = other.wordOffsets[i];
+			int end = other.wordOffsets[i + 1];
+			int hash = 0;
+			for (int k = start; k < end; k++) {
+				hash = 31 * hash + other.chars[k];
+			}
+			int index = findOrInsert(hash, otherChars, start, end, false);
+			termFrequencies[index] += other.termFrequencies[i];
+			documentFrequencies[index] += other.documentFrequencies[i];
+		}
+	}
+
+
+	private int findOrInsert(int hash, CharSequence text, int start, int end, boolean lowerCase) {
+		int slot = VocabularyIndex.mix(hash) & mask;
+		for (;;) {
+			int index = table[2 * slot + 1];
+			if (index == NO_ENTRY) {
+				break;
+			}
+			if (table[2 * slot] == hash && regionEquals(index, text, start, end, lowerCase)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int index = size;
+		ensureCapacity(end - start);
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			chars[numChars++] = lowerCase ? VocabularyIndex.toLowerCase(c) : c;
+		}
+		size++;
+		wordOffsets[size] = numChars;
+		lastDocuments[index] = 0;
+
+		table[2 * slot] = hash;
+		table[2 * slot + 1] = index;
+		if (size * 4L > (mask + 1L) * 3) {
+			rehash();
+		}
+		return index;
+	}
+
+
+	private boolean regionEquals(int index, CharSequence text, int start, int end, boolean lowerCase) {
+		int offset = wordOffsets[index];
+		if (wordOffsets[index + 1] - offset != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (lowerCase) {
+				c = VocabularyIndex.toLowerCase(c);
+			}
+			if (chars[offset + i - start] != c) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private void ensureCapacity(int numNewChars) {
+		if (numChars + (long) numNewChars > chars.length) {
+			long capacity = Math.max(chars.length * 2L, numChars + (long) numNewChars);
+			if (capacity > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("IllegalStateException: too many characters of words: " + capacity);
+			}
+			chars = Arrays.copyOf(chars, (int) capacity);
+		}
+		if (size + 1 == termFrequencies.length) {
+			int capacity = termFrequencies.length * 2;
+			wordOffsets = Arrays.copyOf(wordOffsets, capacity + 1);
+			termFrequencies = Arrays.copyOf(termFrequencies, capacity);
+			documentFrequencies = Arrays.copyOf(documentFrequencies, capacity);
+			lastDocuments = Arrays.copyOf(lastDocuments, capacity);
+		}
+	}
+
+
+	private void rehash() {
+		int numSlots = (mask + 1) * 2;
+		if (numSlots > (1 << 29)) {
+			throw new IllegalStateException("IllegalStateException: too many words: " + size);
+		}
+		int[] oldTable = table;
+		table = new int[numSlots * 2];
+		mask = numSlots - 1;
+		Arrays.fill(table, NO_ENTRY);
+		for (int oldSlot = 0; oldSlot < oldTable.length / 2; oldSlot++) {
+			int index = oldTable[2 * oldSlot + 1];
+			if (index == NO_ENTRY) {
+				continue;
+			}
+			int hash = oldTable[2 * oldSlot];
+			int slot = VocabularyIndex.mix(hash) & mask;
+			while (table[2 * slot + 1] != NO_ENTRY) {
+				slot = (slot + 1) & mask;
+			}
+			table[2 * slot] = hash;
+			table[2 * slot + 1] = index;
+		}
+	}
+
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("IndexOutOfBoundsException: index = " + index + ", size = " + size);
+		}
+	}
+
+
+	/**
+	 * @return number of bytes of the arrays
+	 */
+	public long getNumBytes() {
+		return 2L * chars.length + 4L * (wordOffsets.length + documentFrequencies.length + lastDocuments.length + table.length)
+				+ 8L * termFrequencies.length;
+	}
+
+
+	@Override
+	public String toString() {
+		return "WordCounts [size = " + size + ", chars = " + numChars + "]";
+	}
+
+
+	/**
+	 * a view of a char[] for comparing and copying its regions
+	 */
+	private static final class CharArraySequence implements CharSequence {
+
+		private final char[] array;
+
+		CharArraySequence(char[] array) {
+			this.array = array;
+		}
+
+		@Override
+		public int length() {
+			return array.length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return array[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(array, start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(array);
+		}
+	}
+
+}
@@ -2,6 +2,7 @@ package org.linchimin.jcuda.utils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.IntBuffer;
 import java.util.Arrays;
 
 import org.linchimin.jcuda.pointer.HostIntsPointer;
@@ -77,7 +78,14 @@ public class CudaIntsMatrix  {
 	}
 	
 	
-	private void copyFrom(int[] hostData, int numElementsToCopy){
+	public void copyFrom(int[] hostData, int numElementsToCopy){
+		JCudaMemoryUtils.copyDataFromHostToDevice(Pointer.to(hostData), numElementsToCopy * Sizeof.INT, devicePointer);
+	}
+	
+	/**
+	 * @param hostData : a heap or direct buffer; the copy starts from its current position
+	 */
+	public void copyFrom(IntBuffer hostData, int numElementsToCopy){
 		JCudaMemoryUtils.copyDataFromHostToDevice(Pointer.to(hostData), numElementsToCopy * Sizeof.INT, devicePointer);
 	}
 	
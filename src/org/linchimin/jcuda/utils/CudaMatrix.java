@@ -169,7 +169,10 @@ public class CudaMatrix {
 		copyTo(result, result.length);
 	}
 	
-	private void copyTo(float[] result, int numElementsToCopy){
+	/**
+	 * copy the first 'numElementsToCopy' elements of this, in column major, from device to 'result'
+	 */
+	public void copyTo(float[] result, int numElementsToCopy){
 		ArgumentChecker.checkNonDecreasingOrder(0, numElementsToCopy, result.length);
 		ArgumentChecker.checkEqualOrSmaller(numElementsToCopy, getNumElements());
 		JCudaMemoryUtils.copyDataFromDeviceToHost(devicePointer, result, numElementsToCopy);
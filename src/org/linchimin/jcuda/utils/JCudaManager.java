@@ -40,6 +40,16 @@ public class JCudaManager {
 	private static CUcontext context;
 	private static CUstream cuStream;
 
+	/**
+	 * whether 'context' is current to a thread; see makeContextCurrent
+	 */
+	private static final ThreadLocal<Boolean> CONTEXT_CURRENT = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return false;
+		}
+	};
+
 	
 	
 	/**
@@ -47,10 +57,32 @@ public class JCudaManager {
 	 */
 	private static ArrayList<CUmodule> cuMmodules;
 
+	/**
+	 * null before isAvailable() is called
+	 */
+	private static Boolean available;
+	
 	
+	/**
+	 * @return true if JCuda is initialized successfully, 
+	 * false if the native libraries, the driver, or a device are not available
+	 */
+	public static synchronized boolean isAvailable() {
+		if (available == null) {
+			try {
+				initialize();
+				available = true;
+			} catch (Throwable e) {
+				String message = String.valueOf(e.getMessage()).split("\n")[0];
+				System.err.println("JCudaManager.isAvailable() failed to initialize JCuda: " + e.getClass().getName() + ": " + message);
+				available = false;
+			}
+		}
+		return available;
+	}
 	
 	
-	static void initialize() {
+	static synchronized void initialize() {
 		if (device != null) {
 			return;
 		}
@@ -192,6 +224,22 @@ public class JCudaManager {
 	
 	
 	
+	/**
+	 * <pre>
+	 * bind the context to the calling thread; a context created by cuCtxCreate is only current to the thread that created it,
+	 * so a thread other than the one that initialized JCuda calls this before using device memory or launching kernels.
+	 * Cheap after the first call of a thread.
+	 * </pre>
+	 */
+	public static void makeContextCurrent() {
+		if (CONTEXT_CURRENT.get() == false) {
+			initialize();
+			cuCtxSetCurrent(context);
+			CONTEXT_CURRENT.set(true);
+		}
+	}
+	
+	
 	/**
 	 * Block for a context's tasks to complete. Blocks until the device has
 	 * completed all preceding requested tasks. cuCtxSynchronize() returns an
@@ -0,0 +1,175 @@
+package org.linchimin.jcudalda;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <pre>
+ * a document as a bag of words, i.e. its distinct word indices in ascending order and their frequencies;
+ * the word order is irrelevant to LDA, so it is equivalent to the int[] word indices of the document
+ * while taking less space when words repeat.
+ *
+ * Negative word indices, like the -1 and -2 separators of sentences and paragraphs of an ints corpus,
+ * are dropped when converted from int[] word indices.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public final class BagOfWordsDocument implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * distinct word indices in ascending order
+	 */
+	private final int[] wordIndices;
+
+	/**
+	 * wordFrequencies[i] : number of occurrences of wordIndices[i]; all positive
+	 */
+	private final int[] wordFrequencies;
+
+
+	/**
+	 * @param wordIndices : distinct non-negative word indices in ascending order
+	 * @param wordFrequencies : positive numbers of occurrences of the words
+	 */
+	public BagOfWordsDocument(int[] wordIndices, int[] wordFrequencies) {
+		if (wordIndices.length != wordFrequencies.length){
+			throw new IllegalArgumentException("IllegalArgumentException: wordIndices.length = " + wordIndices.length
+					+ " != wordFrequencies.length = " + wordFrequencies.length);
+		}
+		for (int i = 0; i < wordIndices.length; i++) {
+			if ((i == 0 && wordIndices[i] < 0) || (i > 0 && wordIndices[i] <= wordIndices[i - 1])){
+				throw new IllegalArgumentException("IllegalArgumentException: wordIndices should be non-negative and strictly increasing; "
+						+ "wordIndices[" + i + "] = " + wordIndices[i]);
+			}
+			if (wordFrequencies[i] <= 0){
+				throw new IllegalArgumentException("IllegalArgumentException: wordFrequencies[" + i + "] = " + wordFrequencies[i] + " <= 0");
+			}
+		}
+		this.wordIndices = wordIndices;
+		this.wordFrequencies = wordFrequencies;
+	}
+
+
+	/**
+	 * @param documentWordIndices : word indices of a document; negative ones are dropped
+	 */
+	public static BagOfWordsDocument fromWordIndices(int[] documentWordIndices) {
+		int[] sortedWordIndices = documentWordIndices.clone();
+		Arrays.sort(sortedWordIndices);
+
+		int numDistinctWords = 0;
+		int previous = -1;
+		for (int wordIndex : sortedWordIndices) {
+			if (wordIndex > previous) {
+				numDistinctWords++;
+				previous = wordIndex;
+			}
+		}
+
+		int[] wordIndices = new int[numDistinctWords];
+		int[] wordFrequencies = new int[numDistinctWords];
+		int i = -1;
+		previous = -1;
+		for (int wordIndex : sortedWordIndices) {
+			if (wordIndex < 0) {
+				continue;
+			}
+			if (wordIndex > previous) {
+				wordIndices[++i] = wordIndex;
+				previous = wordIndex;
+			}
+			wordFrequencies[i]++;
+		}
+		return new BagOfWordsDocument(wordIndices, wordFrequencies);
+	}
+
+
+	/**
+	 * @param documents : each int[] contains word indices of a document
+	 */
+	public static ArrayList<BagOfWordsDocument> fromDocuments(List<int[]> documents) {
+		ArrayList<BagOfWordsDocument> result = new ArrayList<BagOfWordsDocument>(documents.size());
+		for (int[] documentWordIndices : documents) {
+			result.add(fromWordIndices(documentWordIndices));
+		}
+		return result;
+	}
+
+
+	/**
+	 * @return word indices of the document with each word repeated by its frequency, in ascending order
+	 */
+	public int[] toWordIndices() {
+		int[] result = new int[getNumWords()];
+		int position = 0;
+		for (int i = 0; i < wordIndices.length; i++) {
+			Arrays.fill(result, position, position + wordFrequencies[i], wordIndices[i]);
+			position += wordFrequencies[i];
+		}
+		return result;
+	}
+
+
+	/**
+	 * @return number of distinct words
+	 */
+	public int getNumDistinctWords() {
+		return wordIndices.length;
+	}
+
+	/**
+	 * @return total number of occurrences of words
+	 */
+	public int getNumWords() {
+		int numWords = 0;
+		for (int frequency : wordFrequencies) {
+			numWords += frequency;
+		}
+		return numWords;
+	}
+
+	public int[] getWordIndices() {
+		return wordIndices;
+	}
+
+	public int[] getWordFrequencies() {
+		return wordFrequencies;
+	}
+
+
+	@Override
+	public boolean equals(Object object) {
+		if (this == object) {
+			return true;
+		}
+		if (object instanceof BagOfWordsDocument == false) {
+			return false;
+		}
+		BagOfWordsDocument document = (BagOfWordsDocument) object;
+		return Arrays.equals(wordIndices, document.wordIndices) && Arrays.equals(wordFrequencies, document.wordFrequencies);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(wordIndices) + Arrays.hashCode(wordFrequencies);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		for (int i = 0; i < wordIndices.length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(wordIndices[i]).append('=').append(wordFrequencies[i]);
+		}
+		return builder.append('}').toString();
+	}
+
+}
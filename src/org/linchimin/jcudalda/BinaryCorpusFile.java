@@ -0,0 +1,317 @@
+package org.linchimin.jcudalda;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.linchimin.utils.FileUtils;
+import org.linchimin.utils.ObjectSerializer;
+
+/**
+ * <pre>
+ * A memory-mapped file of documents in a compressed sparse row format, all little-endian 32-bit ints:
+ *
+ * header : MAGIC, VERSION, flags, numDocuments, numWords
+ * docsWordOffsets : numDocuments + 1 offsets, starting from 0 and ending with numWords
+ * docsWordIndices : numWords word indices
+ * docsWordFrequencies : numWords frequencies, only if (flags & FLAG_BAG_OF_WORDS) != 0
+ *
+ * A 'binary corpus' is a directory of such files, which can be converted from an ints corpus or
+ * a bag-of-words corpus with 'convertCorpus'. Unlike the serializable files, reading a file neither
+ * deserializes nor allocates the documents; 'getMiniBatch' returns views of the mapped word indices.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public class BinaryCorpusFile {
+
+	/**
+	 * "JLDA" in little-endian
+	 */
+	public static final int MAGIC = 0x41444C4A;
+
+	public static final int VERSION = 1;
+
+	public static final int FLAG_BAG_OF_WORDS = 1;
+
+	private static final int HEADER_NUM_INTS = 5;
+
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	private final String filePath;
+
+	private final int numDocuments;
+
+	private final int numWords;
+
+	private final int[] docsWordOffsets;
+
+	private final IntBuffer docsWordIndices;
+
+	/**
+	 * null unless a bag-of-words file
+	 */
+	private final IntBuffer docsWordFrequencies;
+
+
+	private BinaryCorpusFile(String filePath, int numDocuments, int numWords, int[] docsWordOffsets,
+			IntBuffer docsWordIndices, IntBuffer docsWordFrequencies) {
+		this.filePath = filePath;
+		this.numDocuments = numDocuments;
+		this.numWords = numWords;
+		this.docsWordOffsets = docsWordOffsets;
+		this.docsWordIndices = docsWordIndices;
+		this.docsWordFrequencies = docsWordFrequencies;
+	}
+
+
+	/**
+	 * @return whether the file starts with MAGIC, i.e. a binary corpus file rather than a serializable file
+	 */
+	public static boolean isBinaryFile(String filePath) {
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+			return file.length() >= 4 && Integer.reverseBytes(file.readInt()) == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+
+	/**
+	 * map a file written by 'write' or 'writeBagOfWords'
+	 */
+	public static BinaryCorpusFile open(String filePath) {
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "r");
+				FileChannel channel = file.getChannel()) {
+
+			long fileSize = channel.size();
+			if (fileSize < HEADER_NUM_INTS * 4 || fileSize > Integer.MAX_VALUE) {
+				throw new IllegalStateException("IllegalStateException: invalid binary corpus file size " + fileSize + " of " + filePath);
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+			IntBuffer ints = mapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+			int magic = ints.get(0);
+			int version = ints.get(1);
+			int flags = ints.get(2);
+			int numDocuments = ints.get(3);
+			int numWords = ints.get(4);
+			boolean isBagOfWords = (flags & FLAG_BAG_OF_WORDS) != 0;
+			long expectedSize = 4L * (HEADER_NUM_INTS + numDocuments + 1 + (isBagOfWords ? 2L : 1L) * numWords);
+			if (magic != MAGIC || version != VERSION || numDocuments < 0 || numWords < 0 || expectedSize != fileSize) {
+				throw new IllegalStateException("IllegalStateException: not a binary corpus file of version " + VERSION + ": " + filePath
+						+ "; magic = " + Integer.toHexString(magic) + ", version = " + version + ", numDocuments = " + numDocuments
+						+ ", numWords = " + numWords + ", file size = " + fileSize);
+			}
+
+			int[] docsWordOffsets = new int[numDocuments + 1];
+			((Buffer) ints).position(HEADER_NUM_INTS);
+			ints.get(docsWordOffsets);
+
+			int indicesPosition = HEADER_NUM_INTS + numDocuments + 1;
+			IntBuffer docsWordIndices = slice(ints, indicesPosition, numWords);
+			IntBuffer docsWordFrequencies = isBagOfWords ? slice(ints, indicesPosition + numWords, numWords) : null;
+
+			return new BinaryCorpusFile(filePath, numDocuments, numWords, docsWordOffsets, docsWordIndices, docsWordFrequencies);
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot map " + filePath, e);
+		}
+	}
+
+
+	/**
+	 * @return a view of [position, position + length) of 'ints' with position 0;
+	 * the casts to Buffer here and below keep the compiled calls compatible with Java 8 runtimes
+	 */
+	private static IntBuffer slice(IntBuffer ints, int position, int length) {
+		IntBuffer duplicate = ints.duplicate();
+		((Buffer) duplicate).limit(position + length);
+		((Buffer) duplicate).position(position);
+		return duplicate.slice();
+	}
+
+
+	/**
+	 * @return a mini-batch of the documents [firstDocument, firstDocument + numDocuments),
+	 * whose word indices and frequencies are views of the mapped file
+	 */
+	public MiniBatch getMiniBatch(int firstDocument, int numDocuments) {
+		if (firstDocument < 0 || numDocuments < 0 || firstDocument + numDocuments > this.numDocuments) {
+			throw new IndexOutOfBoundsException("IndexOutOfBoundsException: documents [" + firstDocument + ", " + (firstDocument + numDocuments)
+					+ ") of " + this.numDocuments + " documents of " + filePath);
+		}
+		int wordOffset = docsWordOffsets[firstDocument];
+		int[] miniBatchWordCounts = new int[numDocuments];
+		int[] miniBatchWordOffsets = new int[numDocuments + 1];
+		for (int m = 0; m < numDocuments; m++) {
+			miniBatchWordOffsets[m] = docsWordOffsets[firstDocument + m] - wordOffset;
+			miniBatchWordCounts[m] = docsWordOffsets[firstDocument + m + 1] - docsWordOffsets[firstDocument + m];
+		}
+		int miniBatchNumWords = docsWordOffsets[firstDocument + numDocuments] - wordOffset;
+		miniBatchWordOffsets[numDocuments] = miniBatchNumWords;
+
+		IntBuffer indices = slice(docsWordIndices, wordOffset, miniBatchNumWords);
+		IntBuffer frequencies = (docsWordFrequencies != null) ? slice(docsWordFrequencies, wordOffset, miniBatchNumWords) : null;
+		return new MiniBatch(miniBatchWordCounts, miniBatchWordOffsets, indices, frequencies, numDocuments);
+	}
+
+
+	public String getFilePath() {
+		return filePath;
+	}
+
+	public int getNumDocuments() {
+		return numDocuments;
+	}
+
+	public int getNumWords() {
+		return numWords;
+	}
+
+	public boolean isBagOfWords() {
+		return docsWordFrequencies != null;
+	}
+
+
+
+	/**
+	 * write documents to a binary corpus file
+	 * @param documents : each int[] contains word indices of a document
+	 */
+	public static void write(String filePath, List<int[]> documents) {
+		MiniBatch miniBatch = MiniBatch.pack(documents);
+		write(filePath, miniBatch);
+	}
+
+
+	/**
+	 * write bag-of-words documents to a binary corpus file
+	 */
+	public static void writeBagOfWords(String filePath, List<BagOfWordsDocument> documents) {
+		MiniBatch miniBatch = MiniBatch.packBagOfWords(documents);
+		write(filePath, miniBatch);
+	}
+
+
+	/**
+	 * write the documents of a mini-batch, with their frequencies if a bag-of-words mini-batch, to a binary corpus file
+	 */
+	static void write(String filePath, MiniBatch miniBatch) {
+		int numDocuments = miniBatch.getNumDocuments();
+		int numWords = miniBatch.getNumWords();
+		boolean isBagOfWords = miniBatch.isBagOfWords();
+
+		File parent = new File(filePath).getAbsoluteFile().getParentFile();
+		if (parent != null && parent.exists() == false) {
+			parent.mkdirs();
+		}
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+				FileChannel channel = file.getChannel()) {
+			channel.truncate(0);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(isBagOfWords ? FLAG_BAG_OF_WORDS : 0);
+			buffer.putInt(numDocuments);
+			buffer.putInt(numWords);
+			writeInts(channel, buffer, IntBuffer.wrap(miniBatch.getDocsWordOffsets(), 0, numDocuments + 1));
+			writeInts(channel, buffer, limit(miniBatch.getDocsWordIndices(), numWords));
+			if (isBagOfWords) {
+				writeInts(channel, buffer, limit(miniBatch.getDocsWordFrequencies(), numWords));
+			}
+			((Buffer) buffer).flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot write " + filePath, e);
+		}
+	}
+
+
+	private static IntBuffer limit(IntBuffer ints, int length) {
+		IntBuffer duplicate = ints.duplicate();
+		((Buffer) duplicate).position(0);
+		((Buffer) duplicate).limit(length);
+		return duplicate;
+	}
+
+
+	/**
+	 * put the remaining ints to 'buffer', and write 'buffer' to 'channel' whenever it is full
+	 */
+	private static void writeInts(FileChannel channel, ByteBuffer buffer, IntBuffer ints) throws IOException {
+		while (ints.hasRemaining()) {
+			if (buffer.remaining() < 4) {
+				((Buffer) buffer).flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				((Buffer) buffer).clear();
+			}
+			IntBuffer view = buffer.asIntBuffer();
+			int length = Math.min(view.remaining(), ints.remaining());
+			IntBuffer chunk = ints.duplicate();
+			((Buffer) chunk).limit(chunk.position() + length);
+			view.put(chunk);
+			((Buffer) ints).position(ints.position() + length);
+			((Buffer) buffer).position(buffer.position() + 4 * length);
+		}
+	}
+
+
+	/**
+	 * <pre>
+	 * convert each serializable file of an ints corpus or a bag-of-words corpus to a binary corpus file
+	 * of the same relative path plus ".bin" under 'binaryCorpusDirectory';
+	 * ints corpus files are kept as word indices, and bag-of-words corpus files as bag-of-words.
+	 * The files are converted in the order of the manifest of 'serCorpusDirectory' if any,
+	 * and a CorpusManifest of the binary corpus is written in the same order.
+	 * </pre>
+	 * @return number of converted documents
+	 */
+	public static long convertCorpus(String serCorpusDirectory, String binaryCorpusDirectory) {
+		String sourceDirectory = new File(serCorpusDirectory).getAbsolutePath();
+		String targetDirectory = new File(binaryCorpusDirectory).getAbsolutePath();
+		ArrayList<CorpusManifest.Shard> shards = new ArrayList<CorpusManifest.Shard>();
+		long numDocuments = 0;
+		ArrayList<String> serFilePaths = CorpusManifest.listShardFilePaths(serCorpusDirectory);
+		if (CorpusManifest.read(serCorpusDirectory) == null) {
+			CorpusManifest.sortShardFilePaths(serFilePaths);
+		}
+		for (String serFilePath : serFilePaths) {
+			ArrayList<?> documents = ObjectSerializer.deserialize(serFilePath);
+			if (documents == null) {
+				throw new IllegalStateException("IllegalStateException: cannot deserialize the documents of " + serFilePath);
+			}
+			String relativePath = serFilePath.substring(sourceDirectory.length());
+			String binaryFilePath = new File(binaryCorpusDirectory, relativePath + ".bin").getPath();
+			MiniBatch miniBatch;
+			if (documents.isEmpty() == false && documents.get(0) instanceof BagOfWordsDocument) {
+				@SuppressWarnings("unchecked")
+				List<BagOfWordsDocument> bagOfWordsDocuments = (List<BagOfWordsDocument>) documents;
+				miniBatch = MiniBatch.packBagOfWords(bagOfWordsDocuments);
+			} else {
+				@SuppressWarnings("unchecked")
+				List<int[]> intsDocuments = (List<int[]>) documents;
+				miniBatch = MiniBatch.pack(intsDocuments);
+			}
+			write(binaryFilePath, miniBatch);
+			shards.add(CorpusManifest.Shard.describe(CorpusManifest.relativePath(targetDirectory, binaryFilePath), new File(binaryFilePath), miniBatch));
+			numDocuments += documents.size();
+		}
+		new CorpusManifest(binaryCorpusDirectory, CorpusFormat.BINARY, shards).write();
+		return numDocuments;
+	}
+
+}
@@ -0,0 +1,122 @@
+package org.linchimin.jcudalda;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.linchimin.utils.ObjectSerializer;
+
+/**
+ * <pre>
+ * iterates a 'bag-of-words corpus', a directory of serializable files of ArrayList&lt;BagOfWordsDocument&gt; documents;
+ * files of ArrayList&lt;int[]&gt; documents of an ints corpus are also accepted and converted on the fly,
+ * and CorpusProcessor.convertToBagOfWordsCorpus converts an ints corpus to a bag-of-words corpus once for all
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+class CorpusBagOfWordsIterator implements Iterator<ArrayList<BagOfWordsDocument>>{
+
+	private final int numDocumentsInOneBatch;
+
+	private ArrayList<String> serFilePaths;
+
+	private boolean isTerminated;
+	private ArrayList<BagOfWordsDocument> currentDocs;
+
+	private int currentFileIndex; 	// index at serFilePaths
+	private int currentDocIndex;	// index at currentDocs
+
+
+	public CorpusBagOfWordsIterator(String bagOfWordsCorpusDirectory, int numDocumentsInOneBatch) {
+		this(CorpusManifest.listShardFilePaths(bagOfWordsCorpusDirectory), numDocumentsInOneBatch, new int[] {0, 0});
+	}
+
+
+	/**
+	 * start from the 'firstDocument'-th document of the corpus of 'manifest', without deserializing the files before it
+	 */
+	public CorpusBagOfWordsIterator(CorpusManifest manifest, int numDocumentsInOneBatch, long firstDocument) {
+		this(manifest.getShardFilePaths(), numDocumentsInOneBatch, manifest.locate(firstDocument));
+	}
+
+
+	/**
+	 * @param position : {file index, document index in the file} to start from
+	 */
+	private CorpusBagOfWordsIterator(ArrayList<String> serFilePaths, int numDocumentsInOneBatch, int[] position) {
+		this.numDocumentsInOneBatch = numDocumentsInOneBatch;
+		this.serFilePaths = serFilePaths;
+		this.isTerminated = (position[0] >= serFilePaths.size());
+		this.currentFileIndex = position[0];
+		this.currentDocIndex = position[1];
+		if (isTerminated){
+			this.currentDocs = null;
+		} else{
+			this.currentDocs = readDocuments(serFilePaths.get(currentFileIndex));
+			this.isTerminated = (currentDocIndex >= currentDocs.size());
+		}
+	}
+
+
+	@Override
+	public boolean hasNext() {
+		return isTerminated == false;
+	}
+
+
+	@Override
+	public ArrayList<BagOfWordsDocument> next() {
+
+		ArrayList<BagOfWordsDocument> miniBatchDocs = new ArrayList<BagOfWordsDocument>(numDocumentsInOneBatch);
+
+		while (miniBatchDocs.size() < numDocumentsInOneBatch) {
+
+			miniBatchDocs.add(currentDocs.get(currentDocIndex++));
+
+			if (currentDocIndex == currentDocs.size()) {
+				if (currentFileIndex < serFilePaths.size() - 1) {
+					currentFileIndex ++ ;
+					currentDocIndex = 0;
+					currentDocs = readDocuments(serFilePaths.get(currentFileIndex));
+					if (currentDocs.isEmpty()) {
+						isTerminated = true;
+						break;
+					}
+				} else {
+					isTerminated = true;
+					break;
+				}
+			}
+		}
+
+		return miniBatchDocs;
+	}
+
+	@Override
+	public void remove() {
+
+	}
+
+
+	/**
+	 * @param serFilePath : a serializable file of either ArrayList&lt;BagOfWordsDocument&gt; or ArrayList&lt;int[]&gt; documents
+	 */
+	protected static ArrayList<BagOfWordsDocument> readDocuments(String serFilePath) {
+		ArrayList<?> documents = ObjectSerializer.deserialize(serFilePath);
+		if (documents == null) {
+			throw new IllegalStateException("IllegalStateException: cannot deserialize the documents of " + serFilePath);
+		}
+		ArrayList<BagOfWordsDocument> result = new ArrayList<BagOfWordsDocument>(documents.size());
+		for (Object document : documents) {
+			if (document instanceof BagOfWordsDocument) {
+				result.add((BagOfWordsDocument) document);
+			} else {
+				result.add(BagOfWordsDocument.fromWordIndices((int[]) document));
+			}
+		}
+		return result;
+	}
+
+
+}
@@ -0,0 +1,102 @@
+package org.linchimin.jcudalda;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <pre>
+ * iterates a 'binary corpus', a directory of BinaryCorpusFile's, by mini-batches;
+ * the mini-batches are views of the mapped files and do not span files,
+ * so the last mini-batch of a file may contain fewer than 'numDocumentsInOneBatch' documents
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+class CorpusBinaryIterator implements Iterator<MiniBatch>{
+
+	private final int numDocumentsInOneBatch;
+
+	private ArrayList<String> binaryFilePaths;
+
+	private BinaryCorpusFile currentFile;
+
+	private int currentFileIndex; 	// index at binaryFilePaths
+	private int currentDocIndex;	// index at currentFile
+
+
+	public CorpusBinaryIterator(String binaryCorpusDirectory, int numDocumentsInOneBatch) {
+		this(CorpusManifest.listShardFilePaths(binaryCorpusDirectory), numDocumentsInOneBatch);
+	}
+
+
+	/**
+	 * start from the 'firstDocument'-th document of the corpus of 'manifest', without mapping the files before it
+	 */
+	public CorpusBinaryIterator(CorpusManifest manifest, int numDocumentsInOneBatch, long firstDocument) {
+		this(manifest.getShardFilePaths(), numDocumentsInOneBatch, manifest.locate(firstDocument));
+	}
+
+
+	/**
+	 * @param binaryFilePaths : binary corpus files iterated in this order
+	 */
+	public CorpusBinaryIterator(List<String> binaryFilePaths, int numDocumentsInOneBatch) {
+		this(binaryFilePaths, numDocumentsInOneBatch, new int[] {0, 0});
+	}
+
+
+	/**
+	 * @param position : {file index, document index in the file} to start from
+	 */
+	private CorpusBinaryIterator(List<String> binaryFilePaths, int numDocumentsInOneBatch, int[] position) {
+		this.numDocumentsInOneBatch = numDocumentsInOneBatch;
+		this.binaryFilePaths = new ArrayList<String>(binaryFilePaths);
+		this.currentFileIndex = position[0] - 1;
+		this.currentFile = null;
+		this.currentDocIndex = 0;
+		advanceFile();
+		if (currentFile != null && currentFileIndex == position[0]) {
+			this.currentDocIndex = position[1];
+			advanceFile();
+		}
+	}
+
+
+	/**
+	 * move to the next file with at least one document, if any
+	 */
+	private void advanceFile() {
+		while (currentFile == null || currentDocIndex == currentFile.getNumDocuments()) {
+			if (currentFileIndex >= binaryFilePaths.size() - 1) {
+				currentFile = null;
+				return;
+			}
+			currentFile = BinaryCorpusFile.open(binaryFilePaths.get(++currentFileIndex));
+			currentDocIndex = 0;
+		}
+	}
+
+
+	@Override
+	public boolean hasNext() {
+		return currentFile != null;
+	}
+
+
+	@Override
+	public MiniBatch next() {
+		int numDocuments = Math.min(numDocumentsInOneBatch, currentFile.getNumDocuments() - currentDocIndex);
+		MiniBatch miniBatch = currentFile.getMiniBatch(currentDocIndex, numDocuments);
+		currentDocIndex += numDocuments;
+		advanceFile();
+		return miniBatch;
+	}
+
+	@Override
+	public void remove() {
+
+	}
+
+}
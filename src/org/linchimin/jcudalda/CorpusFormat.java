@@ -0,0 +1,30 @@
+package org.linchimin.jcudalda;
+
+/**
+ * formats of the corpora that the trainers accept
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+enum CorpusFormat {
+
+	/**
+	 * a directory of serializable files of ArrayList<int[]> documents; see CorpusIntsIterator
+	 */
+	INTS,
+
+	/**
+	 * a directory of raw text files of format like "resources/example-docs.txt"; see CorpusTextsIterator
+	 */
+	TEXTS,
+
+	/**
+	 * a directory of serializable files of ArrayList<BagOfWordsDocument> documents; see CorpusBagOfWordsIterator
+	 */
+	BAG_OF_WORDS,
+
+	/**
+	 * a directory of BinaryCorpusFile's; see CorpusBinaryIterator
+	 */
+	BINARY
+}
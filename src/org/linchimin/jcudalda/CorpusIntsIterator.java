@@ -3,7 +3,6 @@ package org.linchimin.jcudalda;
 import java.util.ArrayList;
 import java.util.Iterator;
 
-import org.linchimin.utils.FileUtils;
 import org.linchimin.utils.ObjectSerializer;
 
 /**
@@ -25,14 +24,31 @@ class CorpusIntsIterator implements Iterator<ArrayList<int[]>>{
 	
 	
 	public CorpusIntsIterator(String intsCorpusDirectory, int numDocumentsInOneBatch) {
+		this(CorpusManifest.listShardFilePaths(intsCorpusDirectory), numDocumentsInOneBatch, new int[] {0, 0});
+	}
+	
+	
+	/**
+	 * start from the 'firstDocument'-th document of the corpus of 'manifest', without deserializing the files before it
+	 */
+	public CorpusIntsIterator(CorpusManifest manifest, int numDocumentsInOneBatch, long firstDocument) {
+		this(manifest.getShardFilePaths(), numDocumentsInOneBatch, manifest.locate(firstDocument));
+	}
+	
+	
+	/**
+	 * @param position : {file index, document index in the file} to start from
+	 */
+	private CorpusIntsIterator(ArrayList<String> intsFilePaths, int numDocumentsInOneBatch, int[] position) {
 		this.numDocumentsInOneBatch = numDocumentsInOneBatch;
-		this.textsFilePaths = FileUtils.getFileListRecursively(intsCorpusDirectory);
-		this.isTerminated = (textsFilePaths.size() == 0);
-		this.currentFileIndex = 0;
+		this.textsFilePaths = intsFilePaths;
+		this.isTerminated = (position[0] >= textsFilePaths.size());
+		this.currentFileIndex = position[0];
+		this.currentDocIndex = position[1];
 		if (isTerminated){
 			this.currentDocsIndices = null;	
 		} else{
-			this.currentDocsIndices = ObjectSerializer.deserialize(textsFilePaths.get(0)); 
+			this.currentDocsIndices = ObjectSerializer.deserialize(textsFilePaths.get(currentFileIndex)); 
 		}
 		
 	}
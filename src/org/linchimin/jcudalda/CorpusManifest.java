@@ -0,0 +1,519 @@
+package org.linchimin.jcudalda;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.linchimin.utils.FileUtils;
+import org.linchimin.utils.ObjectSerializer;
+
+
+/**
+ * <pre>
+ * a manifest of the shards of an ints, bag-of-words, or binary corpus, written as FILE_NAME in the corpus directory:
+ *
+ * #JCudaLDA corpus manifest VERSION
+ * format \t INTS, BAG_OF_WORDS, or BINARY
+ * shard \t path \t numDocuments \t numWords \t numTokens \t maxDocumentLength \t minWordIndex \t maxWordIndex \t fileSize \t checksum
+ * ...
+ *
+ * path : relative to the corpus directory, with '/' separators; the shards are iterated in the order of the lines
+ * numWords : number of word indices; numTokens : number of occurrences of words, the same as numWords except for bag-of-words
+ * maxDocumentLength : the maximal number of word indices of a document
+ * minWordIndex, maxWordIndex : the range of the word indices, including the negative separators
+ * checksum : CRC32 of the bytes of the shard file, in hexadecimal
+ *
+ * The conversions of CorpusProcessor and BinaryCorpusFile write a manifest, and 'build' writes one for an existing corpus.
+ * With a manifest, the iterators list the shards in the order they were written, without the manifest itself,
+ * and skip to a document by the document counts without deserializing the shards before it;
+ * the trainers validate the word index range of the corpus against V once by 'validate',
+ * instead of checking every word index of every mini-batch, and pre-size the resident corpus exactly.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+public class CorpusManifest {
+
+	public static final String FILE_NAME = "corpus-manifest.tsv";
+
+	public static final int VERSION = 1;
+
+	private static final String HEADER = "#JCudaLDA corpus manifest ";
+
+
+	/**
+	 * the statistics of a shard file
+	 */
+	public static class Shard {
+
+		private final String path;
+		private final int numDocuments;
+		private final long numWords;
+		private final long numTokens;
+		private final int maxDocumentLength;
+		private final int minWordIndex;
+		private final int maxWordIndex;
+		private final long fileSize;
+		private final long checksum;
+
+		private Shard(String path, int numDocuments, long numWords, long numTokens, int maxDocumentLength,
+				int minWordIndex, int maxWordIndex, long fileSize, long checksum) {
+			this.path = path;
+			this.numDocuments = numDocuments;
+			this.numWords = numWords;
+			this.numTokens = numTokens;
+			this.maxDocumentLength = maxDocumentLength;
+			this.minWordIndex = minWordIndex;
+			this.maxWordIndex = maxWordIndex;
+			this.fileSize = fileSize;
+			this.checksum = checksum;
+		}
+
+		/**
+		 * @param path : relative to the corpus directory
+		 * @param file : the written shard file
+		 * @param documents : the documents of the shard file
+		 */
+		static Shard describe(String path, File file, MiniBatch documents) {
+			int numDocuments = documents.getNumDocuments();
+			int[] offsets = documents.getDocsWordOffsets();
+			IntBuffer indices = documents.getDocsWordIndices();
+			int maxDocumentLength = 0;
+			int minWordIndex = Integer.MAX_VALUE;
+			int maxWordIndex = Integer.MIN_VALUE;
+			for (int m = 0; m < numDocuments; m++) {
+				maxDocumentLength = Math.max(maxDocumentLength, documents.getDocsWordCounts()[m]);
+				int end = offsets[m] + documents.getDocsWordCounts()[m];
+				for (int i = offsets[m]; i < end; i++) {
+					int wordIndex = indices.get(i);
+					minWordIndex = Math.min(minWordIndex, wordIndex);
+					maxWordIndex = Math.max(maxWordIndex, wordIndex);
+				}
+			}
+			if (minWordIndex > maxWordIndex) {
+				minWordIndex = 0;
+				maxWordIndex = -1;
+			}
+			return new Shard(path, numDocuments, documents.getNumWords(), documents.getNumTokens(), maxDocumentLength,
+					minWordIndex, maxWordIndex, file.length(), checksum(file));
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public int getNumDocuments() {
+			return numDocuments;
+		}
+
+		public long getNumWords() {
+			return numWords;
+		}
+
+		public long getNumTokens() {
+			return numTokens;
+		}
+
+		public int getMaxDocumentLength() {
+			return maxDocumentLength;
+		}
+
+		public int getMinWordIndex() {
+			return minWordIndex;
+		}
+
+		/**
+		 * @return -1 if the shard has no word
+		 */
+		public int getMaxWordIndex() {
+			return maxWordIndex;
+		}
+
+		public long getFileSize() {
+			return fileSize;
+		}
+
+		public long getChecksum() {
+			return checksum;
+		}
+
+		private String toLine() {
+			return "shard\t" + path + "\t" + numDocuments + "\t" + numWords + "\t" + numTokens + "\t" + maxDocumentLength
+					+ "\t" + minWordIndex + "\t" + maxWordIndex + "\t" + fileSize + "\t" + Long.toHexString(checksum);
+		}
+
+		private static Shard fromColumns(String[] columns) {
+			return new Shard(columns[1], Integer.parseInt(columns[2]), Long.parseLong(columns[3]), Long.parseLong(columns[4]),
+					Integer.parseInt(columns[5]), Integer.parseInt(columns[6]), Integer.parseInt(columns[7]),
+					Long.parseLong(columns[8]), Long.parseLong(columns[9], 16));
+		}
+
+		@Override
+		public String toString() {
+			return "Shard [" + toLine().substring("shard\t".length()).replace('\t', ' ') + "]";
+		}
+	}
+
+
+	private final String corpusDirectory;
+
+	private final CorpusFormat format;
+
+	private final ArrayList<Shard> shards;
+
+	/**
+	 * firstDocuments[s] : number of documents of the shards before the s-th shard
+	 */
+	private final long[] firstDocuments;
+
+
+	CorpusManifest(String corpusDirectory, CorpusFormat format, List<Shard> shards) {
+		if (format == CorpusFormat.TEXTS) {
+			throw new IllegalArgumentException("IllegalArgumentException: a manifest is not written for a texts corpus");
+		}
+		this.corpusDirectory = corpusDirectory;
+		this.format = format;
+		this.shards = new ArrayList<Shard>(shards);
+		this.firstDocuments = new long[shards.size() + 1];
+		for (int s = 0; s < shards.size(); s++) {
+			firstDocuments[s + 1] = firstDocuments[s] + shards.get(s).getNumDocuments();
+		}
+	}
+
+
+	/**
+	 * @return the manifest of 'corpusDirectory', or null if the directory has none
+	 */
+	public static CorpusManifest read(String corpusDirectory) {
+		File file = new File(corpusDirectory, FILE_NAME);
+		if (file.isFile() == false) {
+			return null;
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String header = reader.readLine();
+			if (header == null || header.equals(HEADER + VERSION) == false) {
+				throw new IllegalStateException("IllegalStateException: not a corpus manifest of version " + VERSION + ": " + file + "; header = " + header);
+			}
+			CorpusFormat format = null;
+			ArrayList<Shard> shards = new ArrayList<Shard>();
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				String[] columns = line.split("\t");
+				if (columns[0].equals("format") && columns.length == 2) {
+					format = CorpusFormat.valueOf(columns[1]);
+				} else if (columns[0].equals("shard") && columns.length == 10) {
+					shards.add(Shard.fromColumns(columns));
+				} else if (line.isEmpty() == false) {
+					throw new IllegalStateException("IllegalStateException: invalid line of corpus manifest " + file + ": " + line);
+				}
+			}
+			if (format == null) {
+				throw new IllegalStateException("IllegalStateException: no format in corpus manifest " + file);
+			}
+			return new CorpusManifest(corpusDirectory, format, shards);
+		} catch (IOException | IllegalArgumentException e) {
+			throw new IllegalStateException("IllegalStateException: cannot read corpus manifest " + file, e);
+		}
+	}
+
+
+	/**
+	 * write the manifest to FILE_NAME in the corpus directory
+	 */
+	public void write() {
+		File file = new File(corpusDirectory, FILE_NAME);
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			writer.write(HEADER + VERSION);
+			writer.write('\n');
+			writer.write("format\t" + format.name());
+			writer.write('\n');
+			for (Shard shard : shards) {
+				writer.write(shard.toLine());
+				writer.write('\n');
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot write corpus manifest " + file, e);
+		}
+	}
+
+
+	/**
+	 * <pre>
+	 * read every shard of an existing ints, bag-of-words, or binary corpus, and write its manifest;
+	 * the shards are ordered by the numbers in their paths, e.g. 2.ser before 10.ser, then by the paths.
+	 * A corpus of both serializable and binary files is rejected.
+	 * </pre>
+	 */
+	public static CorpusManifest build(String corpusDirectory) {
+		ArrayList<String> filePaths = listShardFilePaths(corpusDirectory);
+		sortShardFilePaths(filePaths);
+		String directory = new File(corpusDirectory).getAbsolutePath();
+		ArrayList<Shard> shards = new ArrayList<Shard>(filePaths.size());
+		CorpusFormat format = null;
+		for (String filePath : filePaths) {
+			CorpusFormat fileFormat;
+			MiniBatch documents;
+			if (BinaryCorpusFile.isBinaryFile(filePath)) {
+				BinaryCorpusFile binaryFile = BinaryCorpusFile.open(filePath);
+				documents = binaryFile.getMiniBatch(0, binaryFile.getNumDocuments());
+				fileFormat = CorpusFormat.BINARY;
+			} else {
+				ArrayList<?> serDocuments = ObjectSerializer.deserialize(filePath);
+				if (serDocuments == null) {
+					throw new IllegalStateException("IllegalStateException: cannot deserialize the documents of " + filePath);
+				}
+				if (serDocuments.isEmpty() == false && serDocuments.get(0) instanceof BagOfWordsDocument) {
+					@SuppressWarnings("unchecked")
+					List<BagOfWordsDocument> bagOfWordsDocuments = (List<BagOfWordsDocument>) serDocuments;
+					documents = MiniBatch.packBagOfWords(bagOfWordsDocuments);
+					fileFormat = CorpusFormat.BAG_OF_WORDS;
+				} else {
+					@SuppressWarnings("unchecked")
+					List<int[]> intsDocuments = (List<int[]>) serDocuments;
+					documents = MiniBatch.pack(intsDocuments);
+					fileFormat = CorpusFormat.INTS;
+				}
+			}
+			if (format == null) {
+				format = fileFormat;
+			} else if ((format == CorpusFormat.BINARY) != (fileFormat == CorpusFormat.BINARY)) {
+				throw new IllegalArgumentException("IllegalArgumentException: " + corpusDirectory + " has both binary and serializable files");
+			} else if (fileFormat == CorpusFormat.BAG_OF_WORDS) {
+				format = CorpusFormat.BAG_OF_WORDS;
+			}
+			shards.add(Shard.describe(relativePath(directory, filePath), new File(filePath), documents));
+		}
+		CorpusManifest manifest = new CorpusManifest(corpusDirectory, (format != null) ? format : CorpusFormat.INTS, shards);
+		manifest.write();
+		return manifest;
+	}
+
+
+	/**
+	 * @return the paths of the shard files of 'corpusDirectory': in the order of its manifest if any,
+	 * otherwise all the files under it except a manifest, in no particular order
+	 */
+	public static ArrayList<String> listShardFilePaths(String corpusDirectory) {
+		CorpusManifest manifest = read(corpusDirectory);
+		if (manifest != null) {
+			return manifest.getShardFilePaths();
+		}
+		ArrayList<String> filePaths = FileUtils.getFileListRecursively(corpusDirectory);
+		if (filePaths == null) {
+			throw new IllegalArgumentException("IllegalArgumentException: not a directory: " + corpusDirectory);
+		}
+		String manifestPath = new File(corpusDirectory, FILE_NAME).getAbsolutePath();
+		filePaths.remove(manifestPath);
+		return filePaths;
+	}
+
+
+	/**
+	 * sort paths like ".../2.ser" before ".../10.ser": by the directories, then by the leading number of the file names, then by the names
+	 */
+	static void sortShardFilePaths(ArrayList<String> filePaths) {
+		Collections.sort(filePaths, new Comparator<String>() {
+			@Override
+			public int compare(String path1, String path2) {
+				File file1 = new File(path1);
+				File file2 = new File(path2);
+				String parent1 = String.valueOf(file1.getParent());
+				String parent2 = String.valueOf(file2.getParent());
+				int result = parent1.compareTo(parent2);
+				if (result == 0) {
+					result = Long.compare(leadingNumber(file1.getName()), leadingNumber(file2.getName()));
+				}
+				return (result != 0) ? result : path1.compareTo(path2);
+			}
+		});
+	}
+
+	/**
+	 * @return the number at the start of 'name', or Long.MAX_VALUE if none
+	 */
+	private static long leadingNumber(String name) {
+		int end = 0;
+		while (end < name.length() && end < 18 && Character.isDigit(name.charAt(end))) {
+			end++;
+		}
+		return (end > 0) ? Long.parseLong(name.substring(0, end)) : Long.MAX_VALUE;
+	}
+
+
+	/**
+	 * @return 'filePath' relative to 'directory', an absolute path, with '/' separators
+	 */
+	static String relativePath(String directory, String filePath) {
+		String absolutePath = new File(filePath).getAbsolutePath();
+		if (absolutePath.startsWith(directory + File.separator) == false) {
+			throw new IllegalArgumentException("IllegalArgumentException: " + filePath + " is not under " + directory);
+		}
+		return absolutePath.substring(directory.length() + 1).replace(File.separatorChar, '/');
+	}
+
+
+	/**
+	 * @return CRC32 of the bytes of 'file'
+	 */
+	static long checksum(File file) {
+		CRC32 crc = new CRC32();
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+				FileChannel channel = randomAccessFile.getChannel()) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			while (channel.read(buffer) >= 0) {
+				((Buffer) buffer).flip();
+				crc.update(buffer);
+				((Buffer) buffer).clear();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot read " + file, e);
+		}
+		return crc.getValue();
+	}
+
+
+	/**
+	 * <pre>
+	 * check once that the shard files exist with the sizes of the manifest, and that the word indices are in [0, V),
+	 * or negative separators if 'allowsNegative'; the trainers then skip the bounds checks of the mini-batches.
+	 * The contents are compared with the checksums only by verifyChecksums, which reads the whole corpus.
+	 * </pre>
+	 * @throws IllegalStateException if a shard is missing or of another size, or a word index is out of bounds
+	 */
+	public void validate(int V, boolean allowsNegative) {
+		for (Shard shard : shards) {
+			File file = getShardFile(shard);
+			if (file.isFile() == false || file.length() != shard.getFileSize()) {
+				throw new IllegalStateException("IllegalStateException: the shard " + file + " is missing or modified since the manifest; "
+						+ "expected size = " + shard.getFileSize() + ", size = " + file.length());
+			}
+			if (shard.getNumWords() > 0 && (shard.getMaxWordIndex() >= V || (shard.getMinWordIndex() < 0 && allowsNegative == false))) {
+				throw new IllegalStateException("IllegalStateException: the word indices of shard " + file + " are in ["
+						+ shard.getMinWordIndex() + ", " + shard.getMaxWordIndex() + "], out of [0, " + V + ")");
+			}
+		}
+	}
+
+
+	/**
+	 * @throws IllegalStateException if the CRC32 of a shard file differs from its checksum
+	 */
+	public void verifyChecksums() {
+		for (Shard shard : shards) {
+			File file = getShardFile(shard);
+			long checksum = checksum(file);
+			if (checksum != shard.getChecksum()) {
+				throw new IllegalStateException("IllegalStateException: the checksum of shard " + file + " is " + Long.toHexString(checksum)
+						+ " instead of " + Long.toHexString(shard.getChecksum()));
+			}
+		}
+	}
+
+
+	/**
+	 * @return {shard index, document index in the shard} of the 'document'-th document of the corpus,
+	 * or {number of shards, 0} if 'document' is the number of documents
+	 */
+	public int[] locate(long document) {
+		if (document < 0 || document > getNumDocuments()) {
+			throw new IndexOutOfBoundsException("IndexOutOfBoundsException: document = " + document + ", number of documents = " + getNumDocuments());
+		}
+		int low = 0;
+		int high = shards.size();
+		// the last shard s with firstDocuments[s] <= document, skipping empty shards
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (firstDocuments[middle] <= document) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		while (low < shards.size() && document - firstDocuments[low] >= shards.get(low).getNumDocuments()) {
+			low++;
+		}
+		return new int[] {low, (int) (document - firstDocuments[low])};
+	}
+
+
+	private File getShardFile(Shard shard) {
+		return new File(corpusDirectory, shard.getPath());
+	}
+
+	/**
+	 * @return absolute paths of the shard files in the order of the manifest
+	 */
+	public ArrayList<String> getShardFilePaths() {
+		ArrayList<String> filePaths = new ArrayList<String>(shards.size());
+		for (Shard shard : shards) {
+			filePaths.add(getShardFile(shard).getAbsolutePath());
+		}
+		return filePaths;
+	}
+
+	public List<Shard> getShards() {
+		return Collections.unmodifiableList(shards);
+	}
+
+	CorpusFormat getFormat() {
+		return format;
+	}
+
+	public String getCorpusDirectory() {
+		return corpusDirectory;
+	}
+
+	public long getNumDocuments() {
+		return firstDocuments[shards.size()];
+	}
+
+	public long getNumWords() {
+		long result = 0;
+		for (Shard shard : shards) {
+			result += shard.getNumWords();
+		}
+		return result;
+	}
+
+	public long getNumTokens() {
+		long result = 0;
+		for (Shard shard : shards) {
+			result += shard.getNumTokens();
+		}
+		return result;
+	}
+
+	public int getMaxDocumentLength() {
+		int result = 0;
+		for (Shard shard : shards) {
+			result = Math.max(result, shard.getMaxDocumentLength());
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "CorpusManifest [directory = " + corpusDirectory + ", format = " + format + ", shards = " + shards.size()
+				+ ", documents = " + getNumDocuments() + ", words = " + getNumWords() + ", tokens = " + getNumTokens()
+				+ ", max document length = " + getMaxDocumentLength() + "]";
+	}
+
+}
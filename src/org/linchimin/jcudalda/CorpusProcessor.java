@@ -1,19 +1,29 @@
 package org.linchimin.jcudalda;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.linchimin.common.Dictionary;
+import org.linchimin.common.HashingVocabulary;
+import org.linchimin.common.Vocabulary;
+import org.linchimin.common.VocabularyIndex;
+import org.linchimin.utils.FileUtils;
+import org.linchimin.utils.ObjectSerializer;
 
-import gnu.trove.TIntArrayList;
-import smile.nlp.tokenizer.PennTreebankTokenizer;
+import smile.nlp.tokenizer.PennTreebankScanner;
 
 
 /**
@@ -27,20 +37,89 @@ public class CorpusProcessor {
 
 	private static final String UNKNOWN_TOKEN = LDAGPUTrainer.UNKNOWN_TOKEN;
 	
-	private Dictionary dictionary;
+	/**
+	 * a scanner per thread for lookupTextWordIndices
+	 */
+	private static final ThreadLocal<PennTreebankScanner> SCANNERS = new ThreadLocal<PennTreebankScanner>() {
+		@Override
+		protected PennTreebankScanner initialValue() {
+			return new PennTreebankScanner();
+		}
+	};
+	
+	/**
+	 * -1 for a HashingVocabulary, whose lookups are never missing
+	 */
 	private int unknownTokenIndex;
 	
+	/**
+	 * the words of the dictionary, including the unknown token, or a HashingVocabulary; the dictionary is not kept
+	 */
+	private Vocabulary vocabulary;
+	
+	/**
+	 * removes word indices from the documents of 'tokenizeDocuments' and 'convertTextsToIntsCorpus'; null to keep all
+	 */
+	private TokenFilter tokenFilter;
 	
+	
+	/**
+	 * @param vocabularyFilePath : a word list like "resources/enVocabulary-45k.txt", 
+	 * or a binary vocabulary file converted from a word list by 'convertVocabulary', which is mapped instead of loaded 
+	 */
 	public CorpusProcessor(String vocabularyFilePath) {
-		this(Dictionary.loadFromWordList(vocabularyFilePath));
+		this(VocabularyIndex.isBinaryFile(vocabularyFilePath) ? 
+				VocabularyIndex.open(vocabularyFilePath) : toVocabularyIndex(Dictionary.loadFromWordList(vocabularyFilePath)));
 	}
 
+	/**
+	 * @param dictionary : the unknown token is added to 'dictionary' if not present
+	 */
 	public CorpusProcessor(Dictionary dictionary){
-		this.dictionary = dictionary;
+		this(toVocabularyIndex(dictionary));
+	}
+	
+	/**
+	 * @param vocabulary : a VocabularyIndex that contains the unknown token, like the binary vocabulary files written by 'convertVocabulary', 
+	 * or a HashingVocabulary, which maps every word to a bucket and so has no unknown token
+	 */
+	public CorpusProcessor(Vocabulary vocabulary){
+		if (vocabulary instanceof HashingVocabulary){
+			this.unknownTokenIndex = -1;
+		} else {
+			this.unknownTokenIndex = vocabulary.lookupIndex(UNKNOWN_TOKEN);
+			if (unknownTokenIndex < 0){
+				throw new IllegalArgumentException("IllegalArgumentException: the vocabulary does not contain the unknown token " + UNKNOWN_TOKEN);
+			}
+		}
+		this.vocabulary = vocabulary;
+	}
+	
+	private static VocabularyIndex toVocabularyIndex(Dictionary dictionary){
 		if (dictionary.containsWord(UNKNOWN_TOKEN) == false){
 			dictionary.add(UNKNOWN_TOKEN);
 		}
-		this.unknownTokenIndex = dictionary.lookupIndex(UNKNOWN_TOKEN);
+		return new VocabularyIndex(dictionary);
+	}
+	
+	
+	/**
+	 * <pre>
+	 * convert a word list like "resources/enVocabulary-45k.txt" to a binary vocabulary file, 
+	 * with the unknown token appended if not present, the same as loading the word list by CorpusProcessor(vocabularyFilePath);
+	 * the binary vocabulary file can replace the word list for the constructors of CorpusProcessor, LDAModel, and the trainers,
+	 * which then map the file instead of building the vocabulary.
+	 * </pre>
+	 * @return number of words of the binary vocabulary file
+	 */
+	public static int convertVocabulary(String wordListFilePath, String binaryVocabularyFilePath) {
+		Dictionary dictionary = Dictionary.loadFromWordList(wordListFilePath);
+		if (dictionary == null) {
+			throw new IllegalStateException("IllegalStateException: cannot read the word list " + wordListFilePath);
+		}
+		VocabularyIndex vocabularyIndex = toVocabularyIndex(dictionary);
+		vocabularyIndex.write(binaryVocabularyFilePath);
+		return vocabularyIndex.size();
 	}
 	
 	
@@ -61,19 +140,14 @@ public class CorpusProcessor {
 		StringBuilder builder = new StringBuilder(2000);
 		BufferedReader reader = toBufferedReader(docsFilePath);
 		
-		PennTreebankTokenizer tokenizer = PennTreebankTokenizer.getInstance();
-		
 		ArrayList<int[]> intsDocuments = new ArrayList<int[]>(100);
 		for (;;) {
-			String docText = nextDocText(reader, builder);
+			CharSequence docText = nextDocText(reader, builder);
 			if (docText == null) {
 				break;
 			}
-			TIntArrayList list = new TIntArrayList(500);
-			String[] words = tokenizer.split(docText);
-			int[] wordIndices = lookupWordIndices(Arrays.asList(words));
-			list.add(wordIndices);
-			intsDocuments.add(list.toNativeArray());
+			int[] wordIndices = lookupTextWordIndices(docText);
+			intsDocuments.add((tokenFilter != null) ? tokenFilter.filter(wordIndices) : wordIndices);
 		}
 		try {
 			reader.close();
@@ -84,16 +158,109 @@ public class CorpusProcessor {
 	}
 	
 	
+	/**
+	 * <pre>
+	 * convert a directory of text files of format like "resources/example-docs.txt" to an ints corpus of files
+	 * "1.ser", "2.ser", ... under 'intsCorpusDirectory', each of which contains 'numDocumentsInOneFile' documents except the last one.
+	 * 
+	 * The text files are read and tokenized by a pool of 'numThreads' threads, at most 2 * numThreads files ahead of the writing,
+	 * and the documents are written in the order of the sorted paths of the text files,
+	 * so the written files are the same regardless of 'numThreads'.
+	 * A CorpusManifest of the written files is written to 'intsCorpusDirectory' at the end.
+	 * Each text file is tokenized by one thread, so the conversion scales with the threads 
+	 * when there are many text files, like the wiki_00, wiki_01, ... files of WikiExtractor.py.
+	 * </pre>
+	 * @return number of converted documents
+	 */
+	public long convertTextsToIntsCorpus(String textsCorpusDirectory, String intsCorpusDirectory, int numDocumentsInOneFile, int numThreads) {
+		if (numDocumentsInOneFile <= 0 || numThreads <= 0) {
+			throw new IllegalArgumentException("IllegalArgumentException: numDocumentsInOneFile = " + numDocumentsInOneFile 
+					+ ", numThreads = " + numThreads + "; both should be positive");
+		}
+		ArrayList<String> textFilePaths = FileUtils.getFileListRecursively(textsCorpusDirectory);
+		if (textFilePaths == null) {
+			throw new IllegalArgumentException("IllegalArgumentException: not a directory: " + textsCorpusDirectory);
+		}
+		Collections.sort(textFilePaths);
+		File intsDirectory = new File(intsCorpusDirectory);
+		if (intsDirectory.mkdirs() == false && intsDirectory.isDirectory() == false) {
+			throw new IllegalStateException("IllegalStateException: cannot create the directory " + intsCorpusDirectory);
+		}
+		
+		long startTime = System.currentTimeMillis();
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		ArrayDeque<ForkJoinTask<ArrayList<int[]>>> tasks = new ArrayDeque<ForkJoinTask<ArrayList<int[]>>>();
+		ArrayList<int[]> fileDocuments = new ArrayList<int[]>(numDocumentsInOneFile);
+		ArrayList<CorpusManifest.Shard> shards = new ArrayList<CorpusManifest.Shard>();
+		int numFiles = 0;
+		long numDocuments = 0;
+		try {
+			int nextTextFileIndex = 0;
+			while (nextTextFileIndex < textFilePaths.size() || tasks.isEmpty() == false) {
+				while (nextTextFileIndex < textFilePaths.size() && tasks.size() < 2 * numThreads) {
+					final String textFilePath = textFilePaths.get(nextTextFileIndex++);
+					tasks.add(pool.submit(new Callable<ArrayList<int[]>>() {
+						@Override
+						public ArrayList<int[]> call() {
+							return tokenizeDocuments(textFilePath);
+						}
+					}));
+				}
+				
+				for (int[] document : tasks.poll().get()) {
+					fileDocuments.add(document);
+					if (fileDocuments.size() == numDocumentsInOneFile) {
+						shards.add(writeIntsCorpusFile(fileDocuments, intsCorpusDirectory, ++numFiles));
+						numDocuments += fileDocuments.size();
+						fileDocuments = new ArrayList<int[]>(numDocumentsInOneFile);
+					}
+				}
+			}
+			if (fileDocuments.isEmpty() == false) {
+				shards.add(writeIntsCorpusFile(fileDocuments, intsCorpusDirectory, ++numFiles));
+				numDocuments += fileDocuments.size();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("IllegalStateException: interrupted while converting " + textsCorpusDirectory, e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("IllegalStateException: cannot convert " + textsCorpusDirectory, e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		new CorpusManifest(intsCorpusDirectory, CorpusFormat.INTS, shards).write();
+		
+		System.out.println("CorpusProcessor.convertTextsToIntsCorpus() text files = " + textFilePaths.size() + ", ints files = " + numFiles 
+				+ ", documents = " + numDocuments + ", seconds = " + (System.currentTimeMillis() - startTime) / 1000f);
+		if (tokenFilter != null) {
+			System.out.println("CorpusProcessor.convertTextsToIntsCorpus() " + tokenFilter);
+		}
+		return numDocuments;
+	}
+	
+	
+	/**
+	 * @return the manifest statistics of the written file
+	 */
+	private static CorpusManifest.Shard writeIntsCorpusFile(ArrayList<int[]> documents, String intsCorpusDirectory, int fileNumber) {
+		File file = new File(intsCorpusDirectory, fileNumber + ".ser");
+		if (ObjectSerializer.serialize(documents, file.getPath()) == false) {
+			throw new IllegalStateException("IllegalStateException: cannot write " + file);
+		}
+		return CorpusManifest.Shard.describe(file.getName(), file, MiniBatch.pack(documents));
+	}
+	
+	
 	/**
 	 * iterate a text file with format like "resources/example-docs.txt"
 	 * @param reader
 	 * @param builder
-	 * @return next doc text
+	 * @return next doc text, which is 'builder' and valid until the next call
 	 */
-	private String nextDocText(BufferedReader reader, StringBuilder builder) {
+	static CharSequence nextDocText(BufferedReader reader, StringBuilder builder) {
 		builder.setLength(0);
 		try {
-			String result = null;
+			CharSequence result = null;
 			String line = null;
 			while ((line = reader.readLine()) != null) {
 				line = line.trim();
@@ -107,7 +274,7 @@ public class CorpusProcessor {
 							break;
 						}
 					}
-					result = builder.toString();
+					result = builder;
 					return result;
 				}
 			}
@@ -122,17 +289,8 @@ public class CorpusProcessor {
 	public int[] lookupWordIndices(List<String> wordStrings) {
 		final int length = wordStrings.size();
 		int[] result = new int[length];
-		if (length == 0){
-			return result;
-		}
 		for (int i = 0; i < length; ++i) {
-			String word = wordStrings.get(i);
-			
-			int wordIndex = dictionary.lookupIndex(word.toLowerCase());
-			if (wordIndex < 0){
-				wordIndex = unknownTokenIndex;
-			}
-			result[i] = wordIndex;
+			result[i] = lookupWordIndex(wordStrings.get(i));
 		}
 		return result;
 	}
@@ -140,18 +298,98 @@ public class CorpusProcessor {
 	public int[] lookupWordIndices(String[] wordStrings) {
 		final int length = wordStrings.length;
 		int[] result = new int[length];
-		if (length == 0){
-			return result;
-		}
 		for (int i = 0; i < length; ++i) {
-			String word = wordStrings[i];
-			int wordIndex = dictionary.lookupIndex(word.toLowerCase());
+			result[i] = lookupWordIndex(wordStrings[i]);
+		}
+		return result;
+	}
+	
+	/**
+	 * @return index of the lower case of 'word', or the index of the unknown token if not present
+	 */
+	private int lookupWordIndex(String word) {
+		int wordIndex = vocabulary.lookupLowerCaseIndex(word, 0, word.length());
+		if (wordIndex < 0){
+			wordIndex = unknownTokenIndex;
+		}
+		return wordIndex;
+	}
+	
+	
+	/**
+	 * <pre>
+	 * tokenize 'text' the same as PennTreebankTokenizer.split and look up the lower case of each token,
+	 * the same as lookupWordIndices(PennTreebankTokenizer.getInstance().split(text)),
+	 * but the tokens are spans of 'text' looked up by the Vocabulary, so no String is created per token;
+	 * only a token with a period appended by the abbreviation rule, at most one per text, is created as a String.
+	 * 
+	 * Safe to call from multiple threads.
+	 * </pre>
+	 * @return word indices of the tokens of 'text'; unknown words are the index of the unknown token
+	 */
+	public int[] lookupTextWordIndices(CharSequence text) {
+		PennTreebankScanner scanner = SCANNERS.get();
+		final int numTokens = scanner.scan(text);
+		int[] result = new int[numTokens];
+		lookupScannedWordIndices(scanner, text, numTokens, result, 0);
+		return result;
+	}
+	
+	
+	/**
+	 * the same as lookupTextWordIndices(text) except that the word indices are put to 'target' from 'offset' instead of a new array
+	 * @return number of tokens of 'text'; if more than target.length - offset, nothing is put, 
+	 * and the caller may call again with a larger 'target'
+	 */
+	int lookupTextWordIndices(CharSequence text, int[] target, int offset) {
+		PennTreebankScanner scanner = SCANNERS.get();
+		final int numTokens = scanner.scan(text);
+		if (numTokens <= target.length - offset) {
+			lookupScannedWordIndices(scanner, text, numTokens, target, offset);
+		}
+		return numTokens;
+	}
+	
+	
+	private void lookupScannedWordIndices(PennTreebankScanner scanner, CharSequence text, int numTokens, int[] result, int offset) {
+		for (int t = 0; t < numTokens; t++) {
+			int wordIndex;
+			if (scanner.isPeriodAppended(t)) {
+				String token = scanner.getToken(text, t);
+				wordIndex = vocabulary.lookupLowerCaseIndex(token, 0, token.length());
+			} else {
+				wordIndex = vocabulary.lookupLowerCaseIndex(text, scanner.getTokenStart(t), scanner.getTokenEnd(t));
+			}
 			if (wordIndex < 0){
 				wordIndex = unknownTokenIndex;
 			}
-			result[i] = wordIndex;
+			result[offset + t] = wordIndex;
 		}
-		return result;
+	}
+	
+	/**
+	 * remove the word indices of 'tokenFilter', like the unknown token and stopwords, from the documents of 
+	 * 'tokenizeDocuments' and 'convertTextsToIntsCorpus', so the ints corpus does not store them; 
+	 * the removed tokens are counted by 'tokenFilter'. lookupTextWordIndices and lookupWordIndices are not filtered.
+	 * @param tokenFilter : null to keep all word indices
+	 */
+	public void setTokenFilter(TokenFilter tokenFilter) {
+		if (tokenFilter != null && tokenFilter.getV() != vocabulary.size()) {
+			throw new IllegalArgumentException("IllegalArgumentException: tokenFilter.getV() = " + tokenFilter.getV() 
+					+ " != vocabulary.size() = " + vocabulary.size());
+		}
+		this.tokenFilter = tokenFilter;
+	}
+	
+	public TokenFilter getTokenFilter() {
+		return tokenFilter;
+	}
+	
+	/**
+	 * @return the vocabulary of the word indices, which can be shared by threads
+	 */
+	public Vocabulary getVocabulary() {
+		return vocabulary;
 	}
 	
 	/**
@@ -159,22 +397,66 @@ public class CorpusProcessor {
 	 * @param wordIndices
 	 */
 	public void printWordIndicesAsText(int[] wordIndices) {
-		dictionary.printWordIndicesAsText(wordIndices);
+		StringBuilder builder = new StringBuilder(wordIndices.length * 8);
+		for (int wordIndex : wordIndices) {
+			if (wordIndex < 0){
+				builder.append('\n');
+			} else {
+				String word = vocabulary.lookupValue(wordIndex);
+				if (word.isEmpty()){
+					continue;
+				}
+				if ((builder.length() == 0 || builder.charAt(builder.length()-1) == '\n') && Character.isLowerCase(word.charAt(0))){
+					word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+				}
+				builder.append(word);
+				builder.append(' ');
+			}
+		}
+		System.out.println(builder);
 	}
 	
 	
 	/**
-	 * @param enText : a normal English text 
-	 * @return word indices of the enText according to the tokenizer
+	 * convert each ArrayList<int[]> file of an ints corpus to an ArrayList<BagOfWordsDocument> file
+	 * of the same relative path under 'bagOfWordsCorpusDirectory', 
+	 * which usually takes about half of the space and can be trained with 'trainWithBagOfWordsCorpus' of the trainers;
+	 * the files are converted in the order of the manifest of 'intsCorpusDirectory' if any, 
+	 * and a CorpusManifest of the bag-of-words corpus is written in the same order
+	 * 
+	 * @return number of converted documents
 	 */
-	protected int[] lookupTextWordsIndices(String enText) {
-		PennTreebankTokenizer tokenizer = PennTreebankTokenizer.getInstance();
-		String[] words = tokenizer.split(enText);
-		return lookupWordIndices(words);
+	public static long convertToBagOfWordsCorpus(String intsCorpusDirectory, String bagOfWordsCorpusDirectory) {
+		String sourceDirectory = new File(intsCorpusDirectory).getAbsolutePath();
+		ArrayList<String> serFilePaths = CorpusManifest.listShardFilePaths(intsCorpusDirectory);
+		if (CorpusManifest.read(intsCorpusDirectory) == null) {
+			CorpusManifest.sortShardFilePaths(serFilePaths);
+		}
+		ArrayList<CorpusManifest.Shard> shards = new ArrayList<CorpusManifest.Shard>(serFilePaths.size());
+		long numDocuments = 0;
+		for (String serFilePath : serFilePaths) {
+			ArrayList<BagOfWordsDocument> documents = CorpusBagOfWordsIterator.readDocuments(serFilePath);
+			String relativePath = serFilePath.substring(sourceDirectory.length());
+			File file = new File(bagOfWordsCorpusDirectory, relativePath);
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent.mkdirs() == false && parent.isDirectory() == false) {
+				throw new IllegalStateException("IllegalStateException: cannot create the directory " + parent);
+			}
+			if (ObjectSerializer.serialize(documents, file.getPath()) == false) {
+				throw new IllegalStateException("IllegalStateException: cannot write " + file);
+			}
+			shards.add(CorpusManifest.Shard.describe(CorpusManifest.relativePath(new File(bagOfWordsCorpusDirectory).getAbsolutePath(), file.getPath()), 
+					file, MiniBatch.packBagOfWords(documents)));
+			numDocuments += documents.size();
+		}
+		new CorpusManifest(bagOfWordsCorpusDirectory, CorpusFormat.BAG_OF_WORDS, shards).write();
+		return numDocuments;
 	}
 	
 	
 	
 	
 	
+	
+	
 }
@@ -0,0 +1,325 @@
+package org.linchimin.jcudalda;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.ejml_float.simple.SimpleFloatMatrix;
+import org.linchimin.jcuda.utils.CudaIntsMatrix;
+import org.linchimin.jcuda.utils.CudaMatrix;
+import org.linchimin.jcuda.utils.JCudaManager;
+
+/**
+ * an LDABackend that launches the kernels in CudaLDAFunctions.cu through LDAUtils
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public class CudaLDABackend implements LDABackend {
+
+	private static final int MAX_MINIBATCH_NUM_WORDS = 8000000;
+
+	private static final int DEFAULT_MAX_NUM_DOCUMENTS_IN_ONE_BATCH = 20000;
+
+
+	@Override
+	public String getName() {
+		return "cuda";
+	}
+
+	@Override
+	public TrainingContext newTrainingContext(int K, int V, int M) {
+		return new CudaTrainingContext(K, V, M);
+	}
+
+	@Override
+	public InferenceContext newInferenceContext(WordMajorPhis phis) {
+		return new CudaInferenceContext(phis);
+	}
+
+
+
+	private static class CudaTrainingContext implements TrainingContext {
+
+		private final int K;
+		private final int V;
+		private final int M;
+
+		private final CudaIntsMatrix wpt;
+		private final CudaMatrix phis;
+		private final CudaIntsMatrix tpd;
+		private final CudaMatrix thetas;
+
+		private final CudaIntsMatrix wt;
+		private final CudaIntsMatrix td;
+
+		private CudaIntsMatrix docsWordCounts;
+		private CudaIntsMatrix docsWordOffsets;
+		private CudaIntsMatrix docsWordIndices;
+
+		private CudaTrainingContext(int K, int V, int M) {
+			this.K = K;
+			this.V = V;
+			this.M = M;
+
+			this.wpt = new CudaIntsMatrix(K, V);
+			this.phis = new CudaMatrix(K, V);
+			this.tpd = new CudaIntsMatrix(M, K);
+			this.thetas = new CudaMatrix(M, K);
+
+			this.wt = new CudaIntsMatrix(1, K);
+			this.td = new CudaIntsMatrix(1, M);
+
+			this.docsWordCounts = new CudaIntsMatrix(1, DEFAULT_MAX_NUM_DOCUMENTS_IN_ONE_BATCH);
+			this.docsWordOffsets = new CudaIntsMatrix(1, DEFAULT_MAX_NUM_DOCUMENTS_IN_ONE_BATCH + 1);
+			this.docsWordIndices = new CudaIntsMatrix(1, MAX_MINIBATCH_NUM_WORDS);
+		}
+
+		@Override
+		public void resetCounts() {
+			wpt.setElements(0);
+			tpd.setElements(0);
+			wt.setElements(0);
+			td.setElements(0);
+			JCudaManager.synchronize();
+		}
+
+		@Override
+		public void drawLatentVariables(MiniBatch miniBatch, int docOffset) {
+			miniBatch = miniBatch.toTokens();
+			int numDocuments = miniBatch.getNumDocuments();
+			int numWords = miniBatch.getNumWords();
+
+			if (numDocuments + 1 > docsWordOffsets.getDeviceCapacity()){
+				docsWordCounts.free();
+				docsWordOffsets.free();
+				docsWordCounts = new CudaIntsMatrix(1, numDocuments);
+				docsWordOffsets = new CudaIntsMatrix(1, numDocuments + 1);
+			}
+			if (numWords > docsWordIndices.getDeviceCapacity()){
+				docsWordIndices.free();
+				docsWordIndices = new CudaIntsMatrix(1, numWords * 2);
+			}
+
+			docsWordCounts.copyFrom(miniBatch.getDocsWordCounts(), numDocuments);
+			docsWordOffsets.copyFrom(miniBatch.getDocsWordOffsets(), numDocuments + 1);
+			if (numWords > 0){
+				docsWordIndices.copyFrom(miniBatch.getDocsWordIndices(), numWords);
+			}
+
+			LDAUtils.drawLatentVariables(docsWordCounts, docsWordOffsets, docsWordIndices,
+					wpt, wt, tpd, td, phis, thetas, docOffset, K, M, V, numDocuments);
+		}
+
+		@Override
+		public void computePhis(float beta) {
+			LDAUtils.computePhis(wpt, wt, phis, beta, beta * V, K, K * V);
+		}
+
+		@Override
+		public void computeThetas(float alpha) {
+			LDAUtils.computeThetas(tpd, td, thetas, alpha, alpha * K, M, M * K);
+		}
+
+		@Override
+		public SimpleFloatMatrix getPhis() {
+			return phis.toSimpleFloatMatrix();
+		}
+
+		@Override
+		public void free() {
+			docsWordCounts.free();
+			docsWordOffsets.free();
+			docsWordIndices.free();
+			wpt.free();
+			phis.free();
+			tpd.free();
+			thetas.free();
+			wt.free();
+			td.free();
+		}
+	}
+
+
+
+	private static class CudaInferenceContext implements InferenceContext {
+
+		/**
+		 * number of topics
+		 */
+		private final int K;
+
+		/**
+		 * a K * V matrix; probabilities of words given topics
+		 * phis matrix on device
+		 */
+		private final CudaMatrix phis;
+
+		/**
+		 * @param phisHost : stored word by word, the column major layout of CudaMatrix, so it is copied to the device as is
+		 */
+		private CudaInferenceContext(WordMajorPhis phisHost) {
+			JCudaManager.makeContextCurrent();
+			this.phis = new CudaMatrix(phisHost.getK(), phisHost.getV(), phisHost.getData());
+			this.K = phisHost.getK();
+		}
+
+		@Override
+		public float[][] inferTopics(MiniBatch documents, float alpha, int numIterations) {
+			documents = documents.toTokens();
+			int M = documents.getNumDocuments();
+			float[] thetas = new float[M * K];
+			InferenceSession session = newSession();
+			try {
+				session.inferTopics(documents.getDocsWordCounts(), documents.getDocsWordOffsets(), documents.getDocsWordIndices(), M, 
+						alpha, numIterations, thetas, 0);
+			} finally {
+				session.free();
+			}
+			float[][] result = new float[M][];
+			for (int m = 0; m < M; m++) {
+				result[m] = Arrays.copyOfRange(thetas, m * K, (m + 1) * K);
+			}
+			return result;
+		}
+
+		@Override
+		public InferenceSession newSession() {
+			return new CudaInferenceSession(phis, K);
+		}
+
+		@Override
+		public void free() {
+			JCudaManager.makeContextCurrent();
+			phis.free();
+		}
+	}
+
+
+
+	/**
+	 * <pre>
+	 * keeps the device matrices of the calls, which are only reallocated when a call needs more elements, 
+	 * and copies the thetas to a host array of its own;
+	 * the p workspace of the sampling kernel is its own as well, so the sessions of the threads of a model share only the read-only phis.
+	 * The kernels of concurrent sessions are serialized by the default stream of the context.
+	 * </pre>
+	 */
+	private static class CudaInferenceSession implements InferenceSession {
+
+		private final CudaMatrix phis;
+
+		private final int K;
+
+		private CudaIntsMatrix tpd;
+		private CudaMatrix thetas;
+		private CudaMatrix p;
+		private CudaIntsMatrix td;
+		private CudaIntsMatrix docsWordCounts;
+		private CudaIntsMatrix docsWordOffsets;
+		private CudaIntsMatrix docsWordIndices;
+
+		/**
+		 * the column major thetas copied from device
+		 */
+		private float[] hostThetas = new float[0];
+
+		private CudaInferenceSession(CudaMatrix phis, int K) {
+			this.phis = phis;
+			this.K = K;
+		}
+
+		@Override
+		public void inferTopics(int[] docsWordCountsHost, int[] docsWordOffsetsHost, IntBuffer docsWordIndicesHost, int M, 
+				float alpha, int numIterations, float[] result, int resultOffset) {
+			if (M == 0) {
+				return;
+			}
+			JCudaManager.makeContextCurrent();
+			int numWords = docsWordOffsetsHost[M];
+			tpd = ensureCapacity(tpd, M, K);
+			thetas = ensureCapacity(thetas, M, K);
+			p = ensureCapacity(p, M, K);
+			td = ensureCapacity(td, 1, M);
+			docsWordCounts = ensureCapacity(docsWordCounts, 1, M);
+			docsWordOffsets = ensureCapacity(docsWordOffsets, 1, M + 1);
+			docsWordIndices = ensureCapacity(docsWordIndices, 1, Math.max(numWords, 1));
+			if (hostThetas.length < M * K) {
+				hostThetas = new float[Math.max(M * K, hostThetas.length * 2)];
+			}
+
+			docsWordCounts.copyFrom(docsWordCountsHost, M);
+			docsWordOffsets.copyFrom(docsWordOffsetsHost, M + 1);
+			if (numWords > 0){
+				docsWordIndices.copyFrom(docsWordIndicesHost, numWords);
+			}
+
+			LDAUtils.computeThetas(tpd, td, thetas, alpha, alpha * K, M, M * K);
+
+			for (int i = 0; i < numIterations; i++) {
+				tpd.setElements(0);
+				td.setElements(0);
+				JCudaManager.synchronize();
+
+				if (M * K < 12000){
+					LDAUtils.drawLatentVariablesForTestingQuick(docsWordCounts, docsWordOffsets, docsWordIndices,
+							tpd, td, phis, thetas, 0, K, M, M);
+				} else {
+					LDAUtils.drawLatentVariablesForTesting(docsWordCounts, docsWordOffsets, docsWordIndices,
+							tpd, td, phis, thetas, p, 0, K, M, M);
+				}
+				LDAUtils.computeThetas(tpd, td, thetas, alpha, alpha * K, M, M * K);
+			}
+
+			thetas.copyTo(hostThetas, M * K);
+			for (int m = 0; m < M; m++) {
+				int offset = resultOffset + m * K;
+				for (int k = 0; k < K; k++) {
+					result[offset + k] = hostThetas[m + k * M];
+				}
+			}
+		}
+
+		/**
+		 * @return 'matrix' with the dimensions set if its capacity suffices, otherwise a new matrix of at least twice the capacity
+		 */
+		private static CudaIntsMatrix ensureCapacity(CudaIntsMatrix matrix, int numRows, int numCols) {
+			if (matrix != null && matrix.getDeviceCapacity() >= numRows * numCols) {
+				return matrix.setDimensions(numRows, numCols);
+			}
+			int capacity = Math.max(numRows * numCols, (matrix != null) ? matrix.getDeviceCapacity() * 2 : 0);
+			if (matrix != null) {
+				matrix.free();
+			}
+			return new CudaIntsMatrix(1, capacity).setDimensions(numRows, numCols);
+		}
+
+		private static CudaMatrix ensureCapacity(CudaMatrix matrix, int numRows, int numCols) {
+			if (matrix != null && matrix.getDeviceCapacity() >= numRows * numCols) {
+				return matrix.setDimensions(numRows, numCols);
+			}
+			int capacity = Math.max(numRows * numCols, (matrix != null) ? matrix.getDeviceCapacity() * 2 : 0);
+			if (matrix != null) {
+				matrix.free();
+			}
+			return new CudaMatrix(1, capacity).setDimensions(numRows, numCols);
+		}
+
+		@Override
+		public void free() {
+			JCudaManager.makeContextCurrent();
+			for (CudaIntsMatrix matrix : new CudaIntsMatrix[] {tpd, td, docsWordCounts, docsWordOffsets, docsWordIndices}) {
+				if (matrix != null) {
+					matrix.free();
+				}
+			}
+			for (CudaMatrix matrix : new CudaMatrix[] {thetas, p}) {
+				if (matrix != null) {
+					matrix.free();
+				}
+			}
+			tpd = td = docsWordCounts = docsWordOffsets = docsWordIndices = null;
+			thetas = p = null;
+		}
+	}
+
+}
@@ -0,0 +1,352 @@
+package org.linchimin.jcudalda;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.ejml_float.simple.SimpleFloatMatrix;
+import org.linchimin.utils.ArgumentChecker;
+
+/**
+ * an LDABackend that runs the samplers of CudaLDAFunctions.cu on the host
+ * with a ForkJoinPool through LDAHostUtils; no graphic card is needed;
+ * see SamplingMode for the faster samplers for large K
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public class HostLDABackend implements LDABackend {
+
+	/**
+	 * how the topic of each word is drawn
+	 */
+	public static enum SamplingMode {
+
+		/**
+		 * the linear inverse-CDF scan over K topics, the same as the kernel 'drawLatentVariables'
+		 */
+		LINEAR,
+
+		/**
+		 * the same linear scan once per distinct word of a document, with binary searches for its occurrences;
+		 * much faster than LINEAR for long documents with many repeated words;
+		 * the only mode that samples bag-of-words mini-batches without expanding them to tokens
+		 */
+		GROUPED,
+
+		/**
+		 * cycle proposal Metropolis-Hastings with per-word and per-document alias tables; see LDAAliasSampler
+		 */
+		ALIAS_MH,
+
+		/**
+		 * an F+ tree per document and the sparse counts of words; see LDAFTreeSampler;
+		 * for training only, and inference uses LINEAR instead
+		 */
+		FTREE
+	}
+
+	/**
+	 * an InferenceSession infers a call of at least this number of documents with the pool
+	 */
+	private static final int MIN_DOCUMENTS_FOR_POOL = 64;
+
+	private final ForkJoinPool pool;
+
+	private final SamplingMode samplingMode;
+
+	/**
+	 * use the number of available processors as the number of threads
+	 */
+	public HostLDABackend() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param numThreads : number of threads for sampling
+	 */
+	public HostLDABackend(int numThreads) {
+		this(numThreads, SamplingMode.LINEAR);
+	}
+
+	/**
+	 * @param numThreads : number of threads for sampling
+	 * @param samplingMode : how the topic of each word is drawn
+	 */
+	public HostLDABackend(int numThreads, SamplingMode samplingMode) {
+		ArgumentChecker.checkLarger(numThreads, 0);
+		this.pool = new ForkJoinPool(numThreads);
+		this.samplingMode = samplingMode;
+	}
+
+	public int getNumThreads() {
+		return pool.getParallelism();
+	}
+
+	public SamplingMode getSamplingMode() {
+		return samplingMode;
+	}
+
+	@Override
+	public String getName() {
+		return "host";
+	}
+
+	@Override
+	public TrainingContext newTrainingContext(int K, int V, int M) {
+		return new HostTrainingContext(K, V, M);
+	}
+
+	@Override
+	public InferenceContext newInferenceContext(WordMajorPhis phis) {
+		return new HostInferenceContext(phis);
+	}
+
+
+
+	/**
+	 * see LDAHostUtils for the layouts of the matrices
+	 */
+	private class HostTrainingContext implements TrainingContext {
+
+		private final int K;
+		private final int V;
+		private final int M;
+
+		private final AtomicIntegerArray wpt;
+		private final float[] phis;
+		private int[] tpd;
+		private final float[] thetas;
+
+		private final AtomicIntegerArray wt;
+		private final int[] td;
+
+		/**
+		 * non-null if the sampling mode is FTREE;
+		 * the tpd of the previous iteration, which 'thetas' is computed from
+		 */
+		private int[] previousTpd;
+
+		/**
+		 * the alpha that 'thetas' is computed with
+		 */
+		private float alpha;
+
+		/**
+		 * non-null if the sampling mode is ALIAS_MH
+		 */
+		private final LDAAliasSampler aliasSampler;
+
+		/**
+		 * non-null if the sampling mode is FTREE
+		 */
+		private final LDAFTreeSampler ftreeSampler;
+
+		private HostTrainingContext(int K, int V, int M) {
+			this.K = K;
+			this.V = V;
+			this.M = M;
+
+			this.wpt = new AtomicIntegerArray(K * V);
+			this.phis = new float[K * V];
+			this.tpd = new int[M * K];
+			this.thetas = new float[M * K];
+
+			this.wt = new AtomicIntegerArray(K);
+			this.td = new int[M];
+
+			this.aliasSampler = (samplingMode == SamplingMode.ALIAS_MH) ? new LDAAliasSampler(K, V) : null;
+			this.ftreeSampler = (samplingMode == SamplingMode.FTREE) ? new LDAFTreeSampler(K, V) : null;
+			this.previousTpd = (samplingMode == SamplingMode.FTREE) ? new int[M * K] : null;
+		}
+
+		@Override
+		public void resetCounts() {
+			if (ftreeSampler != null) {
+				int[] swap = previousTpd;
+				previousTpd = tpd;
+				tpd = swap;
+			}
+			LDAHostUtils.setElements(wpt, 0);
+			LDAHostUtils.setElements(wt, 0);
+			Arrays.fill(tpd, 0);
+			Arrays.fill(td, 0);
+		}
+
+		@Override
+		public void drawLatentVariables(MiniBatch miniBatch, int docOffset) {
+			if (samplingMode != SamplingMode.GROUPED) {
+				miniBatch = miniBatch.toTokens();
+			}
+			if (aliasSampler != null) {
+				aliasSampler.drawLatentVariables(pool, miniBatch.getDocsWordCounts(), miniBatch.getDocsWordOffsets(), miniBatch.getDocsWordIndices(),
+						wpt, wt, tpd, td, phis, thetas, docOffset, miniBatch.getNumDocuments());
+				return;
+			}
+			if (ftreeSampler != null) {
+				ftreeSampler.drawLatentVariables(pool, miniBatch.getDocsWordCounts(), miniBatch.getDocsWordOffsets(), miniBatch.getDocsWordIndices(),
+						wpt, wt, tpd, td, previousTpd, alpha, docOffset, miniBatch.getNumDocuments());
+				return;
+			}
+			if (samplingMode == SamplingMode.GROUPED) {
+				LDAHostUtils.drawLatentVariablesGrouped(pool, miniBatch.getDocsWordCounts(), miniBatch.getDocsWordOffsets(), miniBatch.getDocsWordIndices(), miniBatch.getDocsWordFrequencies(),
+						wpt, wt, tpd, td, phis, thetas, docOffset, K, V, miniBatch.getNumDocuments());
+				return;
+			}
+			LDAHostUtils.drawLatentVariables(pool, miniBatch.getDocsWordCounts(), miniBatch.getDocsWordOffsets(), miniBatch.getDocsWordIndices(),
+					wpt, wt, tpd, td, phis, thetas, docOffset, K, V, miniBatch.getNumDocuments());
+		}
+
+		@Override
+		public void computePhis(float beta) {
+			LDAHostUtils.computePhis(pool, wpt, wt, phis, beta, beta * V, K, K * V);
+			if (aliasSampler != null) {
+				aliasSampler.buildWordTables(pool, phis);
+			}
+			if (ftreeSampler != null) {
+				ftreeSampler.buildWordPart(pool, wpt, wt, beta);
+			}
+		}
+
+		@Override
+		public void computeThetas(float alpha) {
+			LDAHostUtils.computeThetas(pool, tpd, td, thetas, alpha, alpha * K, K, M * K);
+			this.alpha = alpha;
+			if (ftreeSampler != null) {
+				ftreeSampler.buildDocumentPart(alpha);
+			}
+		}
+
+		@Override
+		public SimpleFloatMatrix getPhis() {
+			return new WordMajorPhis(K, V, phis).toRowMajor();
+		}
+
+		@Override
+		public void free() {
+		}
+	}
+
+
+
+	private class HostInferenceContext implements InferenceContext {
+
+		private final int K;
+		private final int V;
+
+		/**
+		 * a K * V matrix stored word by word
+		 */
+		private final float[] phis;
+
+		/**
+		 * non-null if the sampling mode is ALIAS_MH
+		 */
+		private final LDAAliasSampler aliasSampler;
+
+		private HostInferenceContext(WordMajorPhis phisHost) {
+			this.K = phisHost.getK();
+			this.V = phisHost.getV();
+			this.phis = phisHost.getData();
+			if (samplingMode == SamplingMode.ALIAS_MH) {
+				this.aliasSampler = new LDAAliasSampler(K, V);
+				this.aliasSampler.buildWordTables(pool, phis);
+			} else {
+				this.aliasSampler = null;
+			}
+		}
+
+		@Override
+		public float[][] inferTopics(MiniBatch documents, float alpha, int numIterations) {
+			int M = documents.getNumDocuments();
+			if (samplingMode != SamplingMode.GROUPED) {
+				documents = documents.toTokens();
+			}
+			float[] thetas = new float[M * K];
+			if (aliasSampler == null) {
+				LDAHostUtils.inferTopics(pool, documents.getDocsWordCounts(), documents.getDocsWordOffsets(), documents.getDocsWordIndices(), 
+						documents.getDocsWordFrequencies(), samplingMode == SamplingMode.GROUPED, phis, alpha, numIterations, K, V, M, thetas, 0);
+			} else {
+				int[] tpd = new int[M * K];
+				int[] td = new int[M];
+
+				LDAHostUtils.computeThetas(pool, tpd, td, thetas, alpha, alpha * K, K, M * K);
+
+				for (int i = 0; i < numIterations; i++) {
+					Arrays.fill(tpd, 0);
+					Arrays.fill(td, 0);
+					aliasSampler.drawLatentVariablesForTesting(pool, documents.getDocsWordCounts(), documents.getDocsWordOffsets(), documents.getDocsWordIndices(),
+							tpd, td, phis, thetas, 0, M);
+					LDAHostUtils.computeThetas(pool, tpd, td, thetas, alpha, alpha * K, K, M * K);
+				}
+			}
+
+			float[][] result = new float[M][];
+			for (int m = 0; m < M; m++) {
+				result[m] = Arrays.copyOfRange(thetas, m * K, (m + 1) * K);
+			}
+			return result;
+		}
+
+		@Override
+		public InferenceSession newSession() {
+			return new HostInferenceSession(this);
+		}
+
+		@Override
+		public void free() {
+		}
+	}
+
+
+
+	/**
+	 * <pre>
+	 * infers the documents of a call one after another on the calling thread with one LDAHostUtils.InferenceScratch, 
+	 * so a call allocates nothing, and the sessions of many threads run in parallel; 
+	 * a call of at least MIN_DOCUMENTS_FOR_POOL documents is inferred with the pool instead, 
+	 * which allocates the small scratch arrays of its tasks.
+	 * With ALIAS_MH, the calls are inferred by 'inferTopics' of the context, which allocates the matrices of every call.
+	 * </pre>
+	 */
+	private class HostInferenceSession implements InferenceSession {
+
+		private final HostInferenceContext context;
+
+		private final LDAHostUtils.InferenceScratch scratch;
+
+		private HostInferenceSession(HostInferenceContext context) {
+			this.context = context;
+			this.scratch = new LDAHostUtils.InferenceScratch(context.K);
+		}
+
+		@Override
+		public void inferTopics(int[] docsWordCounts, int[] docsWordOffsets, IntBuffer docsWordIndices, int numDocuments, 
+				float alpha, int numIterations, float[] result, int resultOffset) {
+			int K = context.K;
+			if (context.aliasSampler != null) {
+				float[][] thetas = context.inferTopics(new MiniBatch(docsWordCounts, docsWordOffsets, docsWordIndices, numDocuments), alpha, numIterations);
+				for (int m = 0; m < numDocuments; m++) {
+					System.arraycopy(thetas[m], 0, result, resultOffset + m * K, K);
+				}
+				return;
+			}
+			boolean isGrouped = (samplingMode == SamplingMode.GROUPED);
+			if (numDocuments >= MIN_DOCUMENTS_FOR_POOL && pool.getParallelism() > 1) {
+				LDAHostUtils.inferTopics(pool, docsWordCounts, docsWordOffsets, docsWordIndices, null, isGrouped, 
+						context.phis, alpha, numIterations, K, context.V, numDocuments, result, resultOffset);
+				return;
+			}
+			for (int m = 0; m < numDocuments; m++) {
+				LDAHostUtils.inferDocument(docsWordCounts, docsWordOffsets, docsWordIndices, null, isGrouped, 
+						context.phis, alpha, numIterations, K, context.V, m, result, resultOffset + m * K, scratch);
+			}
+		}
+
+		@Override
+		public void free() {
+		}
+	}
+
+}
@@ -0,0 +1,296 @@
+package org.linchimin.jcudalda;
+
+import java.nio.IntBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <pre>
+ * an alternative to LDAHostUtils.drawLatentVariables with amortized O(1) sampling cost per word in K,
+ * based on "LightLDA: Big Topic Models on Modest Computer Clusters" (Yuan et al., WWW 2015)
+ * and "Reducing the Sampling Complexity of Topic Models" (Li et al., KDD 2014)
+ *
+ * Within an iteration, both phis and thetas are fixed, so the target distribution of the topic of word w in document m
+ * p(k) = phis[k][w] * thetas[m][k]
+ * is sampled with cycle proposal Metropolis-Hastings, alternating between
+ * the word proposal phis[k][w], drawn from a Walker alias table per vocabulary word built once per iteration, and
+ * the document proposal thetas[m][k], drawn from a Walker alias table per document built once per document;
+ * the acceptance ratios are thetas[m][t] / thetas[m][s] and phis[t][w] / phis[s][w] respectively.
+ *
+ * The matrix layouts are the same as the ones of LDAHostUtils.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+class LDAAliasSampler {
+
+	/**
+	 * a task of a range of documents is not split further
+	 * when it contains no more than this number of documents
+	 */
+	private static final int DOCUMENTS_GRAIN_SIZE = 16;
+
+	/**
+	 * a task of a range of words is not split further
+	 * when it contains no more than this number of words
+	 */
+	private static final int WORDS_GRAIN_SIZE = 64;
+
+	/**
+	 * number of Metropolis-Hastings steps per word; each cycle consists of a document step and a word step
+	 */
+	private static final int NUM_MH_STEPS = 4;
+
+	private final int K;
+	private final int V;
+
+	/**
+	 * Walker alias tables of the phis columns, stored word by word like phis;
+	 * see 'buildAliasTable' for the format of the entries
+	 */
+	private final long[] wordTables;
+
+
+	protected LDAAliasSampler(int K, int V) {
+		this.K = K;
+		this.V = V;
+		this.wordTables = new long[K * V];
+	}
+
+
+	/**
+	 * rebuild the alias tables of all vocabulary words; to be called whenever 'phis' is changed
+	 *
+	 * @param phis : a K * V matrix stored word by word
+	 */
+	protected void buildWordTables(ForkJoinPool pool, final float[] phis) {
+		pool.invoke(new LDAHostUtils.RangeAction(0, V, WORDS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				float[] probabilities = new float[K];
+				int[] small = new int[K];
+				int[] large = new int[K];
+				for (int v = start; v < end; v++) {
+					buildAliasTable(phis, v * K, K, wordTables, v * K, probabilities, small, large);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * same as LDAHostUtils.drawLatentVariables except that topics are drawn with Metropolis-Hastings;
+	 * requires 'buildWordTables' to be called with the same 'phis'
+	 *
+	 * @see LDAHostUtils#drawLatentVariables
+	 */
+	protected void drawLatentVariables(
+			ForkJoinPool pool,
+			final int[] docsWordCounts,
+			final int[] docsWordOffsets,
+			final IntBuffer docsWordIndices,
+			final AtomicIntegerArray wpt,
+			final AtomicIntegerArray wt,
+			final int[] tpd,
+			final int[] td,
+			final float[] phis,
+			final float[] thetas,
+			final int docOffset,
+			int numDocumentsInOneBatch) {
+
+		pool.invoke(new LDAHostUtils.RangeAction(0, numDocumentsInOneBatch, DOCUMENTS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				DocumentSampler sampler = new DocumentSampler();
+				int[] localWt = new int[K];
+				for (int m = start; m < end; m++) {
+					int docIndex = docOffset + m;
+					sampler.sampleDocument(docsWordCounts[m], docsWordOffsets[m], docsWordIndices,
+							wpt, localWt, tpd, phis, thetas, docIndex);
+					td[docIndex] += docsWordCounts[m];
+				}
+				for (int k = 0; k < K; k++) {
+					if (localWt[k] != 0) {
+						wt.getAndAdd(k, localWt[k]);
+					}
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * same as LDAHostUtils.drawLatentVariablesForTesting except that topics are drawn with Metropolis-Hastings;
+	 * requires 'buildWordTables' to be called with the same 'phis'
+	 *
+	 * @see LDAHostUtils#drawLatentVariablesForTesting
+	 */
+	protected void drawLatentVariablesForTesting(
+			ForkJoinPool pool,
+			final int[] docsWordCounts,
+			final int[] docsWordOffsets,
+			final IntBuffer docsWordIndices,
+			final int[] tpd,
+			final int[] td,
+			final float[] phis,
+			final float[] thetas,
+			final int docOffset,
+			int numDocumentsInOneBatch) {
+
+		pool.invoke(new LDAHostUtils.RangeAction(0, numDocumentsInOneBatch, DOCUMENTS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				DocumentSampler sampler = new DocumentSampler();
+				for (int m = start; m < end; m++) {
+					int docIndex = docOffset + m;
+					sampler.sampleDocument(docsWordCounts[m], docsWordOffsets[m], docsWordIndices,
+							null, null, tpd, phis, thetas, docIndex);
+					td[docIndex] += docsWordCounts[m];
+				}
+			}
+		});
+	}
+
+
+
+	/**
+	 * per-task buffers of the document alias table
+	 */
+	private class DocumentSampler {
+
+		private final long[] docTable = new long[K];
+		private final float[] probabilities = new float[K];
+		private final int[] small = new int[K];
+		private final int[] large = new int[K];
+
+
+		/**
+		 * @param wpt : updated if not null
+		 * @param localWt : updated if not null
+		 */
+		private void sampleDocument(int Nm, int docWordOffset, IntBuffer docsWordIndices,
+				AtomicIntegerArray wpt, int[] localWt, int[] tpd, float[] phis, float[] thetas, int docIndex) {
+
+			int thetasOffset = docIndex * K;
+			SplittableRandom random = new SplittableRandom(docIndex);
+
+			boolean isTableBuilt = false;
+			for (int i = 0; i < Nm; i++) {
+				int c_word = docsWordIndices.get(docWordOffset + i);
+				if (c_word < 0 || c_word >= V){
+					continue;
+				}
+				if (isTableBuilt == false) {
+					buildAliasTable(thetas, thetasOffset, K, docTable, 0, probabilities, small, large);
+					isTableBuilt = true;
+				}
+				int phisOffset = c_word * K;
+
+				int s = sampleAliasTable(random, wordTables, phisOffset, K);
+				for (int step = 0; step < NUM_MH_STEPS; step++) {
+					int t;
+					float acceptance;
+					if ((step & 1) == 0) {
+						t = sampleAliasTable(random, docTable, 0, K);
+						acceptance = phis[t + phisOffset] / phis[s + phisOffset];
+					} else {
+						t = sampleAliasTable(random, wordTables, phisOffset, K);
+						acceptance = thetas[t + thetasOffset] / thetas[s + thetasOffset];
+					}
+					if (acceptance >= 1 || random.nextDouble() < acceptance) {
+						s = t;
+					}
+				}
+
+				if (wpt != null) {
+					wpt.getAndIncrement(s + phisOffset);
+					localWt[s]++;
+				}
+				tpd[s + thetasOffset]++;
+			}
+		}
+	}
+
+
+
+	/**
+	 * <pre>
+	 * build a Walker alias table of weights[weightsOffset, weightsOffset + K) with Vose's method;
+	 * the entry of topic k, table[tableOffset + k], keeps the alias topic in the high 32 bits and
+	 * the float bits of the probability of keeping k in the low 32 bits,
+	 * so that a draw reads a single entry
+	 * </pre>
+	 *
+	 * @param probabilities : a buffer of length K
+	 * @param small : a buffer of length K
+	 * @param large : a buffer of length K
+	 */
+	protected static void buildAliasTable(float[] weights, int weightsOffset, int K,
+			long[] table, int tableOffset, float[] probabilities, int[] small, int[] large) {
+
+		double sum = 0;
+		for (int k = 0; k < K; k++) {
+			sum += weights[weightsOffset + k];
+		}
+
+		int numSmall = 0;
+		int numLarge = 0;
+		for (int k = 0; k < K; k++) {
+			float probability = (sum > 0) ? (float) (weights[weightsOffset + k] * K / sum) : 1;
+			probabilities[k] = probability;
+			table[tableOffset + k] = (long) k << 32;
+			if (probability < 1) {
+				small[numSmall++] = k;
+			} else {
+				large[numLarge++] = k;
+			}
+		}
+
+		while (numSmall > 0 && numLarge > 0) {
+			int l = small[--numSmall];
+			int g = large[numLarge - 1];
+			table[tableOffset + l] = (long) g << 32;
+			float probability = probabilities[g] + probabilities[l] - 1;
+			probabilities[g] = probability;
+			if (probability < 1) {
+				numLarge--;
+				small[numSmall++] = g;
+			}
+		}
+
+		/**
+		 * the remaining ones are 1 up to rounding errors
+		 */
+		while (numLarge > 0) {
+			probabilities[large[--numLarge]] = 1;
+		}
+		while (numSmall > 0) {
+			probabilities[small[--numSmall]] = 1;
+		}
+
+		for (int k = 0; k < K; k++) {
+			table[tableOffset + k] |= Float.floatToRawIntBits(probabilities[k]) & 0xFFFFFFFFL;
+		}
+	}
+
+
+	/**
+	 * draw from an alias table built by 'buildAliasTable' with a single random long,
+	 * whose high 32 bits choose the entry and whose low 24 bits decide between the entry and its alias
+	 */
+	protected static int sampleAliasTable(SplittableRandom random, long[] table, int tableOffset, int K) {
+		long bits = random.nextLong();
+		int k = (int) (((bits >>> 32) * K) >>> 32);
+		long entry = table[tableOffset + k];
+		return ((bits & 0xFFFFFF) * 0x1.0p-24f < Float.intBitsToFloat((int) entry)) ? k : (int) (entry >>> 32);
+	}
+
+}
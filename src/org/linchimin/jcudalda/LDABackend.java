@@ -0,0 +1,135 @@
+package org.linchimin.jcudalda;
+
+import java.nio.IntBuffer;
+
+import org.ejml_float.simple.SimpleFloatMatrix;
+
+/**
+ * <pre>
+ * a compute backend for training and inference of LDA models;
+ * it covers the operations of LDAUtils:
+ * sampling a mini-batch, computing phis, computing thetas, and inference of topics.
+ *
+ * 1. CudaLDABackend launches the kernels in CudaLDAFunctions.cu
+ * 2. HostLDABackend runs the same samplers with a pool of threads
+ *
+ * Use LDABackends.getDefault() to choose one at runtime.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public interface LDABackend {
+
+	/**
+	 * @return like "cuda" or "host"
+	 */
+	String getName();
+
+	/**
+	 * allocate the matrices for training an LDA model
+	 * @param K : number of topics
+	 * @param V : number of vocabulary words
+	 * @param M : number of documents used for training
+	 */
+	TrainingContext newTrainingContext(int K, int V, int M);
+
+	/**
+	 * @param phis : a K * V matrix stored word by word; probabilities of words given topics
+	 */
+	InferenceContext newInferenceContext(WordMajorPhis phis);
+
+
+
+	/**
+	 * <pre>
+	 * the matrices of a training process:
+	 *
+	 * wpt[k][v] : words per topic
+	 * wt[k] : total words per topic
+	 * tpd[m][k] : topics per document
+	 * td[m] : total topics per document, counting all the word indices of a document including the ones out of [0, V)
+	 * phis : probabilities of words given topics
+	 * thetas : probabilities of topics given documents
+	 * </pre>
+	 */
+	interface TrainingContext {
+
+		/**
+		 * set wpt, wt, tpd, and td to zeros; called at the start of an iteration
+		 */
+		void resetCounts();
+
+		/**
+		 * draw latent variables for a mini-batch of documents
+		 * @param miniBatch : the documents with indices from docOffset to docOffset + miniBatch.getNumDocuments() - 1;
+		 * either a token or a bag-of-words mini-batch
+		 * @param docOffset : document index offset for the input mini-batch
+		 */
+		void drawLatentVariables(MiniBatch miniBatch, int docOffset);
+
+		/**
+		 * phis = (wpt + beta) / (wt + beta * V)
+		 */
+		void computePhis(float beta);
+
+		/**
+		 * thetas = (tpd + alpha) / (td + alpha * K)
+		 */
+		void computeThetas(float alpha);
+
+		/**
+		 * @return a K * V matrix, the format of the saved phis files
+		 */
+		SimpleFloatMatrix getPhis();
+
+		void free();
+	}
+
+
+	/**
+	 * inference of topics with fixed phis
+	 */
+	interface InferenceContext {
+
+		/**
+		 * @param documents : word indices of documents, either a token or a bag-of-words mini-batch; negative indices are ignored
+		 * @param alpha : the alpha parameter for inference
+		 * @param numIterations : number of iterations for inference
+		 * @return topic vectors of the documents
+		 */
+		float[][] inferTopics(MiniBatch documents, float alpha, int numIterations);
+
+		/**
+		 * @return a new session of this context, whose workspaces are reused across its calls; free it when done
+		 */
+		InferenceSession newSession();
+
+		void free();
+	}
+
+
+	/**
+	 * <pre>
+	 * inference of topics with the fixed phis of an InferenceContext, with workspaces that only grow;
+	 * once they fit the largest request, a call allocates no memory.
+	 * A session is used by one thread at a time.
+	 * </pre>
+	 */
+	interface InferenceSession {
+
+		/**
+		 * @param docsWordCounts : word counts of 'numDocuments' documents
+		 * @param docsWordOffsets : word offsets of the documents
+		 * @param docsWordIndices : word indices of the documents; negative indices are ignored
+		 * @param alpha : the alpha parameter for inference
+		 * @param numIterations : number of iterations for inference
+		 * @param result : receives the K probabilities of topics of the m-th document at [resultOffset + m * K + k]
+		 */
+		void inferTopics(int[] docsWordCounts, int[] docsWordOffsets, IntBuffer docsWordIndices, int numDocuments, 
+				float alpha, int numIterations, float[] result, int resultOffset);
+
+		void free();
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.linchimin.jcudalda;
+
+import org.linchimin.jcuda.utils.JCudaManager;
+
+/**
+ * <pre>
+ * choose an LDABackend at runtime
+ *
+ * The system property "jcudalda.backend" can be set to
+ * "cuda" : always use CudaLDABackend
+ * "host" : always use HostLDABackend
+ * "auto" (default) : use CudaLDABackend if JCuda can be initialized, otherwise fall back to HostLDABackend
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public class LDABackends {
+
+	public static final String BACKEND_PROPERTY = "jcudalda.backend";
+
+	private static LDABackend defaultBackend;
+
+
+	/**
+	 * @return a shared backend chosen according to the system property "jcudalda.backend"
+	 */
+	public static synchronized LDABackend getDefault() {
+		if (defaultBackend == null) {
+			defaultBackend = createBackend(System.getProperty(BACKEND_PROPERTY, "auto"));
+			System.out.println("LDABackends.getDefault() uses the " + defaultBackend.getName() + " backend");
+		}
+		return defaultBackend;
+	}
+
+
+	private static LDABackend createBackend(String name) {
+		if (name.equalsIgnoreCase("cuda")) {
+			return new CudaLDABackend();
+		} else if (name.equalsIgnoreCase("host")) {
+			return new HostLDABackend();
+		} else if (name.equalsIgnoreCase("auto")) {
+			if (JCudaManager.isAvailable()) {
+				return new CudaLDABackend();
+			}
+			System.err.println("LDABackends.createBackend() JCuda cannot be initialized; falling back to the host backend");
+			return new HostLDABackend();
+		} else {
+			throw new IllegalArgumentException("IllegalArgumentException: unknown backend " + name
+					+ " for the system property " + BACKEND_PROPERTY + "; use 'cuda', 'host', or 'auto'");
+		}
+	}
+
+}
@@ -0,0 +1,288 @@
+package org.linchimin.jcudalda;
+
+import org.linchimin.common.HashingVocabulary;
+import org.linchimin.utils.ArgumentChecker;
+
+
+/**
+ * <pre>
+ *
+ * 1. A pure Java counterpart of LDAGPUTrainer for machines without NVIDIA graphic cards;
+ * it runs the same uncollapsed sampler as the kernel 'drawLatentVariables' in CudaLDAFunctions.cu,
+ * with the documents of a mini-batch processed in parallel with a ForkJoinPool, 
+ * or equivalently, an LDAGPUTrainer with a HostLDABackend.
+ *
+ * 2.
+ * Method 'trainWithIntsCorpus' accepts the same ints corpus as LDAGPUTrainer.trainWithIntsCorpus
+ * and writes the same format of phis file, which can be loaded by LDAModel.
+ *
+ * 3.
+ * For large K, 'setSamplingMode' selects a sampler whose cost per word does not grow linearly with K.
+ *
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public class LDACPUTrainer {
+
+	private static final int DEFAULT_NUM_DOCUMENTS_IN_ONE_BATCH = 20000;
+
+	private static final float DEFAULT_ALPHA = 0.1f;
+	private static final float DEFAULT_BETA = 0.01f;
+
+	/**
+	 * K : number of topics
+	 */
+	private final int K;
+
+	/**
+	 * V : number of vocabulary words; -1 if given by the vocabulary file
+	 */
+	private final int V;
+
+	/**
+	 * M : number of documents used for training
+	 */
+	private final int M;
+
+
+	/**
+	 * the alpha parameter
+	 */
+	private float alpha = DEFAULT_ALPHA;
+
+	/**
+	 * the beta parameter
+	 */
+	private float beta  = DEFAULT_BETA;
+
+	/**
+	 * number of threads for sampling; the number of available processors by default
+	 */
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * how the topic of each word is drawn; LINEAR by default, the same as LDAGPUTrainer
+	 */
+	private HostLDABackend.SamplingMode samplingMode = HostLDABackend.SamplingMode.LINEAR;
+
+	/**
+	 * -1 to use the default of LDAGPUTrainer
+	 */
+	private long residentCorpusMemoryBudget = -1;
+
+	/**
+	 * -1 to use the default of LDAGPUTrainer
+	 */
+	private int prefetchQueueDepth = -1;
+
+	/**
+	 * null for a temporary directory
+	 */
+	private String textsCacheDirectory = null;
+
+	/**
+	 * null to keep all word indices
+	 */
+	private TokenFilter tokenFilter = null;
+
+
+	/**
+	 * non-null if using the constructor LDACPUTrainer(String vocabularyFilePath, int K, int M)
+	 */
+	private final String vocabularyFilePath;
+
+	/**
+	 * non-null if using the constructor LDACPUTrainer(int V, int K, int M); shared by the trainers of 'newTrainer'
+	 */
+	private final HashingVocabulary hashingVocabulary;
+
+
+	/**
+	 * constructor that supports both 'trainWithIntsCorpus' and 'trainWithTextsCorpus'
+	 *
+	 * @param vocabularyFilePath : the same as the one of LDAGPUTrainer(String vocabularyFilePath, int K, int M)
+	 * @param K : numer of topics
+	 * @param M : number of top documents used for training
+	 */
+	public LDACPUTrainer(String vocabularyFilePath, int K, int M) {
+		this.vocabularyFilePath = vocabularyFilePath;
+		this.hashingVocabulary = null;
+		this.V = -1;
+		this.K = K;
+		this.M = M;
+	}
+
+
+	/**
+	 * 'trainWithTextsCorpus' maps the words to V buckets of a HashingVocabulary, the same as LDAGPUTrainer(int V, int K, int M)
+	 *
+	 * @param V : the vocabualry size; word indices < 0 or >= V are ignored.
+	 * @param K : numer of topics
+	 * @param M : number of top documents used for training
+	 */
+	public LDACPUTrainer(int V, int K, int M) {
+		this.vocabularyFilePath = null;
+		this.hashingVocabulary = new HashingVocabulary(V);
+		this.V = V;
+		this.K = K;
+		this.M = M;
+	}
+
+	public void setAlpha(float alpha) {
+		this.alpha = alpha;
+	}
+
+	public void setBeta(float beta) {
+		this.beta = beta;
+	}
+
+	public float getAlpha() {
+		return alpha;
+	}
+
+	public float getBeta() {
+		return beta;
+	}
+
+	public void setNumThreads(int numThreads) {
+		ArgumentChecker.checkLarger(numThreads, 0);
+		this.numThreads = numThreads;
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * @param samplingMode : GROUPED is faster than LINEAR for long documents with many repeated words, and
+	 * ALIAS_MH and FTREE are much faster than LINEAR for large K, e.g. K = 1000 to 10000;
+	 * see SamplingModesBenchmark in jcudalda.example
+	 */
+	public void setSamplingMode(HostLDABackend.SamplingMode samplingMode) {
+		this.samplingMode = samplingMode;
+	}
+
+	public HostLDABackend.SamplingMode getSamplingMode() {
+		return samplingMode;
+	}
+
+	/**
+	 * @see LDAGPUTrainer#setResidentCorpusMemoryBudget(long)
+	 */
+	public void setResidentCorpusMemoryBudget(long residentCorpusMemoryBudget) {
+		if (residentCorpusMemoryBudget < 0) {
+			throw new IllegalArgumentException("IllegalArgumentException: residentCorpusMemoryBudget = " + residentCorpusMemoryBudget + " < 0");
+		}
+		this.residentCorpusMemoryBudget = residentCorpusMemoryBudget;
+	}
+
+	/**
+	 * @see LDAGPUTrainer#setPrefetchQueueDepth(int)
+	 */
+	public void setPrefetchQueueDepth(int prefetchQueueDepth) {
+		if (prefetchQueueDepth < 0) {
+			throw new IllegalArgumentException("IllegalArgumentException: prefetchQueueDepth = " + prefetchQueueDepth + " < 0");
+		}
+		this.prefetchQueueDepth = prefetchQueueDepth;
+	}
+
+	/**
+	 * @return null, or the HashingVocabulary of 'trainWithTextsCorpus' if constructed by LDACPUTrainer(int V, int K, int M)
+	 * @see LDAGPUTrainer#getVocabulary()
+	 */
+	public HashingVocabulary getHashingVocabulary() {
+		return hashingVocabulary;
+	}
+
+	/**
+	 * @see LDAGPUTrainer#setTextsCacheDirectory(String)
+	 */
+	public void setTextsCacheDirectory(String textsCacheDirectory) {
+		this.textsCacheDirectory = textsCacheDirectory;
+	}
+
+	/**
+	 * @see LDAGPUTrainer#setTokenFilter(TokenFilter)
+	 */
+	public void setTokenFilter(TokenFilter tokenFilter) {
+		if (tokenFilter != null && V >= 0 && tokenFilter.getV() != V) {
+			throw new IllegalArgumentException("IllegalArgumentException: tokenFilter.getV() = " + tokenFilter.getV() + " != V = " + V);
+		}
+		this.tokenFilter = tokenFilter;
+	}
+
+
+	/**
+	 * Similar to trainWithIntsCorpus(String intsCorpusDirectory, String resultPhisSerPath, int numIterations, int numDocumentsInOneMiniBatch)
+	 */
+	public void trainWithIntsCorpus(String intsCorpusDirectory, String resultPhisSerPath, int numIterations){
+		trainWithIntsCorpus(intsCorpusDirectory, resultPhisSerPath, numIterations, DEFAULT_NUM_DOCUMENTS_IN_ONE_BATCH);
+	}
+
+
+	/**
+	 * method for training an LDA model with a directory of serializable files of ArrayList<int[]> documents
+	 *
+	 * @param intsCorpusDirectory : the same as the one of LDAGPUTrainer.trainWithIntsCorpus
+	 * @param resultPhisSerPath : the produced 'phis' matrix when training is done
+	 * @param numIterations : number of iterations
+	 * @param numDocumentsInOneMiniBatch : the larger the more documents sampled in parallel and more memory it takes
+	 */
+	public void trainWithIntsCorpus(String intsCorpusDirectory, String resultPhisSerPath, int numIterations, int numDocumentsInOneMiniBatch) {
+		newTrainer().train(intsCorpusDirectory, CorpusFormat.INTS, resultPhisSerPath, numIterations, numDocumentsInOneMiniBatch);
+	}
+
+
+	/**
+	 * method for training an LDA model with a directory of serializable files of ArrayList<BagOfWordsDocument> documents,
+	 * the same as LDAGPUTrainer.trainWithBagOfWordsCorpus; SamplingMode.GROUPED samples the (word, count) pairs without expanding them
+	 */
+	public void trainWithBagOfWordsCorpus(String bagOfWordsCorpusDirectory, String resultPhisSerPath, int numIterations, int numDocumentsInOneMiniBatch) {
+		newTrainer().train(bagOfWordsCorpusDirectory, CorpusFormat.BAG_OF_WORDS, resultPhisSerPath, numIterations, numDocumentsInOneMiniBatch);
+	}
+
+
+	/**
+	 * method for training an LDA model with a directory of binary corpus files, the same as LDAGPUTrainer.trainWithBinaryCorpus
+	 */
+	public void trainWithBinaryCorpus(String binaryCorpusDirectory, String resultPhisSerPath, int numIterations, int numDocumentsInOneMiniBatch) {
+		newTrainer().train(binaryCorpusDirectory, CorpusFormat.BINARY, resultPhisSerPath, numIterations, numDocumentsInOneMiniBatch);
+	}
+
+
+	/**
+	 * method for training an LDA model with a directory of many raw text files of format similar to "resources/example-docs.txt";
+	 * the words are looked up in the vocabulary file, or hashed to V buckets if constructed by LDACPUTrainer(int V, int K, int M)
+	 */
+	public void trainWithTextsCorpus(String textsCorpusDirectory, String resultPhisSerPath, int numIterations, int numDocumentsInOneMiniBatch) {
+		newTrainer().train(textsCorpusDirectory, CorpusFormat.TEXTS, resultPhisSerPath, numIterations, numDocumentsInOneMiniBatch);
+	}
+
+
+	/**
+	 * @return an LDAGPUTrainer that runs with a HostLDABackend of 'numThreads' threads and 'samplingMode'
+	 */
+	private LDAGPUTrainer newTrainer() {
+		HostLDABackend backend = new HostLDABackend(numThreads, samplingMode);
+		LDAGPUTrainer trainer = (vocabularyFilePath != null) ?
+				new LDAGPUTrainer(vocabularyFilePath, K, M, backend) : new LDAGPUTrainer(V, K, M, backend);
+		if (hashingVocabulary != null) {
+			trainer.setHashingVocabulary(hashingVocabulary);
+		}
+		trainer.setAlpha(alpha);
+		trainer.setBeta(beta);
+		if (residentCorpusMemoryBudget >= 0) {
+			trainer.setResidentCorpusMemoryBudget(residentCorpusMemoryBudget);
+		}
+		if (prefetchQueueDepth >= 0) {
+			trainer.setPrefetchQueueDepth(prefetchQueueDepth);
+		}
+		trainer.setTextsCacheDirectory(textsCacheDirectory);
+		trainer.setTokenFilter(tokenFilter);
+		return trainer;
+	}
+
+
+}
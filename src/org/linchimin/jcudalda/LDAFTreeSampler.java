@@ -0,0 +1,343 @@
+package org.linchimin.jcudalda;
+
+import java.nio.IntBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <pre>
+ * an alternative to LDAHostUtils.drawLatentVariables with O(log K) sampling cost per word,
+ * based on "A Scalable Asynchronous Distributed Algorithm for Topic Modeling" (Yu et al., WWW 2015), i.e. F+LDA
+ *
+ * With tpd', td', wpt', and wt' being the counts of the previous iteration, which produced thetas and phis,
+ * the target distribution of the topic of word w in document m
+ * p(k) = phis[k][w] * thetas[m][k] is proportional to
+ *
+ * (tpd'[m][k] + alpha) * beta / (wt'[k] + beta * V)         : the document part, kept in an F+ tree over K topics
+ * + (tpd'[m][k] + alpha) * wpt'[k][w] / (wt'[k] + beta * V)  : the word part, over the non-zero topics of wpt'[.][w]
+ *
+ * The F+ tree of a task starts from the topics masses of an empty document, built once per iteration, and
+ * only the leaves of the non-zero topics of tpd'[m] are updated in O(log K) when entering or leaving a document.
+ *
+ * The matrix layouts are the same as the ones of LDAHostUtils.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+class LDAFTreeSampler {
+
+	/**
+	 * a task of a range of documents is not split further
+	 * when it contains no more than this number of documents
+	 */
+	private static final int DOCUMENTS_GRAIN_SIZE = 16;
+
+	/**
+	 * a task of a range of words is not split further
+	 * when it contains no more than this number of words
+	 */
+	private static final int WORDS_GRAIN_SIZE = 64;
+
+	private final int K;
+	private final int V;
+
+	/**
+	 * 1 / (wt'[k] + beta * V)
+	 */
+	private final float[] wtInverses;
+
+	private float beta;
+
+	/**
+	 * the document part of an empty document, alpha * beta / (wt'[k] + beta * V)
+	 */
+	private final FPlusTree emptyDocumentTree;
+
+	/**
+	 * non-zero topics of wpt' by word in a compressed sparse row format;
+	 * the topics of word v are wordTopics[wordTopicOffsets[v], wordTopicOffsets[v + 1]), with values wpt'[k][v] / (wt'[k] + beta * V)
+	 */
+	private final int[] wordTopicOffsets;
+	private int[] wordTopics = new int[0];
+	private float[] wordValues = new float[0];
+
+
+	protected LDAFTreeSampler(int K, int V) {
+		this.K = K;
+		this.V = V;
+		this.wtInverses = new float[K];
+		this.emptyDocumentTree = new FPlusTree(K);
+		this.wordTopicOffsets = new int[V + 1];
+	}
+
+
+	/**
+	 * build the word part from wpt and wt; to be called with the counts that 'phis' is computed from
+	 *
+	 * @param wpt : a K * V matrix stored word by word
+	 * @param wt : a K dimension vector
+	 */
+	protected void buildWordPart(ForkJoinPool pool, final AtomicIntegerArray wpt, AtomicIntegerArray wt, float beta) {
+		this.beta = beta;
+		final float betaV = beta * V;
+		for (int k = 0; k < K; k++) {
+			wtInverses[k] = 1 / (wt.get(k) + betaV);
+		}
+
+		pool.invoke(new LDAHostUtils.RangeAction(0, V, WORDS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				for (int v = start; v < end; v++) {
+					int numTopics = 0;
+					int offset = v * K;
+					for (int k = 0; k < K; k++) {
+						if (wpt.get(k + offset) != 0) {
+							numTopics++;
+						}
+					}
+					wordTopicOffsets[v + 1] = numTopics;
+				}
+			}
+		});
+
+		wordTopicOffsets[0] = 0;
+		for (int v = 0; v < V; v++) {
+			wordTopicOffsets[v + 1] += wordTopicOffsets[v];
+		}
+		int numElements = wordTopicOffsets[V];
+		if (numElements > wordTopics.length) {
+			wordTopics = new int[numElements];
+			wordValues = new float[numElements];
+		}
+
+		pool.invoke(new LDAHostUtils.RangeAction(0, V, WORDS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				for (int v = start; v < end; v++) {
+					int j = wordTopicOffsets[v];
+					int offset = v * K;
+					for (int k = 0; k < K; k++) {
+						int count = wpt.get(k + offset);
+						if (count != 0) {
+							wordTopics[j] = k;
+							wordValues[j] = count * wtInverses[k];
+							j++;
+						}
+					}
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * build the document part of an empty document; to be called after 'buildWordPart'
+	 * with the alpha that 'thetas' is computed with
+	 */
+	protected void buildDocumentPart(float alpha) {
+		for (int k = 0; k < K; k++) {
+			emptyDocumentTree.setLeaf(k, alpha * beta * wtInverses[k]);
+		}
+		emptyDocumentTree.build();
+	}
+
+
+	/**
+	 * same as LDAHostUtils.drawLatentVariables except that topics are drawn with an F+ tree and the sparse word part;
+	 * requires 'buildWordPart' and 'buildDocumentPart' to be called with the counts of the previous iteration
+	 *
+	 * @param previousTpd : the M * K matrix tpd that 'thetas' is computed from
+	 * @see LDAHostUtils#drawLatentVariables
+	 */
+	protected void drawLatentVariables(
+			ForkJoinPool pool,
+			final int[] docsWordCounts,
+			final int[] docsWordOffsets,
+			final IntBuffer docsWordIndices,
+			final AtomicIntegerArray wpt,
+			final AtomicIntegerArray wt,
+			final int[] tpd,
+			final int[] td,
+			final int[] previousTpd,
+			final float alpha,
+			final int docOffset,
+			int numDocumentsInOneBatch) {
+
+		pool.invoke(new LDAHostUtils.RangeAction(0, numDocumentsInOneBatch, DOCUMENTS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				FPlusTree tree = new FPlusTree(emptyDocumentTree);
+				int[] docTopics = new int[K];
+				double[] p = new double[K];
+				int[] localWt = new int[K];
+
+				for (int m = start; m < end; m++) {
+					int Nm = docsWordCounts[m];
+					int docIndex = docOffset + m;
+					int docWordOffset = docsWordOffsets[m];
+					int thetasOffset = docIndex * K;
+
+					SplittableRandom random = new SplittableRandom(docIndex);
+
+					/**
+					 * enter the document
+					 */
+					int numDocTopics = 0;
+					for (int k = 0; k < K; k++) {
+						int count = previousTpd[k + thetasOffset];
+						if (count != 0) {
+							docTopics[numDocTopics++] = k;
+							tree.update(k, (count + alpha) * beta * wtInverses[k]);
+						}
+					}
+
+					for (int i = 0; i < Nm; i++) {
+						int c_word = docsWordIndices.get(docWordOffset + i);
+						if (c_word < 0 || c_word >= V){
+							continue;
+						}
+
+						int wordStart = wordTopicOffsets[c_word];
+						int wordEnd = wordTopicOffsets[c_word + 1];
+						double sum = 0;
+						for (int j = wordStart; j < wordEnd; j++) {
+							sum += (previousTpd[wordTopics[j] + thetasOffset] + alpha) * wordValues[j];
+							p[j - wordStart] = sum;
+						}
+
+						double stop = random.nextDouble() * (sum + tree.getTotal());
+						int topic;
+						if (stop < sum) {
+							int j;
+							for (j = wordStart; j < wordEnd - 1; j++) {
+								if (stop < p[j - wordStart]) {
+									break;
+								}
+							}
+							topic = wordTopics[j];
+						} else {
+							topic = tree.sample(stop - sum);
+						}
+
+						wpt.getAndIncrement(topic + c_word * K);
+						localWt[topic]++;
+						tpd[topic + thetasOffset]++;
+					}
+					td[docIndex] += Nm;
+
+					/**
+					 * leave the document
+					 */
+					for (int i = 0; i < numDocTopics; i++) {
+						tree.restore(docTopics[i], emptyDocumentTree);
+					}
+				}
+
+				for (int k = 0; k < K; k++) {
+					if (localWt[k] != 0) {
+						wt.getAndAdd(k, localWt[k]);
+					}
+				}
+			}
+		});
+	}
+
+
+
+	/**
+	 * <pre>
+	 * an F+ tree, a complete binary tree stored in an array whose leaves are the masses of K topics;
+	 * node i has children 2 * i and 2 * i + 1, node 1 is the root, and leaf k is node numLeaves + k
+	 * </pre>
+	 */
+	private static final class FPlusTree {
+
+		private final int numLeaves;
+		private final double[] nodes;
+
+		private FPlusTree(int K) {
+			int numLeaves = 1;
+			while (numLeaves < K) {
+				numLeaves <<= 1;
+			}
+			this.numLeaves = numLeaves;
+			this.nodes = new double[2 * numLeaves];
+		}
+
+		private FPlusTree(FPlusTree tree) {
+			this.numLeaves = tree.numLeaves;
+			this.nodes = tree.nodes.clone();
+		}
+
+		/**
+		 * set a leaf without updating its ancestors; 'build' should be called afterwards
+		 */
+		private void setLeaf(int k, double mass) {
+			nodes[numLeaves + k] = mass;
+		}
+
+		/**
+		 * compute all internal nodes in O(K)
+		 */
+		private void build() {
+			for (int i = numLeaves - 1; i > 0; i--) {
+				nodes[i] = nodes[2 * i] + nodes[2 * i + 1];
+			}
+		}
+
+		/**
+		 * set the mass of topic k and its ancestors in O(log K)
+		 */
+		private void update(int k, double mass) {
+			int i = numLeaves + k;
+			nodes[i] = mass;
+			for (i >>= 1; i > 0; i >>= 1) {
+				nodes[i] = nodes[2 * i] + nodes[2 * i + 1];
+			}
+		}
+
+		/**
+		 * copy the mass of topic k and its ancestors from a tree of the same size in O(log K)
+		 */
+		private void restore(int k, FPlusTree tree) {
+			for (int i = numLeaves + k; i > 0; i >>= 1) {
+				nodes[i] = tree.nodes[i];
+			}
+		}
+
+		private double getTotal() {
+			return nodes[1];
+		}
+
+		/**
+		 * @param stop : a value in [0, getTotal())
+		 * @return the topic k where stop falls into in O(log K)
+		 */
+		private int sample(double stop) {
+			int i = 1;
+			while (i < numLeaves) {
+				i <<= 1;
+				if (stop >= nodes[i]) {
+					stop -= nodes[i];
+					i++;
+				}
+			}
+			/**
+			 * rounding errors can only lead to an empty leaf at the right end
+			 */
+			while (nodes[i] == 0 && i > numLeaves) {
+				i--;
+			}
+			return i - numLeaves;
+		}
+	}
+
+}
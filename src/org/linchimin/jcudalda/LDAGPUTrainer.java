@@ -1,17 +1,16 @@
 package org.linchimin.jcudalda;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.ejml_float.simple.SimpleFloatMatrix;
-import org.linchimin.common.Dictionary;
-import org.linchimin.jcuda.utils.CudaIntsMatrix;
-import org.linchimin.jcuda.utils.CudaMatrix;
-import org.linchimin.jcuda.utils.JCudaManager;
+import org.linchimin.common.HashingVocabulary;
+import org.linchimin.common.Vocabulary;
 import org.linchimin.utils.ArgumentChecker;
-import org.linchimin.utils.FileUtils;
-
-import gnu.trove.TIntArrayList;
 
 
 /**
@@ -27,7 +26,18 @@ import gnu.trove.TIntArrayList;
  *   
  * Method 'trainWithTextsCorpus' supports training an LDA model with raw texts files of format like "resources/example-docs.txt 
  * 
- * It's recommended to use 'trainWithIntsCorpus' to train, which is by far faster than 'trainWithTextsCorpus'.
+ * It's recommended to use 'trainWithIntsCorpus' to train; 'trainWithTextsCorpus' tokenizes the texts in the first iteration,
+ * which is by far slower, and then iterates the tokenized documents kept in memory or in a binary cache; see setTextsCacheDirectory
+ * 
+ * Method 'trainWithBagOfWordsCorpus' supports training an LDA model with an ints corpus converted to bag-of-words documents; 
+ * see CorpusProcessor.convertToBagOfWordsCorpus
+ * 
+ * Method 'trainWithBinaryCorpus' supports training an LDA model with memory-mapped binary corpus files, 
+ * which avoids the deserialization of the ints corpus files in every iteration; see BinaryCorpusFile.convertCorpus
+ * 
+ * 3.
+ * The sampling runs with an LDABackend; by default LDABackends.getDefault() chooses the CUDA backend,
+ * and falls back to the host backend when JCuda cannot be initialized. 
  * 
  * </pre>
  * 
@@ -38,15 +48,23 @@ public class LDAGPUTrainer {
 	
 	private static final int DEFAULT_NUM_DOCUMENTS_IN_ONE_BATCH = 20000;
 	
-	private static final int MAX_MINIBATCH_NUM_WORDS = 8000000;
-	
 	private static final float DEFAULT_ALPHA = 0.1f;
 	private static final float DEFAULT_BETA = 0.01f;
 	
+	/**
+	 * by default a quarter of the maximal heap size
+	 */
+	private static final long DEFAULT_RESIDENT_CORPUS_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+	
+	private static final int DEFAULT_PREFETCH_QUEUE_DEPTH = 2;
+	
 	public static final String UNKNOWN_TOKEN = "UUUNKKK";
 	
 	
-	private Dictionary dictionary;
+	/**
+	 * tokenizes the documents of 'trainWithTextsCorpus', with a HashingVocabulary of V buckets if constructed without a vocabulary file
+	 */
+	private CorpusProcessor corpusProcessor;
 	
 	/**
 	 * K : number of topics 
@@ -74,6 +92,32 @@ public class LDAGPUTrainer {
 	 */
 	private float beta  = DEFAULT_BETA;
 	
+	/**
+	 * the backend for sampling; LDABackends.getDefault() by default
+	 */
+	private final LDABackend backend;
+	
+	/**
+	 * maximal number of bytes of the corpus kept in memory after the first iteration; 0 to always read the corpus files
+	 */
+	private long residentCorpusMemoryBudget = DEFAULT_RESIDENT_CORPUS_MEMORY_BUDGET;
+	
+	/**
+	 * number of mini-batches read and packed ahead by a loader thread while sampling; 0 to read them in the training thread
+	 */
+	private int prefetchQueueDepth = DEFAULT_PREFETCH_QUEUE_DEPTH;
+	
+	/**
+	 * the directory of the binary cache of a tokenized texts corpus that exceeds residentCorpusMemoryBudget; 
+	 * null for a temporary directory
+	 */
+	private String textsCacheDirectory = null;
+	
+	/**
+	 * removes word indices from the mini-batches as they are packed; null to keep all
+	 */
+	private TokenFilter tokenFilter = null;
+	
 	
 	/**
 	 * constructor that supports both 'trainWithIntsCorpus' and 'trainWithTextsCorpus'
@@ -81,39 +125,74 @@ public class LDAGPUTrainer {
 	 * 
 	 * @param vocabularyFilePath : 
 	 * load a dictionary used for method 'trainWithTextsCorpus', 
-	 * only consider words in 'vocabularyFilePath' 
+	 * only consider words in 'vocabularyFilePath'; 
+	 * a word list, or a binary vocabulary file converted by CorpusProcessor.convertVocabulary 
 	 * @param K : numer of topics
 	 * @param M : number of top documents used for training
 	 */
 	public LDAGPUTrainer(String vocabularyFilePath, int K, int M) {
+		this(vocabularyFilePath, K, M, LDABackends.getDefault());
+	}
+	
+	/**
+	 * the same as LDAGPUTrainer(String vocabularyFilePath, int K, int M) except that 
+	 * the training runs with 'backend' instead of LDABackends.getDefault()
+	 */
+	public LDAGPUTrainer(String vocabularyFilePath, int K, int M, LDABackend backend) {
 		
-		this.dictionary = Dictionary.loadFromWordList(vocabularyFilePath);
-		if (dictionary.containsWord(UNKNOWN_TOKEN) == false){
-			dictionary.add(UNKNOWN_TOKEN);
-		}
-		this.V = dictionary.size();
+		this.backend = backend;
+		this.corpusProcessor = new CorpusProcessor(vocabularyFilePath);
+		this.V = corpusProcessor.getVocabulary().size();
 		this.K = K;
 		this.M = M;
 	}
 	
 	
 	/**
-	 * Warning : supports only 'trainWithIntsCorpus'. 
-	 * To call 'trainWithTextsCorpus' without NullPointerException,
-	 * use constructor LDAGPUTrainer(String vocabularyFilePath, int K, int M)
+	 * 'trainWithTextsCorpus' maps the words to V buckets of a HashingVocabulary instead of a fixed vocabulary, 
+	 * so an unbounded corpus is trained without a prior vocabulary pass; see getVocabulary and setHashingVocabulary. 
 	 * 
 	 * @param V : the vocabualry size; word indices < 0 or >= V are ignored. 
 	 * @param K : numer of topics
 	 * @param M : number of top documents used for training
 	 */
 	public LDAGPUTrainer(int V, int K, int M) {
+		this(V, K, M, LDABackends.getDefault());
+	}
+	
+	/**
+	 * the same as LDAGPUTrainer(int V, int K, int M) except that 
+	 * the training runs with 'backend' instead of LDABackends.getDefault()
+	 */
+	public LDAGPUTrainer(int V, int K, int M, LDABackend backend) {
 		
-		this.dictionary = null;
+		this.backend = backend;
+		this.corpusProcessor = new CorpusProcessor(new HashingVocabulary(V));
 		this.V = V;
 		this.K = K;
 		this.M = M;
 	}
 
+	/**
+	 * @return the vocabulary of 'trainWithTextsCorpus': the words of the vocabulary file, 
+	 * or a HashingVocabulary whose samples of bucket words are filled while tokenizing; 
+	 * serialize it to display the topic words of the trained model, e.g. by LDAModel(phisSerPath, vocabulary)
+	 */
+	public Vocabulary getVocabulary() {
+		return corpusProcessor.getVocabulary();
+	}
+	
+	/**
+	 * tokenize the texts of 'trainWithTextsCorpus' with 'hashingVocabulary' of V buckets, 
+	 * e.g. to share its samples of bucket words across trainers
+	 */
+	public void setHashingVocabulary(HashingVocabulary hashingVocabulary) {
+		if (hashingVocabulary.size() != V) {
+			throw new IllegalArgumentException("IllegalArgumentException: hashingVocabulary.size() = " + hashingVocabulary.size() + " != V = " + V);
+		}
+		this.corpusProcessor = new CorpusProcessor(hashingVocabulary);
+	}
+
 	public void setAlpha(float alpha) {
 		this.alpha = alpha;
 	}
@@ -122,6 +201,83 @@ public class LDAGPUTrainer {
 		this.beta = beta;
 	}
 	
+	/**
+	 * <pre>
+	 * During the first iteration, the word indices of the documents are packed in memory
+	 * so that the later iterations read neither the corpus files nor deserialize or tokenize them again;
+	 * when the packed documents exceed 'residentCorpusMemoryBudget' bytes, every iteration reads the corpus files instead.
+	 * 
+	 * Binary corpora are always read from their memory-mapped files.
+	 * </pre>
+	 * @param residentCorpusMemoryBudget : in bytes; 0 to always read the corpus files
+	 */
+	public void setResidentCorpusMemoryBudget(long residentCorpusMemoryBudget) {
+		if (residentCorpusMemoryBudget < 0) {
+			throw new IllegalArgumentException("IllegalArgumentException: residentCorpusMemoryBudget = " + residentCorpusMemoryBudget + " < 0");
+		}
+		this.residentCorpusMemoryBudget = residentCorpusMemoryBudget;
+	}
+	
+	public long getResidentCorpusMemoryBudget() {
+		return residentCorpusMemoryBudget;
+	}
+	
+	/**
+	 * <pre>
+	 * While a mini-batch is sampled, a loader thread reads, decodes, and packs up to 'prefetchQueueDepth' 
+	 * next mini-batches of ints, texts, and bag-of-words corpora into reusable buffers; 
+	 * each of them takes the memory of one more mini-batch.
+	 * </pre>
+	 * @param prefetchQueueDepth : 0 to read the mini-batches in the training thread
+	 */
+	public void setPrefetchQueueDepth(int prefetchQueueDepth) {
+		if (prefetchQueueDepth < 0) {
+			throw new IllegalArgumentException("IllegalArgumentException: prefetchQueueDepth = " + prefetchQueueDepth + " < 0");
+		}
+		this.prefetchQueueDepth = prefetchQueueDepth;
+	}
+	
+	public int getPrefetchQueueDepth() {
+		return prefetchQueueDepth;
+	}
+	
+	/**
+	 * <pre>
+	 * 'trainWithTextsCorpus' tokenizes the texts only in the first iteration; 
+	 * the word indices are kept in memory when they fit in residentCorpusMemoryBudget bytes, 
+	 * and are otherwise written to binary corpus files under 'textsCacheDirectory', 
+	 * which are read by the later iterations and deleted after the training.
+	 * </pre>
+	 * @param textsCacheDirectory : null for a temporary directory
+	 */
+	public void setTextsCacheDirectory(String textsCacheDirectory) {
+		this.textsCacheDirectory = textsCacheDirectory;
+	}
+	
+	public String getTextsCacheDirectory() {
+		return textsCacheDirectory;
+	}
+	
+	/**
+	 * <pre>
+	 * remove the word indices of 'tokenFilter', like the unknown token, stopwords, and the -1 and -2 separators, 
+	 * from the documents as they are packed into mini-batches, so they are neither transferred nor sampled;
+	 * the resident corpus and the texts cache keep the filtered documents, so the filter runs once per document 
+	 * unless the corpus files are read in every iteration. The removed tokens of each iteration are printed.
+	 * </pre>
+	 * @param tokenFilter : null to keep all word indices
+	 */
+	public void setTokenFilter(TokenFilter tokenFilter) {
+		if (tokenFilter != null && tokenFilter.getV() != V) {
+			throw new IllegalArgumentException("IllegalArgumentException: tokenFilter.getV() = " + tokenFilter.getV() + " != V = " + V);
+		}
+		this.tokenFilter = tokenFilter;
+	}
+	
+	public TokenFilter getTokenFilter() {
+		return tokenFilter;
+	}
+	
 	public float getAlpha() {
 		return alpha;
 	}
@@ -130,111 +286,16 @@ public class LDAGPUTrainer {
 		return beta;
 	}
 	
+	public LDABackend getBackend() {
+		return backend;
+	}
+	
 
 	/**
 	 * method for training an LDA model with a directory of many raw text files of format similar to "resources/example-docs.txt"
 	 */
 	public void trainWithTextsCorpus(String textsCorpusDirectory, String resultPhisSerPath, int numIterations, int numDocumentsInOneMiniBatch) {
-		
-		CudaIntsMatrix wpt = new CudaIntsMatrix(K, V);
-		CudaMatrix phis = new CudaMatrix(K, V);
-		CudaIntsMatrix tpd = new CudaIntsMatrix(M, K);
-		CudaMatrix thetas = new CudaMatrix(M, K);
-		
-		CudaIntsMatrix wt = new CudaIntsMatrix(1, K);
-		CudaIntsMatrix td = new CudaIntsMatrix(1, M);
-		
-		// both with length 1000
-		CudaIntsMatrix docsWordCounts = new CudaIntsMatrix(1, numDocumentsInOneMiniBatch);
-		CudaIntsMatrix docsWordOffsets = new CudaIntsMatrix(1, numDocumentsInOneMiniBatch + 1);
-		
-		// with length around 2000000
-		CudaIntsMatrix docsWordIndices = new CudaIntsMatrix(1, MAX_MINIBATCH_NUM_WORDS);
-		
-		long startTime = System.currentTimeMillis();
-
-		LDAUtils.computePhis(wpt, wt, phis, beta, beta * V, K, K * V);
-		LDAUtils.computeThetas(tpd, td, thetas, alpha, alpha * K, M, M * K);
-		
-		for (int iteration = 1; iteration <= numIterations; ++iteration) {
-
-			wpt.setElements(0);
-			tpd.setElements(0);
-			wt.setElements(0);
-			td.setElements(0);
-			JCudaManager.synchronize();
-			
-			int docOffset = 0;
-			
-			
-//			for (String textFilePath : textsFilePaths) {
-			
-			CorpusTextsIterator iterator = new CorpusTextsIterator(textsCorpusDirectory, numDocumentsInOneMiniBatch, dictionary);
-			
-			
-			while (iterator.hasNext()) {
-			
-				ArrayList<int[]> miniBatchDocs = iterator.next();
-				if (miniBatchDocs.size() == 0){
-					continue;
-				}
-				
-				int[] documentWordCounts = new int[miniBatchDocs.size()];
-				TIntArrayList documentsWordIndicesList = new TIntArrayList(5000000);
-				for (int i = 0; i < miniBatchDocs.size(); ++i) {
-					int[] documentWordIndices = miniBatchDocs.get(i);
-//						documentWordIndices = ArrayUtils.removeAll(documentWordIndices, -1);
-					documentsWordIndicesList.add(documentWordIndices);
-					documentWordCounts[i] = documentWordIndices.length;
-				}
-				
-				
-				/**cumulative sums of 'documentWordCounts'
-				 */
-				int[] documentWordOffsets = LDAUtils.cumulativeSums(documentWordCounts, true);
-				if (documentsWordIndicesList.size() > docsWordIndices.getNumElements()){
-					docsWordIndices.free();
-					docsWordIndices = new CudaIntsMatrix(1, documentsWordIndicesList.size() * 2);
-				}
-				
-				docsWordCounts.copyFrom(documentWordCounts);
-				docsWordOffsets.copyFrom(documentWordOffsets);
-				docsWordIndices.copyFrom(documentsWordIndicesList.toNativeArray());
-				
-				System.out.println("iteration = " + iteration + ", docOffset = " + docOffset + ", num documents words = " + documentWordOffsets[documentWordOffsets.length - 1] );
-				
-				LDAUtils.drawLatentVariables(docsWordCounts, docsWordOffsets, docsWordIndices, 
-						wpt, wt, tpd, td, phis, thetas, docOffset, K, M, V, miniBatchDocs.size());
-				docOffset += miniBatchDocs.size();
-				
-				if (docOffset >= M){
-					break;
-				}
-				
-				if (miniBatchDocs.size() != numDocumentsInOneMiniBatch){
-					break;
-				}
-				
-			}
-			
-			/**do for each iteration
-			 */
-			LDAUtils.computePhis(wpt, wt, phis, beta, beta * V, K, K * V);
-			LDAUtils.computeThetas(tpd, td, thetas, alpha, alpha * K, M, M * K);
-			
-		} 	// end of for (int iteration = 1; iteration <= numIterations; ++iteration) {
-
-		docsWordCounts.free();
-		docsWordOffsets.free();
-		docsWordIndices.free();
-		
-//		phis.scaleEquals(1000);
-		SimpleFloatMatrix matrix = phis.toSimpleFloatMatrix();
-		matrix.saveToFileBinary(resultPhisSerPath);
-		
-		System.out.println("LDAGPUTrainer.trainWithTextsCorpus() Time taken to run this part: "
-		+ (System.currentTimeMillis() - startTime) / 1000f  + " seconds.");
-		
+		train(textsCorpusDirectory, CorpusFormat.TEXTS, resultPhisSerPath, numIterations, numDocumentsInOneMiniBatch);
 		System.exit(0);
 	}
 	
@@ -267,107 +328,364 @@ public class LDAGPUTrainer {
 	 * @param numDocumentsInOneMiniBatch : the larger the faster and more memory it takes
 	 */
 	public void trainWithIntsCorpus(String intsCorpusDirectory, String resultPhisSerPath, int numIterations, int numDocumentsInOneMiniBatch) {
+		train(intsCorpusDirectory, CorpusFormat.INTS, resultPhisSerPath, numIterations, numDocumentsInOneMiniBatch);
+		System.exit(0);
+	}
+	
+	
+	/**
+	 * method for training an LDA model with a directory of serializable files of ArrayList<BagOfWordsDocument> documents,
+	 * created by CorpusProcessor.convertToBagOfWordsCorpus; files of ArrayList<int[]> documents are also accepted
+	 * 
+	 * @see trainWithIntsCorpus
+	 */
+	public void trainWithBagOfWordsCorpus(String bagOfWordsCorpusDirectory, String resultPhisSerPath, int numIterations, int numDocumentsInOneMiniBatch) {
+		train(bagOfWordsCorpusDirectory, CorpusFormat.BAG_OF_WORDS, resultPhisSerPath, numIterations, numDocumentsInOneMiniBatch);
+		System.exit(0);
+	}
+	
+	
+	/**
+	 * method for training an LDA model with a directory of binary corpus files, created by BinaryCorpusFile.convertCorpus;
+	 * the files are memory-mapped, and the mini-batches are views of them without deserialization
+	 * 
+	 * @see trainWithIntsCorpus
+	 */
+	public void trainWithBinaryCorpus(String binaryCorpusDirectory, String resultPhisSerPath, int numIterations, int numDocumentsInOneMiniBatch) {
+		train(binaryCorpusDirectory, CorpusFormat.BINARY, resultPhisSerPath, numIterations, numDocumentsInOneMiniBatch);
+		System.exit(0);
+	}
+	
+	
+	/**
+	 * the training loop shared by 'trainWithIntsCorpus', 'trainWithTextsCorpus', 'trainWithBagOfWordsCorpus', and 'trainWithBinaryCorpus'
+	 * 
+	 * @param corpusDirectory : a corpus of 'corpusFormat'
+	 */
+	void train(String corpusDirectory, CorpusFormat corpusFormat, String resultPhisSerPath, int numIterations, int numDocumentsInOneMiniBatch) {
 
 		long startTime = System.currentTimeMillis();
 
-		List<String> serFilePaths = FileUtils.getFileListRecursively(intsCorpusDirectory);
-		
-		System.out.println("LDAGPUTrainer.trainWithIntsCorpus() serFilePaths.size() = " + serFilePaths.size());
-		
-		CudaIntsMatrix wpt = new CudaIntsMatrix(K, V);
-		CudaMatrix phis = new CudaMatrix(K, V);
-		CudaIntsMatrix tpd = new CudaIntsMatrix(M, K);
-		CudaMatrix thetas = new CudaMatrix(M, K);
-		
-		CudaIntsMatrix wt = new CudaIntsMatrix(1, K);
-		CudaIntsMatrix td = new CudaIntsMatrix(1, M);
-		
-		// both with length 1000
-		CudaIntsMatrix docsWordCounts = new CudaIntsMatrix(1, numDocumentsInOneMiniBatch);
-		CudaIntsMatrix docsWordOffsets = new CudaIntsMatrix(1, numDocumentsInOneMiniBatch + 1);
+		/**with a manifest, the word indices of the corpus are validated once here instead of in every mini-batch of every iteration
+		 */
+		CorpusManifest manifest = null;
+		if (corpusFormat != CorpusFormat.TEXTS) {
+			manifest = CorpusManifest.read(corpusDirectory);
+			if (manifest != null) {
+				System.out.println("LDAGPUTrainer.train() " + manifest);
+				manifest.validate(V, tokenFilter != null && tokenFilter.isRemoved(-1));
+			} else {
+				List<String> serFilePaths = CorpusManifest.listShardFilePaths(corpusDirectory);
+				System.out.println("LDAGPUTrainer.train() serFilePaths.size() = " + serFilePaths.size() + ", no corpus manifest");
+			}
+		}
+		System.out.println("LDAGPUTrainer.train() backend = " + backend.getName());
 		
-		// with length around 2000000
-		CudaIntsMatrix docsWordIndices = new CudaIntsMatrix(1, MAX_MINIBATCH_NUM_WORDS);
+		LDABackend.TrainingContext context = backend.newTrainingContext(K, V, M);
 		
-
-		LDAUtils.computePhis(wpt, wt, phis, beta, beta * V, K, K * V);
-		LDAUtils.computeThetas(tpd, td, thetas, alpha, alpha * K, M, M * K);
+		context.computePhis(beta);
+		context.computeThetas(alpha);
 		
+		/**the documents of the first iteration are packed into 'residentCorpus', unless they exceed the budget
+		 */
+		PackedCorpus residentCorpus = null;
+		PackedCorpus.Builder residentCorpusBuilder = (corpusFormat != CorpusFormat.BINARY && residentCorpusMemoryBudget > 0) ? 
+				newResidentCorpusBuilder(manifest) : null;
 		
+		/**otherwise, the tokenized documents of a texts corpus are written to binary corpus files in the first iteration
+		 */
+		File textsCache = null;
+		ArrayList<String> textsCacheFilePaths = null;
+		if (corpusFormat == CorpusFormat.TEXTS && residentCorpusBuilder == null) {
+			textsCache = createTextsCache();
+			textsCacheFilePaths = new ArrayList<String>();
+		}
+		boolean isWritingTextsCache = (textsCacheFilePaths != null);
 		
 		for (int iteration = 1; iteration <= numIterations; ++iteration) {
 
-			wpt.setElements(0);
-			tpd.setElements(0);
-			wt.setElements(0);
-			td.setElements(0);
-			JCudaManager.synchronize();
+			context.resetCounts();
+			
+			long iterationStartTime = System.nanoTime();
+			long samplingNanos = 0;
+			long loadNanos = 0;
+			long numIterationWords = 0;
 			
 			int docOffset = 0;
 			
-			CorpusIntsIterator iterator = new CorpusIntsIterator(intsCorpusDirectory, numDocumentsInOneMiniBatch);
+			Iterator<MiniBatch> iterator;
+			if (residentCorpus != null) {
+				iterator = residentCorpus.iterator(numDocumentsInOneMiniBatch);
+			} else if (textsCacheFilePaths != null && isWritingTextsCache == false) {
+				iterator = new CorpusBinaryIterator(textsCacheFilePaths, numDocumentsInOneMiniBatch);
+			} else {
+				iterator = newMiniBatchIterator(corpusDirectory, corpusFormat, numDocumentsInOneMiniBatch);
+			}
 			
-			while (iterator.hasNext()){
-				ArrayList<int[]> miniBatchDocsIndices = iterator.next();
-				if (miniBatchDocsIndices.isEmpty()){
-					continue;
-				}
+			try {
+				while (true) {
+					long loadStartTime = System.nanoTime();
+					if (iterator.hasNext() == false) {
+						break;
+					}
+					MiniBatch miniBatch = iterator.next();
+					loadNanos += System.nanoTime() - loadStartTime;
+					if (miniBatch.getNumDocuments() == 0){
+						continue;
+					}
+					if (miniBatch.getNumDocuments() > M - docOffset){
+						miniBatch = miniBatch.head(M - docOffset);
+					}
+					if (corpusFormat != CorpusFormat.TEXTS && residentCorpus == null && manifest == null) {
+						ArgumentChecker.checkAllInBounds(miniBatch.getDocsWordIndices(), 0, miniBatch.getNumWords(), 0, V);
+					}
+					if (residentCorpusBuilder != null && residentCorpusBuilder.add(miniBatch) == false) {
+						if (corpusFormat == CorpusFormat.TEXTS) {
+							System.out.println("LDAGPUTrainer.train() the corpus exceeds the resident corpus memory budget of " 
+									+ residentCorpusMemoryBudget + " bytes; the tokenized texts are cached in binary corpus files");
+							textsCache = createTextsCache();
+							textsCacheFilePaths = new ArrayList<String>();
+							isWritingTextsCache = true;
+							PackedCorpus packedCorpus = residentCorpusBuilder.build();
+							if (packedCorpus.getNumDocuments() > 0) {
+								writeTextsCacheFile(textsCache, textsCacheFilePaths, packedCorpus.getMiniBatch(0, packedCorpus.getNumDocuments()));
+							}
+						} else {
+							System.out.println("LDAGPUTrainer.train() the corpus exceeds the resident corpus memory budget of " 
+									+ residentCorpusMemoryBudget + " bytes; the corpus files are read in every iteration");
+						}
+						residentCorpusBuilder = null;
+					}
+					if (isWritingTextsCache) {
+						writeTextsCacheFile(textsCache, textsCacheFilePaths, miniBatch);
+					}
 				
-				int[] documentWordCounts = new int[miniBatchDocsIndices.size()];
-				TIntArrayList documentsWordIndicesList = new TIntArrayList(5000000);
-				for (int i = 0; i < miniBatchDocsIndices.size(); ++i) {
-					int[] documentWordIndices = miniBatchDocsIndices.get(i);
-					documentsWordIndicesList.add(documentWordIndices);
-					documentWordCounts[i] = documentWordIndices.length;
-				}
-				
-				int[] documentsWordIndicesArray = documentsWordIndicesList.toNativeArray();
-				ArgumentChecker.checkAllInBounds(documentsWordIndicesArray, 0, V);
+					System.out.println("iteration = " + iteration + ", docOffset = " + docOffset + ", num documents words = " + miniBatch.getNumWords());
 				
+					long samplingStartTime = System.nanoTime();
+					context.drawLatentVariables(miniBatch, docOffset);
+					samplingNanos += System.nanoTime() - samplingStartTime;
+					numIterationWords += miniBatch.getNumTokens();
 				
-				/**cumulative sums of 'documentWordCounts'
-				 */
-				int[] documentWordOffsets = LDAUtils.cumulativeSums(documentWordCounts, true);
-				if (documentsWordIndicesList.size() > docsWordIndices.getNumElements()){
-					docsWordIndices.free();
-					docsWordIndices = new CudaIntsMatrix(1, documentsWordIndicesList.size() * 2);
+					docOffset += miniBatch.getNumDocuments();
+					if (docOffset >= M) {
+						break;
+					}
 				}
-				
-				docsWordCounts.copyFrom(documentWordCounts);
-				docsWordOffsets.copyFrom(documentWordOffsets);
-				docsWordIndices.copyFrom(documentsWordIndicesList.toNativeArray());
-
-				System.out.println("iteration = " + iteration + ", docOffset = " + docOffset + ", num documents words = " + documentWordOffsets[documentWordOffsets.length - 1] );
-				
-				LDAUtils.drawLatentVariables(docsWordCounts, docsWordOffsets, docsWordIndices, 
-						wpt, wt, tpd, td, phis, thetas, docOffset, K, M, V, miniBatchDocsIndices.size());
-				docOffset += miniBatchDocsIndices.size();
-				if (docOffset >= M) {
-					break;
+			} finally {
+				if (iterator instanceof PrefetchingMiniBatchIterator) {
+					((PrefetchingMiniBatchIterator<?>) iterator).close();
 				}
 			}
 			
 			
+			isWritingTextsCache = false;
+			if (residentCorpusBuilder != null) {
+				residentCorpus = residentCorpusBuilder.build();
+				residentCorpusBuilder = null;
+				System.out.println("LDAGPUTrainer.train() resident corpus of " + residentCorpus.getNumDocuments() + " documents, " 
+						+ residentCorpus.getNumWords() + " words, " + residentCorpus.getNumBytes() + " bytes");
+			}
+			
+			if (tokenFilter != null && tokenFilter.getNumTokens() > 0) {
+				System.out.println("iteration = " + iteration + ", " + tokenFilter);
+				tokenFilter.resetCounts();
+			}
+			
 			/**do for each iteration
 			 */
-			LDAUtils.computePhis(wpt, wt, phis, beta, beta * V, K, K * V);
-			LDAUtils.computeThetas(tpd, td, thetas, alpha, alpha * K, M, M * K);
+			context.computePhis(beta);
+			context.computeThetas(alpha);
 			
+			String loaderTiming = "";
+			if (iterator instanceof PrefetchingMiniBatchIterator) {
+				PrefetchingMiniBatchIterator<?> prefetchingIterator = (PrefetchingMiniBatchIterator<?>) iterator;
+				loaderTiming = ", loader read seconds = " + prefetchingIterator.getReadNanos() / 1e9f 
+						+ ", loader pack seconds = " + prefetchingIterator.getPackNanos() / 1e9f;
+			}
+			System.out.println("iteration = " + iteration + ", seconds = " + (System.nanoTime() - iterationStartTime) / 1e9f
+					+ ", load waiting seconds = " + loadNanos / 1e9f + loaderTiming
+					+ ", sampling seconds = " + samplingNanos / 1e9f
+					+ ", sampled words per second = " + (long) (numIterationWords / Math.max(samplingNanos / 1e9, 1e-9)));
 			
 		} 	// end of for (int iteration = 1; iteration <= numIterations; ++iteration) {
 
-		docsWordCounts.free();
-		docsWordOffsets.free();
-		docsWordIndices.free();
-		
-		
-		SimpleFloatMatrix matrix = phis.toSimpleFloatMatrix();
+		SimpleFloatMatrix matrix = context.getPhis();
 		matrix.saveToFileBinary(resultPhisSerPath);
+		context.free();
 		
-		System.out.println("LDAGPUTrainer.trainWithIntsCorpus() Time taken to run this part: "
-		+ (System.currentTimeMillis() - startTime) / 1000f  + " seconds.");
+		if (textsCache != null) {
+			for (String textsCacheFilePath : textsCacheFilePaths) {
+				new File(textsCacheFilePath).delete();
+			}
+			if (textsCacheDirectory == null) {
+				textsCache.delete();
+			}
+		}
 		
-		System.exit(0);
+		System.out.println("LDAGPUTrainer.train() Time taken to run this part: "
+		+ (System.currentTimeMillis() - startTime) / 1000f  + " seconds.");
+	}
+	
+	
+	/**
+	 * @return textsCacheDirectory, or a new temporary directory if it is null
+	 */
+	private File createTextsCache() {
+		if (textsCacheDirectory != null) {
+			File directory = new File(textsCacheDirectory);
+			directory.mkdirs();
+			return directory;
+		}
+		try {
+			File directory = Files.createTempDirectory("jcudalda-texts-cache").toFile();
+			directory.deleteOnExit();
+			return directory;
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot create a temporary directory for the texts cache", e);
+		}
+	}
+	
+	
+	/**
+	 * @return a builder of the resident corpus, pre-sized by 'manifest' if any, 
+	 * or null if the manifest shows that the first M documents exceed residentCorpusMemoryBudget
+	 */
+	private PackedCorpus.Builder newResidentCorpusBuilder(CorpusManifest manifest) {
+		if (manifest == null) {
+			return new PackedCorpus.Builder(residentCorpusMemoryBudget);
+		}
+		long numDocuments = 0;
+		long numWords = 0;
+		for (CorpusManifest.Shard shard : manifest.getShards()) {
+			if (numDocuments >= M) {
+				break;
+			}
+			numDocuments += shard.getNumDocuments();
+			numWords += shard.getNumWords();
+		}
+		numDocuments = Math.min(numDocuments, M);
+		boolean isBagOfWords = (manifest.getFormat() == CorpusFormat.BAG_OF_WORDS);
+		if (4L * (numDocuments + 1 + numWords * (isBagOfWords ? 2 : 1)) > residentCorpusMemoryBudget || numWords > Integer.MAX_VALUE - 8) {
+			System.out.println("LDAGPUTrainer.train() the corpus manifest exceeds the resident corpus memory budget of " 
+					+ residentCorpusMemoryBudget + " bytes; the corpus files are read in every iteration");
+			return null;
+		}
+		return new PackedCorpus.Builder(residentCorpusMemoryBudget, (int) numDocuments, (int) numWords, isBagOfWords);
+	}
+	
+	
+	/**
+	 * write 'miniBatch' to the next binary corpus file of the texts cache
+	 */
+	private static void writeTextsCacheFile(File textsCache, ArrayList<String> textsCacheFilePaths, MiniBatch miniBatch) {
+		String filePath = new File(textsCache, "texts-cache-" + (textsCacheFilePaths.size() + 1) + ".bin").getPath();
+		BinaryCorpusFile.write(filePath, miniBatch);
+		textsCacheFilePaths.add(filePath);
+		new File(filePath).deleteOnExit();
+	}
+	
+	
+	/**
+	 * @return an iterator of the mini-batches of the first M documents of a corpus, 
+	 * which is a PrefetchingMiniBatchIterator unless prefetchQueueDepth is 0 or a binary corpus; 
+	 * binary corpus files are memory-mapped and the mini-batches are views without decoding;
+	 * the documents after the first M are never loaded, so the tokenFilter counts only the sampled documents
+	 */
+	private Iterator<MiniBatch> newMiniBatchIterator(String corpusDirectory, CorpusFormat corpusFormat, int numDocumentsInOneMiniBatch) {
+		switch (corpusFormat) {
+		case BINARY: {
+			final CorpusBinaryIterator iterator = new CorpusBinaryIterator(corpusDirectory, numDocumentsInOneMiniBatch);
+			return new Iterator<MiniBatch>() {
+				private int numRemainingDocuments = M;
+				@Override
+				public boolean hasNext() {
+					return numRemainingDocuments > 0 && iterator.hasNext();
+				}
+				@Override
+				public MiniBatch next() {
+					MiniBatch miniBatch = iterator.next();
+					if (miniBatch.getNumDocuments() > numRemainingDocuments) {
+						miniBatch = miniBatch.head(numRemainingDocuments);
+					}
+					numRemainingDocuments -= miniBatch.getNumDocuments();
+					return (tokenFilter != null) ? tokenFilter.filter(miniBatch) : miniBatch;
+				}
+			};
+		}
+		case BAG_OF_WORDS: {
+			final Iterator<ArrayList<BagOfWordsDocument>> iterator = 
+					limitDocuments(new CorpusBagOfWordsIterator(corpusDirectory, numDocumentsInOneMiniBatch), M);
+			if (prefetchQueueDepth > 0) {
+				return new PrefetchingMiniBatchIterator<ArrayList<BagOfWordsDocument>>(iterator, prefetchQueueDepth) {
+					@Override
+					protected void pack(ArrayList<BagOfWordsDocument> documents, Slot slot) {
+						slot.miniBatch = MiniBatch.packBagOfWords(documents, documents.size(), slot.wordIndicesBuffer, slot.wordFrequenciesBuffer, tokenFilter);
+						slot.wordIndicesBuffer = slot.miniBatch.getDocsWordIndices().array();
+						slot.wordFrequenciesBuffer = slot.miniBatch.getDocsWordFrequencies().array();
+					}
+				};
+			}
+			return new Iterator<MiniBatch>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+				@Override
+				public MiniBatch next() {
+					ArrayList<BagOfWordsDocument> documents = iterator.next();
+					return MiniBatch.packBagOfWords(documents, documents.size(), null, null, tokenFilter);
+				}
+			};
+		}
+		default: {
+			final Iterator<ArrayList<int[]>> iterator = limitDocuments((corpusFormat == CorpusFormat.INTS) ? 
+					new CorpusIntsIterator(corpusDirectory, numDocumentsInOneMiniBatch) : 
+					new CorpusTextsIterator(corpusDirectory, numDocumentsInOneMiniBatch, corpusProcessor), M);
+			if (prefetchQueueDepth > 0) {
+				return new PrefetchingMiniBatchIterator<ArrayList<int[]>>(iterator, prefetchQueueDepth) {
+					@Override
+					protected void pack(ArrayList<int[]> documents, Slot slot) {
+						slot.miniBatch = MiniBatch.pack(documents, documents.size(), slot.wordIndicesBuffer, tokenFilter);
+						slot.wordIndicesBuffer = slot.miniBatch.getDocsWordIndices().array();
+					}
+				};
+			}
+			return new Iterator<MiniBatch>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+				@Override
+				public MiniBatch next() {
+					ArrayList<int[]> documents = iterator.next();
+					return MiniBatch.pack(documents, documents.size(), null, tokenFilter);
+				}
+			};
+		}
+		}
+	}
+	
+	/**
+	 * @return an iterator of the lists of 'iterator' that ends after 'numDocuments' documents, with the last list cut down
+	 */
+	private static <T> Iterator<ArrayList<T>> limitDocuments(final Iterator<ArrayList<T>> iterator, final int numDocuments) {
+		return new Iterator<ArrayList<T>>() {
+			private int numRemainingDocuments = numDocuments;
+			@Override
+			public boolean hasNext() {
+				return numRemainingDocuments > 0 && iterator.hasNext();
+			}
+			@Override
+			public ArrayList<T> next() {
+				ArrayList<T> documents = iterator.next();
+				if (documents.size() > numRemainingDocuments) {
+					documents = new ArrayList<T>(documents.subList(0, numRemainingDocuments));
+				}
+				numRemainingDocuments -= documents.size();
+				return documents;
+			}
+		};
 	}
 
 	
@@ -0,0 +1,687 @@
+package org.linchimin.jcudalda;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <pre>
+ * host (CPU) counterparts of the kernel functions in CudaLDAFunctions.cu;
+ * the mini-batch documents are processed in parallel with a ForkJoinPool
+ *
+ * Matrix layouts:
+ * wpt and phis : K * V matrices stored word by word, i.e. the element of topic k and word v is at [k + v * K],
+ * which is the same column major layout as the device matrices
+ * tpd and thetas : M * K matrices stored document by document, i.e. the element of document m and topic k is at [m * K + k],
+ * so that the K values of a document are contiguous for the sampling loops
+ *
+ * See paper
+ * http://machinelearning.wustl.edu/mlpapers/paper_files/icml2015_tristan15.pdf
+ * "Efficient Training of LDA on a GPU by Mean-for-Mode Estimation"
+ * for notation details.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+class LDAHostUtils {
+
+	/**
+	 * a task of a range of documents is not split further
+	 * when it contains no more than this number of documents
+	 */
+	private static final int DOCUMENTS_GRAIN_SIZE = 16;
+
+	/**
+	 * a task of a range of matrix elements is not split further
+	 * when it contains no more than this number of elements
+	 */
+	private static final int ELEMENTS_GRAIN_SIZE = 1 << 16;
+
+
+	/**
+	 * same as the kernel 'computePhis'
+	 *
+	 * @param wpt : a K * V matrix; words per topic, or counts of words given topics
+	 * @param wt : a K dimension vector, total counts of words given topics
+	 * @param phis : a K * V matrix; probabilities of words given topics
+	 * @param beta : the beta parameter
+	 * @param betaV : beta * V
+	 * @param K : the K parameter
+	 * @param numElements_KxV : K * V
+	 */
+	protected static void computePhis(
+			ForkJoinPool pool,
+			final AtomicIntegerArray wpt,
+			final AtomicIntegerArray wt,
+			final float[] phis,
+			final float beta,
+			final float betaV,
+			final int K,
+			int numElements_KxV) {
+
+		final float[] wtDenominators = new float[K];
+		for (int k = 0; k < K; k++) {
+			wtDenominators[k] = wt.get(k) + betaV;
+		}
+		pool.invoke(new RangeAction(0, numElements_KxV, ELEMENTS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				int k = start % K;
+				for (int i = start; i < end; i++) {
+					phis[i] = (wpt.get(i) + beta) / wtDenominators[k];
+					if (++k == K) {
+						k = 0;
+					}
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * same as the kernel 'computeThetas' except that tpd and thetas are stored document by document
+	 *
+	 * @param tpd : a M * K matrix; topics per documents, or counts of topics given documents
+	 * @param td : a M dimension vector, total counts of topics given documents
+	 * @param thetas : a M * K matrix; probabilities of topics given documents
+	 * @param alpha : the alpha parameter
+	 * @param alphaK : alpha * K
+	 * @param K : the K parameter
+	 * @param numElements_MxK : M * K
+	 */
+	protected static void computeThetas(
+			ForkJoinPool pool,
+			final int[] tpd,
+			final int[] td,
+			final float[] thetas,
+			final float alpha,
+			final float alphaK,
+			final int K,
+			int numElements_MxK) {
+
+		pool.invoke(new RangeAction(0, numElements_MxK, ELEMENTS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				for (int i = start; i < end; i++) {
+					thetas[i] = (tpd[i] + alpha) / (td[i / K] + alphaK);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * <pre>
+	 * draw latent variables for a mini-batch of documents of size 'numDocumentsInOneBatch';
+	 * the same as the kernel 'drawLatentVariables', where each document is drawn with
+	 * a random number generator seeded with its document index as 'curand_init(docIndex, 0, 0, &s)'
+	 *
+	 * wpt[k][v] : words per topic
+	 * wt[k] : total words per topic
+	 * tpd[m][k] : topics per document
+	 * td[m] : total topics per document; as 'td[docIndex] += Nm' of the kernel, all the Nm word indices of a document are counted, 
+	 * including the ones out of [0, V) like the -1 and -2 separators, which are skipped without being sampled
+	 * </pre>
+	 *
+	 * @param docsWordCounts : word counts of documents
+	 * @param docsWordOffsets : word offsets of documents
+	 * @param docsWordIndices : word indices for the current mini-batch of documents
+	 * @param wpt : a K * V matrix; words per topic, or counts of words given topics
+	 * @param wt : a K dimension vector, total counts of words given topics
+	 * @param tpd : a M * K matrix; topics per documents, or counts of topics given documents
+	 * @param td : a M dimension vector, total counts of topics given documents
+	 * @param phis : a K * V matrix; probabilities of words given topics
+	 * @param thetas : a M * K matrix; probabilities of topics given documents
+	 * @param docOffset : document index offset for the input mini-batch
+	 * @param K : number of topics
+	 * @param V : number of vocabulary words
+	 * @param numDocumentsInOneBatch : numer fo documents in the current mini-batch
+	 */
+	protected static void drawLatentVariables(
+			ForkJoinPool pool,
+			final int[] docsWordCounts,
+			final int[] docsWordOffsets,
+			final IntBuffer docsWordIndices,
+			final AtomicIntegerArray wpt,
+			final AtomicIntegerArray wt,
+			final int[] tpd,
+			final int[] td,
+			final float[] phis,
+			final float[] thetas,
+			final int docOffset,
+			final int K,
+			final int V,
+			int numDocumentsInOneBatch) {
+
+		pool.invoke(new RangeAction(0, numDocumentsInOneBatch, DOCUMENTS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				float[] p = new float[K];
+				int[] localWt = new int[K];
+				for (int m = start; m < end; m++) {
+					int Nm = docsWordCounts[m];
+					int docIndex = docOffset + m;
+					int docWordOffset = docsWordOffsets[m];
+					int thetasOffset = docIndex * K;
+
+					SplittableRandom random = new SplittableRandom(docIndex);
+
+					for (int i = 0; i < Nm; i++) {
+						int c_word = docsWordIndices.get(docWordOffset + i);
+						if (c_word < 0 || c_word >= V){
+							continue;
+						}
+						int phisOffset = c_word * K;
+						float sum = 0;
+						int j;
+						for (j = 0; j < K; j++) {
+							sum += phis[j + phisOffset] * thetas[j + thetasOffset];
+							p[j] = sum;
+						}
+						float stop = (float) random.nextDouble() * sum;
+						for (j = 0; j < K; j++) {
+							if (stop < p[j]) {
+								break;
+							}
+						}
+						if (j == K){
+							j--;
+						}
+
+						wpt.getAndIncrement(j + phisOffset);
+						localWt[j]++;
+						tpd[j + thetasOffset]++;
+					}
+					td[docIndex] += Nm;
+				}
+				addAll(wt, localWt);
+			}
+		});
+	}
+
+
+	/**
+	 * <pre>
+	 * Similar to 'drawLatentVariables' except that the phis matrix is kept fixed,
+	 * and wpt and wt are not needed to be updated; the same as the kernel 'drawLatentVariablesForTesting'
+	 * </pre>
+	 * @see drawLatentVariables
+	 */
+	protected static void drawLatentVariablesForTesting(
+			ForkJoinPool pool,
+			final int[] docsWordCounts,
+			final int[] docsWordOffsets,
+			final IntBuffer docsWordIndices,
+			final int[] tpd,
+			final int[] td,
+			final float[] phis,
+			final float[] thetas,
+			final int docOffset,
+			final int K,
+			final int V,
+			int numDocumentsInOneBatch) {
+
+		pool.invoke(new RangeAction(0, numDocumentsInOneBatch, DOCUMENTS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				float[] p = new float[K];
+				for (int m = start; m < end; m++) {
+					int Nm = docsWordCounts[m];
+					int docIndex = docOffset + m;
+					int docWordOffset = docsWordOffsets[m];
+					int thetasOffset = docIndex * K;
+
+					SplittableRandom random = new SplittableRandom(docIndex);
+
+					for (int i = 0; i < Nm; i++) {
+						int c_word = docsWordIndices.get(docWordOffset + i);
+						if (c_word < 0 || c_word >= V){
+							continue;
+						}
+						int phisOffset = c_word * K;
+						float sum = 0;
+						int j;
+						for (j = 0; j < K; j++) {
+							sum += phis[j + phisOffset] * thetas[j + thetasOffset];
+							p[j] = sum;
+						}
+						float stop = (float) random.nextDouble() * sum;
+						for (j = 0; j < K; j++) {
+							if (stop < p[j]) {
+								break;
+							}
+						}
+						if (j == K){
+							j--;
+						}
+						tpd[j + thetasOffset]++;
+					}
+					td[docIndex] += Nm;
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * <pre>
+	 * Similar to 'drawLatentVariables' except that the words of each document are grouped into (word, count) pairs;
+	 * since phis and thetas are fixed within an iteration, all occurrences of a word in a document are drawn from
+	 * the same distribution, so the prefix sums over K topics are computed once per pair, and
+	 * the topics of the 'count' occurrences are drawn with binary searches on them.
+	 *
+	 * Also serves as 'drawLatentVariablesForTesting' when wpt and wt are null.
+	 * </pre>
+	 * @param docsWordFrequencies : null, or the frequencies of docsWordIndices of a bag-of-words mini-batch,
+	 * in which case the word indices of a document are used as the pairs without grouping
+	 * @see drawLatentVariables
+	 */
+	protected static void drawLatentVariablesGrouped(
+			ForkJoinPool pool,
+			final int[] docsWordCounts,
+			final int[] docsWordOffsets,
+			final IntBuffer docsWordIndices,
+			final IntBuffer docsWordFrequencies,
+			final AtomicIntegerArray wpt,
+			final AtomicIntegerArray wt,
+			final int[] tpd,
+			final int[] td,
+			final float[] phis,
+			final float[] thetas,
+			final int docOffset,
+			final int K,
+			final int V,
+			int numDocumentsInOneBatch) {
+
+		pool.invoke(new RangeAction(0, numDocumentsInOneBatch, DOCUMENTS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				float[] p = new float[K];
+				int[] localWt = new int[K];
+				int[] pairWords = new int[256];
+				int[] pairCounts = new int[256];
+				for (int m = start; m < end; m++) {
+					int Nm = docsWordCounts[m];
+					int docIndex = docOffset + m;
+					int docWordOffset = docsWordOffsets[m];
+					int thetasOffset = docIndex * K;
+
+					SplittableRandom random = new SplittableRandom(docIndex);
+
+					if (pairWords.length < Nm) {
+						pairWords = new int[Math.max(Nm, pairWords.length * 2)];
+						pairCounts = new int[pairWords.length];
+					}
+
+					/**
+					 * the (word, count) pairs of valid word indices of the document
+					 */
+					int numPairs = groupWords(docsWordIndices, docsWordFrequencies, docWordOffset, Nm, V, pairWords, pairCounts);
+
+					for (int pair = 0; pair < numPairs; pair++) {
+						int c_word = pairWords[pair];
+						int count = pairCounts[pair];
+
+						int phisOffset = c_word * K;
+						float sum = 0;
+						for (int j = 0; j < K; j++) {
+							sum += phis[j + phisOffset] * thetas[j + thetasOffset];
+							p[j] = sum;
+						}
+						for (int c = 0; c < count; c++) {
+							float stop = (float) random.nextDouble() * sum;
+							int j = upperBound(p, K, stop);
+							if (wpt != null) {
+								wpt.getAndIncrement(j + phisOffset);
+								localWt[j]++;
+							}
+							tpd[j + thetasOffset]++;
+						}
+					}
+					td[docIndex] += countTokens(docsWordFrequencies, docWordOffset, Nm);
+				}
+				if (wt != null) {
+					addAll(wt, localWt);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * <pre>
+	 * inference of the topics of a mini-batch of documents with fixed phis; the same results as
+	 * 'computeThetas' of zero counts followed by 'numIterations' times of 
+	 * 'drawLatentVariablesForTesting', or 'drawLatentVariablesGrouped' without wpt and wt if 'isGrouped', and 'computeThetas'.
+	 * 
+	 * Given phis, the documents are independent of each other, so a task runs all the iterations of its documents
+	 * one document after another by 'inferDocument'; 
+	 * a mini-batch takes one pass over the pool instead of two passes per iteration.
+	 * </pre>
+	 * @param docsWordFrequencies : null, or the frequencies of docsWordIndices of a bag-of-words mini-batch, which requires 'isGrouped'
+	 * @param phis : a K * V matrix stored word by word
+	 * @param thetas : receives the K probabilities of topics of the m-th document at [thetasOffset + m * K + k]
+	 */
+	protected static void inferTopics(
+			ForkJoinPool pool,
+			final int[] docsWordCounts,
+			final int[] docsWordOffsets,
+			final IntBuffer docsWordIndices,
+			final IntBuffer docsWordFrequencies,
+			final boolean isGrouped,
+			final float[] phis,
+			final float alpha,
+			final int numIterations,
+			final int K,
+			final int V,
+			int numDocumentsInOneBatch,
+			final float[] thetas,
+			final int thetasOffset) {
+
+		if (docsWordFrequencies != null && isGrouped == false) {
+			throw new IllegalArgumentException("IllegalArgumentException: a bag-of-words mini-batch is inferred only if grouped");
+		}
+		pool.invoke(new RangeAction(0, numDocumentsInOneBatch, DOCUMENTS_GRAIN_SIZE) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void computeRange(int start, int end) {
+				InferenceScratch scratch = new InferenceScratch(K);
+				for (int m = start; m < end; m++) {
+					inferDocument(docsWordCounts, docsWordOffsets, docsWordIndices, docsWordFrequencies, isGrouped, 
+							phis, alpha, numIterations, K, V, m, thetas, thetasOffset + m * K, scratch);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * the arrays of 'inferDocument', reused across documents and calls by one thread at a time
+	 */
+	static final class InferenceScratch {
+
+		private final float[] p;
+
+		private final int[] tpd;
+
+		/**
+		 * the (word, count) pairs if grouped, otherwise the valid word indices in the order of the document
+		 */
+		private int[] words = new int[256];
+		private int[] counts = new int[256];
+
+		InferenceScratch(int K) {
+			this.p = new float[K];
+			this.tpd = new int[K];
+		}
+
+		private void ensureCapacity(int numWords) {
+			if (words.length < numWords) {
+				words = new int[Math.max(numWords, words.length * 2)];
+				counts = new int[words.length];
+			}
+		}
+	}
+
+
+	/**
+	 * infer the topics of the m-th document of a mini-batch, with the counts and thetas of the document 
+	 * in arrays of K elements, and its valid word indices collected, or grouped, once instead of in every iteration;
+	 * the thetas are normalized over all the tokens of the document as td of 'drawLatentVariablesForTesting', sampled or not
+	 * 
+	 * @param thetas : receives the K probabilities of topics of the document at [thetasOffset + k], 
+	 * which also hold the thetas of the previous iteration
+	 * @see inferTopics
+	 */
+	protected static void inferDocument(
+			int[] docsWordCounts,
+			int[] docsWordOffsets,
+			IntBuffer docsWordIndices,
+			IntBuffer docsWordFrequencies,
+			boolean isGrouped,
+			float[] phis,
+			float alpha,
+			int numIterations,
+			int K,
+			int V,
+			int m,
+			float[] thetas,
+			int thetasOffset,
+			InferenceScratch scratch) {
+
+		int Nm = docsWordCounts[m];
+		int docWordOffset = docsWordOffsets[m];
+		scratch.ensureCapacity(Nm);
+		float[] p = scratch.p;
+		int[] tpd = scratch.tpd;
+		int[] words = scratch.words;
+		int[] counts = scratch.counts;
+
+		int numWords = 0;
+		int numTokens = countTokens(docsWordFrequencies, docWordOffset, Nm);
+		if (isGrouped) {
+			numWords = groupWords(docsWordIndices, docsWordFrequencies, docWordOffset, Nm, V, words, counts);
+		} else {
+			for (int i = 0; i < Nm; i++) {
+				int c_word = docsWordIndices.get(docWordOffset + i);
+				if (c_word >= 0 && c_word < V){
+					words[numWords++] = c_word;
+				}
+			}
+		}
+
+		float alphaK = alpha * K;
+		Arrays.fill(thetas, thetasOffset, thetasOffset + K, alpha / alphaK);
+		for (int iteration = 0; iteration < numIterations; iteration++) {
+			Arrays.fill(tpd, 0);
+			long seed = m;
+			for (int w = 0; w < numWords; w++) {
+				int phisOffset = words[w] * K;
+				float sum = 0;
+				int j;
+				for (j = 0; j < K; j++) {
+					sum += phis[j + phisOffset] * thetas[j + thetasOffset];
+					p[j] = sum;
+				}
+				if (isGrouped) {
+					for (int c = 0; c < counts[w]; c++) {
+						seed += GOLDEN_GAMMA;
+						float stop = (float) toUniformDouble(seed) * sum;
+						tpd[upperBound(p, K, stop)]++;
+					}
+					continue;
+				}
+				seed += GOLDEN_GAMMA;
+				float stop = (float) toUniformDouble(seed) * sum;
+				for (j = 0; j < K; j++) {
+					if (stop < p[j]) {
+						break;
+					}
+				}
+				if (j == K){
+					j--;
+				}
+				tpd[j]++;
+			}
+			for (int k = 0; k < K; k++) {
+				thetas[k + thetasOffset] = (tpd[k] + alpha) / (numTokens + alphaK);
+			}
+		}
+	}
+
+
+	/**
+	 * the increment of the seeds of SplittableRandom
+	 */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/**
+	 * the finalizer of SplittableRandom.nextDouble; a seed of 'docIndex' advanced by GOLDEN_GAMMA before each call 
+	 * draws the same numbers as 'new SplittableRandom(docIndex).nextDouble()', without a generator object per document and iteration
+	 */
+	private static double toUniformDouble(long seed) {
+		long z = seed;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return ((z ^ (z >>> 31)) >>> 11) * 0x1.0p-53;
+	}
+
+
+	/**
+	 * @return number of tokens of a document, i.e. 'Nm' or the sum of its frequencies, including the word indices out of [0, V) 
+	 * like the -1 and -2 separators, which are not sampled but counted in td as 'td[docIndex] += Nm' of the kernels
+	 */
+	static int countTokens(IntBuffer docsWordFrequencies, int docWordOffset, int Nm) {
+		if (docsWordFrequencies == null) {
+			return Nm;
+		}
+		int numTokens = 0;
+		for (int i = 0; i < Nm; i++) {
+			numTokens += docsWordFrequencies.get(docWordOffset + i);
+		}
+		return numTokens;
+	}
+
+
+	/**
+	 * put the (word, count) pairs of the valid word indices of a document to 'pairWords' and 'pairCounts', 
+	 * which have at least 'Nm' elements: the sorted distinct word indices and their numbers of occurrences, 
+	 * or the word indices and their frequencies of a bag-of-words document if 'docsWordFrequencies' is not null 
+	 * @return number of pairs
+	 */
+	private static int groupWords(IntBuffer docsWordIndices, IntBuffer docsWordFrequencies, int docWordOffset, int Nm, int V, 
+			int[] pairWords, int[] pairCounts) {
+		int numPairs = 0;
+		if (docsWordFrequencies == null) {
+			int numValidWords = 0;
+			for (int i = 0; i < Nm; i++) {
+				int c_word = docsWordIndices.get(docWordOffset + i);
+				if (c_word >= 0 && c_word < V){
+					pairWords[numValidWords++] = c_word;
+				}
+			}
+			Arrays.sort(pairWords, 0, numValidWords);
+			for (int i = 0; i < numValidWords; i++) {
+				if (numPairs > 0 && pairWords[i] == pairWords[numPairs - 1]) {
+					pairCounts[numPairs - 1]++;
+				} else {
+					pairWords[numPairs] = pairWords[i];
+					pairCounts[numPairs++] = 1;
+				}
+			}
+		} else {
+			for (int i = 0; i < Nm; i++) {
+				int c_word = docsWordIndices.get(docWordOffset + i);
+				if (c_word >= 0 && c_word < V){
+					pairWords[numPairs] = c_word;
+					pairCounts[numPairs++] = docsWordFrequencies.get(docWordOffset + i);
+				}
+			}
+		}
+		return numPairs;
+	}
+
+
+	/**
+	 * @param p : non-decreasing prefix sums
+	 * @return the first j < K with stop < p[j], or K - 1 if there is none, the same as the linear scans of the samplers
+	 */
+	private static int upperBound(float[] p, int K, float stop) {
+		int low = 0;
+		int high = K - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (stop < p[middle]) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+
+	/**
+	 * add 'values' to 'sums' element by element
+	 */
+	private static void addAll(AtomicIntegerArray sums, int[] values) {
+		for (int k = 0; k < values.length; k++) {
+			if (values[k] != 0) {
+				sums.getAndAdd(k, values[k]);
+			}
+		}
+	}
+
+
+	/**
+	 * set all elements of 'array' to 'value'
+	 */
+	protected static void setElements(AtomicIntegerArray array, int value) {
+		final int length = array.length();
+		for (int i = 0; i < length; i++) {
+			array.set(i, value);
+		}
+	}
+
+
+	/**
+	 * a task over the index range [start, end) which is split in halves
+	 * until a range contains no more than 'grainSize' indices
+	 */
+	protected static abstract class RangeAction extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int start;
+		private final int end;
+		private final int grainSize;
+
+		protected RangeAction(int start, int end, int grainSize) {
+			this.start = start;
+			this.end = end;
+			this.grainSize = grainSize;
+		}
+
+		protected abstract void computeRange(int start, int end);
+
+		@Override
+		protected final void compute() {
+			computeSplitting(start, end);
+		}
+
+		private void computeSplitting(int start, int end) {
+			if (end - start <= grainSize) {
+				computeRange(start, end);
+				return;
+			}
+			final int middle = (start + end) >>> 1;
+			final RangeAction self = this;
+			RecursiveAction left = new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected void compute() {
+					self.computeSplitting(start, middle);
+				}
+			};
+			left.fork();
+			computeSplitting(middle, end);
+			left.join();
+		}
+	}
+
+}
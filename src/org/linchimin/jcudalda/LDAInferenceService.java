@@ -0,0 +1,386 @@
+package org.linchimin.jcudalda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <pre>
+ * an embeddable service of topic vectors for many single texts, like the requests of a web service:
+ *
+ * 1. 'submit' queues a text and returns a CompletableFuture of its topic vector;
+ * 2. a worker thread takes the first queued text and collects more until it has 'maxBatchSize' texts,
+ * or 'maxWaitMillis' has passed since the first text was submitted, and infers them as one batch
+ * with an LDAInferenceSession of its own, so a single text pays a share of the fixed cost of a call
+ * instead of all of it, and waits at most 'maxWaitMillis' plus the inference of a batch;
+ * 3. 'startHttpServer' exposes POST /topics on the loopback address with the JDK's built-in HTTP server:
+ * the body is a UTF-8 text, and the response is its topic vector as a JSON array.
+ *
+ * A document is sampled with a seed of its index in a batch,
+ * so the topic vector of a text varies a little with the batch it happens to be in, like any other sample.
+ * With the host backend, more worker threads infer batches in parallel, since a batch of fewer than 64 texts
+ * is inferred on its worker thread; with the CUDA backend, one worker suffices, as the kernels are serialized anyway.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public class LDAInferenceService {
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+	public static final float DEFAULT_MAX_WAIT_MILLIS = 2;
+
+	/**
+	 * 'submit' rejects a text when this number of batches of texts are queued
+	 */
+	private static final int MAX_QUEUED_BATCHES = 64;
+
+	/**
+	 * threads of the HTTP server, each of which waits for the topic vector of one request at a time
+	 */
+	private static final int NUM_HTTP_THREADS = 64;
+
+	/**
+	 * an HTTP request waits at most this number of milliseconds for its topic vector, and is answered 503 afterwards
+	 */
+	private static final long HTTP_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * the bodies of HTTP requests are at most this number of bytes, and are answered 413 otherwise
+	 */
+	private static final int MAX_HTTP_BODY_BYTES = 1 << 20;
+
+	private final LDAModel model;
+
+	private final int maxBatchSize;
+
+	private final long maxWaitNanos;
+
+	private final LinkedBlockingQueue<Request> queue;
+
+	private final Thread[] workers;
+
+	private final AtomicLong numBatches = new AtomicLong();
+
+	private final AtomicLong numTexts = new AtomicLong();
+
+	private volatile boolean closed;
+
+	private HttpServer httpServer;
+
+	private ExecutorService httpExecutor;
+
+
+	/**
+	 * a service of DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WAIT_MILLIS, and one worker thread
+	 */
+	public LDAInferenceService(LDAModel model) {
+		this(model, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WAIT_MILLIS, 1);
+	}
+
+	/**
+	 * @param maxBatchSize : a batch is inferred once it has this number of texts
+	 * @param maxWaitMillis : or once this number of milliseconds has passed since its first text was submitted
+	 * @param numWorkers : number of threads that infer batches, each with an LDAInferenceSession
+	 */
+	public LDAInferenceService(LDAModel model, int maxBatchSize, float maxWaitMillis, int numWorkers) {
+		if (maxBatchSize <= 0 || maxWaitMillis < 0 || numWorkers <= 0) {
+			throw new IllegalArgumentException("IllegalArgumentException: maxBatchSize = " + maxBatchSize
+					+ ", maxWaitMillis = " + maxWaitMillis + ", numWorkers = " + numWorkers);
+		}
+		this.model = model;
+		this.maxBatchSize = maxBatchSize;
+		this.maxWaitNanos = (long) (maxWaitMillis * 1e6);
+		this.queue = new LinkedBlockingQueue<Request>(MAX_QUEUED_BATCHES * maxBatchSize);
+		this.workers = new Thread[numWorkers];
+		for (int i = 0; i < numWorkers; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runWorker();
+				}
+			}, "LDAInferenceService-worker-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+
+	/**
+	 * @return the future of the topic vector of 'text', completed exceptionally with an IllegalStateException
+	 * if the service is closed or too many texts are queued
+	 */
+	public CompletableFuture<float[]> submit(String text) {
+		Request request = new Request(text);
+		if (closed) {
+			request.future.completeExceptionally(new IllegalStateException("IllegalStateException: the service is closed"));
+		} else if (queue.offer(request) == false) {
+			request.future.completeExceptionally(new IllegalStateException("IllegalStateException: " + queue.size() + " texts are queued"));
+		} else if (closed && queue.remove(request)) {
+			request.future.completeExceptionally(new IllegalStateException("IllegalStateException: the service is closed"));
+		}
+		return request.future;
+	}
+
+
+	private void runWorker() {
+		LDAInferenceSession session = null;
+		ArrayList<Request> batch = new ArrayList<Request>(maxBatchSize);
+		ArrayList<String> texts = new ArrayList<String>(maxBatchSize);
+		try {
+			session = model.newInferenceSession();
+			while (true) {
+				Request first = queue.take();
+				batch.add(first);
+				long deadline = first.submitNanos + maxWaitNanos;
+				while (batch.size() < maxBatchSize) {
+					Request request = queue.poll();
+					if (request == null) {
+						long remainingNanos = deadline - System.nanoTime();
+						if (remainingNanos <= 0) {
+							break;
+						}
+						request = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+						if (request == null) {
+							break;
+						}
+					}
+					batch.add(request);
+				}
+				inferBatch(session, batch, texts);
+				batch.clear();
+				texts.clear();
+			}
+		} catch (InterruptedException e) {
+			for (Request request : batch) {
+				request.future.completeExceptionally(new IllegalStateException("IllegalStateException: the service is closed"));
+			}
+		} catch (Throwable e) {
+			fail(batch, new IllegalStateException("IllegalStateException: a worker of the service failed; the service is closed", e));
+		} finally {
+			if (session != null) {
+				session.free();
+			}
+		}
+	}
+
+	/**
+	 * close the service for a failed worker, e.g. one whose session cannot be allocated on the device,
+	 * so the futures of 'batch' and the queued texts complete with 'cause' instead of never
+	 */
+	private void fail(ArrayList<Request> batch, IllegalStateException cause) {
+		closed = true;
+		System.err.println("LDAInferenceService " + Thread.currentThread().getName() + ": " + cause.getCause());
+		for (Request request : batch) {
+			request.future.completeExceptionally(cause);
+		}
+		Request request;
+		while ((request = queue.poll()) != null) {
+			request.future.completeExceptionally(cause);
+		}
+	}
+
+	private void inferBatch(LDAInferenceSession session, ArrayList<Request> batch, ArrayList<String> texts) {
+		int M = batch.size();
+		float[][] topicVectors = new float[M][session.getK()];
+		try {
+			for (Request request : batch) {
+				texts.add(request.text);
+			}
+			session.inferTopics(texts, topicVectors);
+		} catch (Throwable e) {
+			for (Request request : batch) {
+				request.future.completeExceptionally(e);
+			}
+			return;
+		}
+		numBatches.incrementAndGet();
+		numTexts.addAndGet(M);
+		for (int m = 0; m < M; m++) {
+			batch.get(m).future.complete(topicVectors[m]);
+		}
+	}
+
+
+	/**
+	 * <pre>
+	 * start an HTTP server of POST /topics on the loopback address:
+	 * the body of a request is a UTF-8 text, and the response is its topic vector as a JSON array like [0.012,0.3,...];
+	 * 503 if the text is rejected by 'submit' or not inferred in HTTP_TIMEOUT_MILLIS, 
+	 * 413 for a body of more than MAX_HTTP_BODY_BYTES, and 405 for other methods.
+	 * </pre>
+	 * @param port : the port, or 0 for any free port
+	 * @return the port of the server
+	 */
+	public synchronized int startHttpServer(int port) throws IOException {
+		if (httpServer != null) {
+			throw new IllegalStateException("IllegalStateException: the HTTP server is started on port " + httpServer.getAddress().getPort());
+		}
+		httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext("/topics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handleTopics(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		final AtomicInteger numThreads = new AtomicInteger();
+		httpExecutor = Executors.newFixedThreadPool(NUM_HTTP_THREADS, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "LDAInferenceService-http-" + numThreads.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		httpServer.setExecutor(httpExecutor);
+		httpServer.start();
+		return httpServer.getAddress().getPort();
+	}
+
+	private void handleTopics(HttpExchange exchange) throws IOException {
+		if ("POST".equals(exchange.getRequestMethod()) == false) {
+			sendResponse(exchange, 405, "only POST is supported");
+			return;
+		}
+		byte[] body = readFully(exchange.getRequestBody(), MAX_HTTP_BODY_BYTES);
+		if (body == null) {
+			sendResponse(exchange, 413, "the body is more than " + MAX_HTTP_BODY_BYTES + " bytes");
+			return;
+		}
+		String text = new String(body, StandardCharsets.UTF_8);
+		float[] topicVector;
+		try {
+			topicVector = submit(text).get(HTTP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			sendResponse(exchange, 503, "not inferred in " + HTTP_TIMEOUT_MILLIS + " milliseconds");
+			return;
+		} catch (ExecutionException e) {
+			boolean isRejected = (e.getCause() instanceof IllegalStateException);
+			sendResponse(exchange, isRejected ? 503 : 500, String.valueOf(e.getCause().getMessage()));
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			sendResponse(exchange, 503, "interrupted");
+			return;
+		}
+		StringBuilder builder = new StringBuilder(topicVector.length * 12);
+		builder.append('[');
+		for (int k = 0; k < topicVector.length; k++) {
+			if (k > 0) {
+				builder.append(',');
+			}
+			builder.append(topicVector[k]);
+		}
+		builder.append(']');
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		sendResponse(exchange, 200, builder.toString());
+	}
+
+	private static void sendResponse(HttpExchange exchange, int statusCode, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(statusCode, bytes.length);
+		OutputStream outputStream = exchange.getResponseBody();
+		outputStream.write(bytes);
+		outputStream.close();
+	}
+
+	/**
+	 * @return the bytes of 'inputStream', or null if more than 'maxNumBytes'
+	 */
+	private static byte[] readFully(InputStream inputStream, int maxNumBytes) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			if (outputStream.size() + read > maxNumBytes) {
+				return null;
+			}
+			outputStream.write(buffer, 0, read);
+		}
+		return outputStream.toByteArray();
+	}
+
+
+	/**
+	 * number of inferred batches so far
+	 */
+	public long getNumBatches() {
+		return numBatches.get();
+	}
+
+	/**
+	 * number of texts of the inferred batches so far
+	 */
+	public long getNumTexts() {
+		return numTexts.get();
+	}
+
+
+	/**
+	 * stop the HTTP server and the worker threads, and complete the futures of the queued texts exceptionally;
+	 * the model is not freed
+	 */
+	public synchronized void close() {
+		closed = true;
+		if (httpServer != null) {
+			httpServer.stop(0);
+			httpExecutor.shutdownNow();
+			httpServer = null;
+		}
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		Request request;
+		while ((request = queue.poll()) != null) {
+			request.future.completeExceptionally(new IllegalStateException("IllegalStateException: the service is closed"));
+		}
+	}
+
+
+
+	private static class Request {
+
+		private final String text;
+
+		private final long submitNanos = System.nanoTime();
+
+		private final CompletableFuture<float[]> future = new CompletableFuture<float[]>();
+
+		private Request(String text) {
+			this.text = text;
+		}
+	}
+
+}
@@ -0,0 +1,256 @@
+package org.linchimin.jcudalda;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * <pre>
+ * inference of topic vectors with an LDAModel, whose workspaces are reused across calls:
+ * the packed word indices of the documents, the topic vectors, and the workspaces of an LDABackend.InferenceSession,
+ * like the device matrices of the CUDA backend, all of which only grow;
+ * the results are put to arrays or a FloatBuffer of the caller.
+ *
+ * Once the workspaces fit the largest call, the calls with word indices allocate no memory;
+ * the calls with texts only allocate a String for a token with a period appended by the abbreviation rule.
+ *
+ * Create one by LDAModel.newInferenceSession; a session is used by one thread at a time,
+ * and 'free' releases its workspaces when done.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public class LDAInferenceSession {
+
+	private final LDABackend.InferenceSession session;
+
+	private final CorpusProcessor corpusProcessor;
+
+	/**
+	 * number of topics
+	 */
+	private final int K;
+
+	private final float alpha;
+
+	private final int numIterations;
+
+	private int[] docsWordCounts = new int[16];
+	private int[] docsWordOffsets = new int[17];
+	private int[] docsWordIndices = new int[1024];
+
+	/**
+	 * a view of docsWordIndices
+	 */
+	private IntBuffer docsWordIndicesBuffer = IntBuffer.wrap(docsWordIndices);
+
+	/**
+	 * the topic vectors of the documents, K floats per document, unless inferred to the array of the caller directly
+	 */
+	private float[] thetas;
+
+
+	LDAInferenceSession(LDABackend.InferenceSession session, CorpusProcessor corpusProcessor, int K, float alpha, int numIterations) {
+		this.session = session;
+		this.corpusProcessor = corpusProcessor;
+		this.K = K;
+		this.alpha = alpha;
+		this.numIterations = numIterations;
+		this.thetas = new float[16 * K];
+	}
+
+
+	/**
+	 * @return number of topics, i.e. the length of a topic vector
+	 */
+	public int getK() {
+		return K;
+	}
+
+
+	/**
+	 * @param textsWordIndices : the word indices of texts
+	 * @param result : result[m] receives the topic vector of textsWordIndices[m] in its first K elements
+	 */
+	public void inferTopics(int[][] textsWordIndices, float[][] result) {
+		int M = packWordIndices(textsWordIndices);
+		inferPacked(M, result);
+	}
+
+	/**
+	 * @param result : receives the topic vector of textsWordIndices[m] at [resultOffset + m * K, resultOffset + (m + 1) * K)
+	 */
+	public void inferTopics(int[][] textsWordIndices, float[] result, int resultOffset) {
+		int M = packWordIndices(textsWordIndices);
+		checkResultLength(result.length - resultOffset, M);
+		session.inferTopics(docsWordCounts, docsWordOffsets, docsWordIndicesBuffer, M, alpha, numIterations, result, resultOffset);
+	}
+
+	/**
+	 * @param result : receives the topic vectors of the texts one after another from its position, which is advanced by M * K
+	 */
+	public void inferTopics(int[][] textsWordIndices, FloatBuffer result) {
+		int M = packWordIndices(textsWordIndices);
+		inferPacked(M, result);
+	}
+
+	/**
+	 * @param texts : English texts, tokenized the same as LDAModel.inferTopics(Collection&lt;String&gt;)
+	 * @param result : result[m] receives the topic vector of texts.get(m) in its first K elements
+	 */
+	public void inferTopics(List<? extends CharSequence> texts, float[][] result) {
+		int M = packTexts(texts);
+		inferPacked(M, result);
+	}
+
+	/**
+	 * @param result : receives the topic vectors of the texts one after another from its position, which is advanced by M * K
+	 */
+	public void inferTopics(List<? extends CharSequence> texts, FloatBuffer result) {
+		int M = packTexts(texts);
+		inferPacked(M, result);
+	}
+
+	/**
+	 * @param result : receives the topic vector of 'text' in its first K elements
+	 * @return 'result'
+	 */
+	public float[] inferTopics(CharSequence text, float[] result) {
+		checkResultLength(result.length, 1);
+		ensureDocumentsCapacity(1);
+		int numWords = lookupTextWordIndices(text, 0);
+		docsWordCounts[0] = numWords;
+		docsWordOffsets[0] = 0;
+		docsWordOffsets[1] = numWords;
+		session.inferTopics(docsWordCounts, docsWordOffsets, docsWordIndicesBuffer, 1, alpha, numIterations, result, 0);
+		return result;
+	}
+
+
+	/**
+	 * release the workspaces of the backend; the session is not used afterwards
+	 */
+	public void free() {
+		session.free();
+	}
+
+
+
+	private void inferPacked(int M, float[][] result) {
+		if (result.length < M) {
+			throw new IllegalArgumentException("IllegalArgumentException: result.length = " + result.length + " < number of texts " + M);
+		}
+		ensureThetasCapacity(M);
+		session.inferTopics(docsWordCounts, docsWordOffsets, docsWordIndicesBuffer, M, alpha, numIterations, thetas, 0);
+		for (int m = 0; m < M; m++) {
+			if (result[m].length < K) {
+				throw new IllegalArgumentException("IllegalArgumentException: result[" + m + "].length = " + result[m].length + " < K = " + K);
+			}
+			System.arraycopy(thetas, m * K, result[m], 0, K);
+		}
+	}
+
+	private void inferPacked(int M, FloatBuffer result) {
+		checkResultLength(result.remaining(), M);
+		if (result.hasArray()) {
+			session.inferTopics(docsWordCounts, docsWordOffsets, docsWordIndicesBuffer, M, alpha, numIterations,
+					result.array(), result.arrayOffset() + result.position());
+			result.position(result.position() + M * K);
+			return;
+		}
+		ensureThetasCapacity(M);
+		session.inferTopics(docsWordCounts, docsWordOffsets, docsWordIndicesBuffer, M, alpha, numIterations, thetas, 0);
+		result.put(thetas, 0, M * K);
+	}
+
+	private void checkResultLength(int length, int M) {
+		if (length < (long) M * K) {
+			throw new IllegalArgumentException("IllegalArgumentException: the result has room for " + length + " floats < "
+					+ M + " texts * K = " + ((long) M * K));
+		}
+	}
+
+
+	/**
+	 * pack the word indices of the texts to docsWordCounts, docsWordOffsets, and docsWordIndices
+	 * @return number of texts
+	 */
+	private int packWordIndices(int[][] textsWordIndices) {
+		int M = textsWordIndices.length;
+		ensureDocumentsCapacity(M);
+		int numWords = 0;
+		for (int m = 0; m < M; m++) {
+			numWords += textsWordIndices[m].length;
+		}
+		ensureWordsCapacity(numWords);
+		int offset = 0;
+		for (int m = 0; m < M; m++) {
+			int[] wordIndices = textsWordIndices[m];
+			System.arraycopy(wordIndices, 0, docsWordIndices, offset, wordIndices.length);
+			docsWordCounts[m] = wordIndices.length;
+			docsWordOffsets[m] = offset;
+			offset += wordIndices.length;
+		}
+		docsWordOffsets[M] = offset;
+		return M;
+	}
+
+	/**
+	 * @return number of texts
+	 */
+	private int packTexts(List<? extends CharSequence> texts) {
+		int M = texts.size();
+		ensureDocumentsCapacity(M);
+		int offset = 0;
+		for (int m = 0; m < M; m++) {
+			int numWords = lookupTextWordIndices(texts.get(m), offset);
+			docsWordCounts[m] = numWords;
+			docsWordOffsets[m] = offset;
+			offset += numWords;
+		}
+		docsWordOffsets[M] = offset;
+		return M;
+	}
+
+	/**
+	 * put the word indices of 'text' to docsWordIndices from 'offset', which grows if too small
+	 * @return number of word indices
+	 */
+	private int lookupTextWordIndices(CharSequence text, int offset) {
+		int numWords = corpusProcessor.lookupTextWordIndices(text, docsWordIndices, offset);
+		if (numWords > docsWordIndices.length - offset) {
+			ensureWordsCapacity(offset + numWords);
+			corpusProcessor.lookupTextWordIndices(text, docsWordIndices, offset);
+		}
+		return numWords;
+	}
+
+
+	private void ensureDocumentsCapacity(int M) {
+		if (docsWordCounts.length < M) {
+			int capacity = Math.max(M, docsWordCounts.length * 2);
+			docsWordCounts = new int[capacity];
+			docsWordOffsets = new int[capacity + 1];
+		}
+	}
+
+	/**
+	 * grow docsWordIndices to at least 'numWords' elements, keeping its elements
+	 */
+	private void ensureWordsCapacity(int numWords) {
+		if (docsWordIndices.length < numWords) {
+			int[] newWordIndices = new int[(int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) numWords, docsWordIndices.length * 2L))];
+			System.arraycopy(docsWordIndices, 0, newWordIndices, 0, docsWordIndices.length);
+			docsWordIndices = newWordIndices;
+			docsWordIndicesBuffer = IntBuffer.wrap(docsWordIndices);
+		}
+	}
+
+	private void ensureThetasCapacity(int M) {
+		if (thetas.length < M * K) {
+			thetas = new float[Math.max(M * K, thetas.length * 2)];
+		}
+	}
+
+}
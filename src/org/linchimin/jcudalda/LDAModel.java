@@ -1,16 +1,15 @@
 package org.linchimin.jcudalda;
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.ejml_float.simple.SimpleFloatMatrix;
-import org.linchimin.common.Dictionary;
-import org.linchimin.jcuda.utils.CudaIntsMatrix;
-import org.linchimin.jcuda.utils.CudaMatrix;
-import org.linchimin.jcuda.utils.JCudaManager;
+import org.linchimin.common.Vocabulary;
 
 import gnu.trove.TIntArrayList;
 
@@ -24,6 +23,11 @@ import gnu.trove.TIntArrayList;
  * 1. Use LDAGPUTrainer to train an LDAModel; see TrainAndUseExamples.java for examples
  * 2. Call method 'inferTopics' for efficient parallel inference of topic vectors 
  * for a collection of texts 
+ * 3. Without a graphic card, LDABackends.getDefault() falls back to HostLDABackend, 
+ * which infers the documents of a call in parallel with a ForkJoinPool
+ * 4. A model is shared by many threads: the phis and the vocabulary are read-only, 
+ * and each concurrent call of 'inferTopics' runs with an InferenceSession of its own, 
+ * taken from the idle sessions of the model and returned after the call
  * 
  * </pre>
  * @author Lin Chi-Min (v381654729@gmail.com)
@@ -35,45 +39,91 @@ public class LDAModel {
 	private static final float DEFAULT_ALPHA_FOR_INFERENCE = 0.05f;
 	
 	/**
-	 * a K * V matrix; probabilities of words given topics 
+	 * a K * V matrix stored word by word; probabilities of words given topics 
 	 */
-	private SimpleFloatMatrix phisHost;
+	private final WordMajorPhis phis;
 
 	/**
-	 * a K * V matrix; probabilities of words given topics
-	 * phis matrix on device
+	 * the backend for inference; LDABackends.getDefault() by default
 	 */
-	private CudaMatrix phis;
+	private final LDABackend backend;
+	
+	/**
+	 * holds the phis matrix on the backend, like a device matrix for the CUDA backend
+	 */
+	private final LDABackend.InferenceContext inferenceContext;
 	
 	/**
 	 * number of topics
 	 */
 	private final int K;
 
-	/** non-null if using the second constructor
+	/**
+	 * a VocabularyIndex or a HashingVocabulary, either of which is immutable for lookups
 	 */
-	private Dictionary dictionary;
+	private final Vocabulary vocabulary;
 
-	/** non-null if using the second constructor
+	private final CorpusProcessor corpusProcessor;
+
+	/**
+	 * the idle sessions of the 'inferTopics' methods, at most one per concurrent call, 
+	 * so the workspaces like the device matrices of the CUDA backend are reused across calls instead of being shared by them
 	 */
-	private CorpusProcessor corpusProcessor;
+	private final ConcurrentLinkedQueue<LDABackend.InferenceSession> idleSessions = new ConcurrentLinkedQueue<LDABackend.InferenceSession>();
 
 
 	
-	private LDAModel(String phisSerPath) {
-		this.phisHost = SimpleFloatMatrix.loadFromBinary(phisSerPath);
-		this.phis = new CudaMatrix(phisHost, false);
-		this.K = phisHost.numRows();
+	private LDAModel(WordMajorPhis phis, CorpusProcessor corpusProcessor, LDABackend backend) {
+		this.phis = phis;
+		this.backend = backend;
+		this.inferenceContext = backend.newInferenceContext(phis);
+		this.K = phis.getK();
+		this.corpusProcessor = corpusProcessor;
+		this.vocabulary = corpusProcessor.getVocabulary();
 	}
 
 	/**
 	 * @param phisSerPath : stores the phis matrix, the probabilities of words given topics 
 	 * @param vocabularyFilePath : the vocabulary words of this model; 
+	 * a word list, or a binary vocabulary file converted by CorpusProcessor.convertVocabulary, which loads in milliseconds
 	 */
 	public LDAModel(String phisSerPath, String vocabularyFilePath) {
-		this(phisSerPath);
-		this.dictionary = Dictionary.loadFromWordList(vocabularyFilePath);
-		this.corpusProcessor = new CorpusProcessor(dictionary);
+		this(phisSerPath, vocabularyFilePath, LDABackends.getDefault());
+	}
+	
+	/**
+	 * the same as LDAModel(String phisSerPath, String vocabularyFilePath) except that 
+	 * the inference runs with 'backend' instead of LDABackends.getDefault()
+	 */
+	public LDAModel(String phisSerPath, String vocabularyFilePath, LDABackend backend) {
+		this(WordMajorPhis.load(phisSerPath), new CorpusProcessor(vocabularyFilePath), backend);
+	}
+	
+	
+	
+	/**
+	 * @param phisSerPath : stores the phis matrix, the probabilities of words given topics 
+	 * @param vocabulary : the vocabulary the model was trained with, e.g. the HashingVocabulary of 
+	 * a trainer constructed without a vocabulary file, or any HashingVocabulary of the same number of buckets
+	 */
+	public LDAModel(String phisSerPath, Vocabulary vocabulary) {
+		this(phisSerPath, vocabulary, LDABackends.getDefault());
+	}
+	
+	/**
+	 * the same as LDAModel(String phisSerPath, Vocabulary vocabulary) except that 
+	 * the inference runs with 'backend' instead of LDABackends.getDefault()
+	 */
+	public LDAModel(String phisSerPath, Vocabulary vocabulary, LDABackend backend) {
+		this(checkVocabularySize(WordMajorPhis.load(phisSerPath), vocabulary), new CorpusProcessor(vocabulary), backend);
+	}
+	
+	private static WordMajorPhis checkVocabularySize(WordMajorPhis phis, Vocabulary vocabulary) {
+		if (vocabulary.size() != phis.getV()) {
+			throw new IllegalArgumentException("IllegalArgumentException: vocabulary.size() = " + vocabulary.size() 
+					+ " != the number of words of the phis matrix " + phis.getV());
+		}
+		return phis;
 	}
 	
 	
@@ -92,7 +142,7 @@ public class LDAModel {
 				+ "Time taken to run this part: "
 				+ (System.currentTimeMillis() - startTime) + " milliseconds.");
 		
-		SimpleFloatMatrix phisCopy = phisHost.copy();
+		SimpleFloatMatrix phisCopy = phis.toRowMajor();
 		SimpleFloatMatrix a1xVMatrix = phisCopy.sumRows();
 		phisCopy.divideRowEquals(a1xVMatrix);
 		
@@ -112,7 +162,7 @@ public class LDAModel {
 			int[] indices = row.argSort(true);
 			for (int j = 0; j < numTopWordsOfATopic; ++j) {
 				int wordIndex = indices[j];
-				System.out.print(dictionary.lookupValue(wordIndex) + ", ");
+				System.out.print(vocabulary.lookupValue(wordIndex) + ", ");
 				if ((j + 1) % 5 == 0) {
 					System.out.println();
 				}
@@ -165,14 +215,14 @@ public class LDAModel {
 		
 		int count = 0;
 		for (String enText : enTexts) {
-			int[] documentWordIndices = corpusProcessor.lookupTextWordsIndices(enText);
+			int[] documentWordIndices = corpusProcessor.lookupTextWordIndices(enText);
 			documentsWordIndicesList.add(documentWordIndices);
 			documentWordCounts[count++] = documentWordIndices.length;
 		}
 		int[] documentWordOffsets = LDAUtils.cumulativeSums(documentWordCounts, true);
 		int[] documentWordIndices = documentsWordIndicesList.toNativeArray();
 		
-		float[][] topicVectors = inferTopics(documentWordCounts, documentWordOffsets, documentWordIndices, M);
+		float[][] topicVectors = inferTopics(documentWordCounts, documentWordOffsets, IntBuffer.wrap(documentWordIndices), M);
 		return topicVectors;
 	}
 
@@ -202,7 +252,7 @@ public class LDAModel {
 		int[] documentWordOffsets = LDAUtils.cumulativeSums(documentWordCounts, true);
 		int[] documentWordIndices = documentsWordIndicesList.toNativeArray();
 		
-		float[][] topicVectors = inferTopics(documentWordCounts, documentWordOffsets, documentWordIndices, M);
+		float[][] topicVectors = inferTopics(documentWordCounts, documentWordOffsets, IntBuffer.wrap(documentWordIndices), M);
 		return topicVectors;
 	}
 	
@@ -228,66 +278,88 @@ public class LDAModel {
 		int[] documentWordOffsets = LDAUtils.cumulativeSums(documentWordCounts, true);
 		int[] documentWordIndices = documentsWordIndicesList.toNativeArray();
 		
-		float[][] topicVectors = inferTopics(documentWordCounts, documentWordOffsets, documentWordIndices, M);
+		float[][] topicVectors = inferTopics(documentWordCounts, documentWordOffsets, IntBuffer.wrap(documentWordIndices), M);
 		return topicVectors;
 	}
 	
+	/**
+	 * A method for efficient parallel distributed representation for multiple bag-of-words documents;
+	 * each word index is repeated by its frequency and inferred by an idle session, the same as inferTopics(int[][]) 
+	 * @param documents : documents of distinct word indices and their frequencies
+	 * @return topic vectors for the input documents
+	 */
+	public float[][] inferTopics(BagOfWordsDocument[] documents) {
+		int M = documents.length;
+		if (M == 0){
+			return new float[0][];
+		}
+		MiniBatch miniBatch = MiniBatch.packBagOfWords(Arrays.asList(documents)).toTokens();
+		return inferTopics(miniBatch.getDocsWordCounts(), miniBatch.getDocsWordOffsets(), miniBatch.getDocsWordIndices(), M);
+	}
+	
 	/**
 	 * @param documentWordCounts
 	 * @param documentWordOffsets
 	 * @param documentWordIndices
 	 * @return topic vectors
 	 */
-	private float[][] inferTopics(int[] documentWordCounts, int[] documentWordOffsets, int[] documentWordIndices, int M) {
-		CudaIntsMatrix tpd = new CudaIntsMatrix(M, K);
-		CudaMatrix thetas = new CudaMatrix(M, K);
-		CudaIntsMatrix td = new CudaIntsMatrix(1, M);
-		
-		// both with length 1000
-		CudaIntsMatrix docsWordCounts = new CudaIntsMatrix(1, M, documentWordCounts);
-		CudaIntsMatrix docsWordOffsets = new CudaIntsMatrix(1, M + 1, documentWordOffsets);
-		
-		// with length around 2000000
-		CudaIntsMatrix docsWordIndices = new CudaIntsMatrix(1, documentWordIndices.length, documentWordIndices);
-
-		
-		LDAUtils.computeThetas(tpd, td, thetas, DEFAULT_ALPHA_FOR_INFERENCE , DEFAULT_ALPHA_FOR_INFERENCE  * K, M, M * K);
-		
-		for (int i = 0; i < DEFAULT_NUM_ITERATIONS_FOR_INFERENCE; i++) {
-			tpd.setElements(0);
-			td.setElements(0);
-			JCudaManager.synchronize();
-			
-			if (M * K < 12000){
-				LDAUtils.drawLatentVariablesForTestingQuick(docsWordCounts, docsWordOffsets, docsWordIndices, 
-						tpd, td, phis, thetas, 0, K, M, M);
-			} else {
-				LDAUtils.drawLatentVariablesForTesting(docsWordCounts, docsWordOffsets, docsWordIndices, 
-						tpd, td, phis, thetas, 0, K, M, M);
-			}
-			LDAUtils.computeThetas(tpd, td, thetas, DEFAULT_ALPHA_FOR_INFERENCE , DEFAULT_ALPHA_FOR_INFERENCE  * K, M, M * K);
+	private float[][] inferTopics(int[] documentWordCounts, int[] documentWordOffsets, IntBuffer documentWordIndices, int M) {
+		float[] thetas = new float[M * K];
+		LDABackend.InferenceSession session = idleSessions.poll();
+		if (session == null) {
+			session = inferenceContext.newSession();
 		}
-
+		try {
+			session.inferTopics(documentWordCounts, documentWordOffsets, documentWordIndices, M, 
+					DEFAULT_ALPHA_FOR_INFERENCE, DEFAULT_NUM_ITERATIONS_FOR_INFERENCE, thetas, 0);
+		} catch (RuntimeException e) {
+			session.free();
+			throw e;
+		}
+		idleSessions.offer(session);
 		
-		SimpleFloatMatrix inferredTopics = thetas.toSimpleFloatMatrix();
-		float[][] result = new float[M][];
-		for (int i = 0; i < M; i++) {
-			SimpleFloatMatrix row = inferredTopics.getRow(i);
-			result[i] = row.getData();
+		float[][] topicVectors = new float[M][];
+		for (int m = 0; m < M; m++) {
+			topicVectors[m] = Arrays.copyOfRange(thetas, m * K, (m + 1) * K);
 		}
+		return topicVectors;
+	}
 
-		tpd.free();
-		thetas.free();
-		td.free();
-		docsWordCounts.free();
-		docsWordOffsets.free();
-		docsWordIndices.free();
-		
-		return result;
+	/**
+	 * <pre>
+	 * A session for repeated inference, like a request loop, which reuses its workspaces across calls
+	 * and writes the topic vectors to arrays or a FloatBuffer of the caller;
+	 * the results are the same as those of the 'inferTopics' methods above.
+	 * Call 'free' of the session when done.
+	 * </pre>
+	 */
+	public LDAInferenceSession newInferenceSession() {
+		return new LDAInferenceSession(inferenceContext.newSession(), corpusProcessor, K,
+				DEFAULT_ALPHA_FOR_INFERENCE, DEFAULT_NUM_ITERATIONS_FOR_INFERENCE);
 	}
 
-	
+	/**
+	 * @return the phis of this model, stored word by word
+	 */
+	public WordMajorPhis getPhis() {
+		return phis;
+	}
 
+	public LDABackend getBackend() {
+		return backend;
+	}
+	
+	/**
+	 * release the idle sessions and the data of this model on the backend, like the phis matrix on the device; 
+	 * the model is not used afterwards
+	 */
+	public void free() {
+		LDABackend.InferenceSession session;
+		while ((session = idleSessions.poll()) != null) {
+			session.free();
+		}
+		inferenceContext.free();
+	}
 	
 	
 }
@@ -191,6 +191,8 @@ class LDAUtils {
 	 * Similar to 'drawLatentVariables' except that the phis matrix is kept fixed, 
 	 * and wpt and wp are not needed to be updated
 	 * </pre>    
+	 * @param pStatic : a workspace of at least K * numDocumentsInOneBatch elements, owned by the caller 
+	 * instead of the temp matrix of ConstantDeviceData, so concurrent inference sessions do not share it
 	 * @see drawLatentVariables
 	 */
 	protected static void drawLatentVariablesForTesting(
@@ -201,14 +203,12 @@ class LDAUtils {
 			CudaIntsMatrix td,
 			CudaMatrix phis,
 			CudaMatrix thetas,
+			CudaMatrix pStatic,
 			int docOffset,
 			int K,
 			int M,
 			int numDocumentsInOneBatch) {
 		
-		CudaMatrix pStatic = ConstantDeviceData.getTempMatrix(K * numDocumentsInOneBatch);
-		
-		
 		int numElements = numDocumentsInOneBatch;
 		Pointer kernelParameters = Pointer.to(
 				PointerUtils.to(docsWordCounts),
@@ -0,0 +1,290 @@
+package org.linchimin.jcudalda;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.linchimin.utils.ArgumentChecker;
+
+/**
+ * <pre>
+ * a mini-batch of documents packed for the samplers of LDABackend:
+ *
+ * docsWordCounts[m] : number of word indices of the m-th document
+ * docsWordOffsets[m] : offset of the first word index of the m-th document in docsWordIndices;
+ * docsWordOffsets[numDocuments] is the total number of word indices
+ * docsWordIndices : word indices of all documents, one document after another
+ *
+ * A bag-of-words mini-batch, packed from BagOfWordsDocument's, additionally has
+ * docsWordFrequencies : the numbers of occurrences of the word indices of docsWordIndices,
+ * so that docsWordCounts[m] is the number of distinct words of the m-th document;
+ * samplers that do not exploit the frequencies use 'toTokens' instead.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public class MiniBatch {
+
+	private final int numDocuments;
+
+	private final int[] docsWordCounts;
+
+	private final int[] docsWordOffsets;
+
+	private final IntBuffer docsWordIndices;
+
+	/**
+	 * null unless a bag-of-words mini-batch
+	 */
+	private final IntBuffer docsWordFrequencies;
+
+
+	/**
+	 * @param docsWordCounts : with length at least numDocuments
+	 * @param docsWordOffsets : with length at least numDocuments + 1
+	 * @param docsWordIndices : word indices from position 0 to docsWordOffsets[numDocuments]
+	 * @param numDocuments : number of documents
+	 */
+	public MiniBatch(int[] docsWordCounts, int[] docsWordOffsets, IntBuffer docsWordIndices, int numDocuments) {
+		this(docsWordCounts, docsWordOffsets, docsWordIndices, null, numDocuments);
+	}
+
+
+	/**
+	 * @param docsWordCounts : with length at least numDocuments
+	 * @param docsWordOffsets : with length at least numDocuments + 1
+	 * @param docsWordIndices : word indices from position 0 to docsWordOffsets[numDocuments]
+	 * @param docsWordFrequencies : null, or the frequencies of the word indices for a bag-of-words mini-batch
+	 * @param numDocuments : number of documents
+	 */
+	public MiniBatch(int[] docsWordCounts, int[] docsWordOffsets, IntBuffer docsWordIndices, IntBuffer docsWordFrequencies, int numDocuments) {
+		if (docsWordCounts.length < numDocuments || docsWordOffsets.length < numDocuments + 1){
+			throw new IllegalArgumentException("IllegalArgumentException: the counts or offsets are shorter than numDocuments; "
+					+ "docsWordCounts.length = " + docsWordCounts.length + ", docsWordOffsets.length = " + docsWordOffsets.length
+					+ ", numDocuments = " + numDocuments);
+		}
+		this.numDocuments = numDocuments;
+		this.docsWordCounts = docsWordCounts;
+		this.docsWordOffsets = docsWordOffsets;
+		this.docsWordIndices = docsWordIndices;
+		this.docsWordFrequencies = docsWordFrequencies;
+	}
+
+
+	/**
+	 * pack the first 'numDocuments' documents to a mini-batch
+	 * @param documents : each int[] contains word indices of a document
+	 */
+	public static MiniBatch pack(List<int[]> documents, int numDocuments) {
+		return pack(documents, numDocuments, null);
+	}
+
+
+	/**
+	 * the same as pack(List&lt;int[]&gt; documents, int numDocuments) except that the word indices are copied to
+	 * 'wordIndicesBuffer' if it is long enough, so that the buffer of a consumed mini-batch can be reused;
+	 * getDocsWordIndices().array() of the result is the buffer used
+	 * @param wordIndicesBuffer : null or a buffer of any length
+	 */
+	public static MiniBatch pack(List<int[]> documents, int numDocuments, int[] wordIndicesBuffer) {
+		return pack(documents, numDocuments, wordIndicesBuffer, null);
+	}
+
+
+	/**
+	 * the same as pack(List&lt;int[]&gt; documents, int numDocuments, int[] wordIndicesBuffer) except that
+	 * the word indices removed by 'tokenFilter' are dropped while copying
+	 * @param tokenFilter : null to keep all word indices
+	 */
+	public static MiniBatch pack(List<int[]> documents, int numDocuments, int[] wordIndicesBuffer, TokenFilter tokenFilter) {
+		int[] documentWordCounts = new int[numDocuments];
+		for (int i = 0; i < numDocuments; ++i) {
+			int[] document = documents.get(i);
+			documentWordCounts[i] = (tokenFilter != null) ? tokenFilter.countKept(document, 0, document.length) : document.length;
+		}
+		int[] documentWordOffsets = LDAUtils.cumulativeSums(documentWordCounts, true);
+		int numWords = documentWordOffsets[numDocuments];
+		int[] documentsWordIndices = (wordIndicesBuffer != null && wordIndicesBuffer.length >= numWords) ? 
+				wordIndicesBuffer : new int[numWords];
+		long[] tokenCounts = (tokenFilter != null) ? TokenFilter.newTokenCounts() : null;
+		for (int i = 0; i < numDocuments; ++i) {
+			int[] document = documents.get(i);
+			if (tokenFilter != null) {
+				tokenFilter.copyKept(document, 0, document.length, null, documentsWordIndices, null, documentWordOffsets[i], tokenCounts);
+			} else {
+				System.arraycopy(document, 0, documentsWordIndices, documentWordOffsets[i], documentWordCounts[i]);
+			}
+		}
+		if (tokenFilter != null) {
+			tokenFilter.count(tokenCounts);
+		}
+		return new MiniBatch(documentWordCounts, documentWordOffsets,
+				IntBuffer.wrap(documentsWordIndices, 0, numWords), numDocuments);
+	}
+
+
+	/**
+	 * pack all documents to a mini-batch
+	 */
+	public static MiniBatch pack(List<int[]> documents) {
+		return pack(documents, documents.size());
+	}
+
+
+	/**
+	 * pack the first 'numDocuments' documents to a bag-of-words mini-batch
+	 */
+	public static MiniBatch packBagOfWords(List<BagOfWordsDocument> documents, int numDocuments) {
+		return packBagOfWords(documents, numDocuments, null, null);
+	}
+
+
+	/**
+	 * the same as packBagOfWords(List&lt;BagOfWordsDocument&gt; documents, int numDocuments) except that the word indices
+	 * and frequencies are copied to the buffers if they are long enough
+	 * @param wordIndicesBuffer : null or a buffer of any length
+	 * @param wordFrequenciesBuffer : null or a buffer of any length
+	 */
+	public static MiniBatch packBagOfWords(List<BagOfWordsDocument> documents, int numDocuments, 
+			int[] wordIndicesBuffer, int[] wordFrequenciesBuffer) {
+		return packBagOfWords(documents, numDocuments, wordIndicesBuffer, wordFrequenciesBuffer, null);
+	}
+
+
+	/**
+	 * the same as packBagOfWords(List&lt;BagOfWordsDocument&gt; documents, int numDocuments, int[] wordIndicesBuffer, int[] wordFrequenciesBuffer)
+	 * except that the word indices removed by 'tokenFilter' are dropped with their frequencies while copying
+	 * @param tokenFilter : null to keep all word indices
+	 */
+	public static MiniBatch packBagOfWords(List<BagOfWordsDocument> documents, int numDocuments, 
+			int[] wordIndicesBuffer, int[] wordFrequenciesBuffer, TokenFilter tokenFilter) {
+		int[] documentWordCounts = new int[numDocuments];
+		for (int i = 0; i < numDocuments; ++i) {
+			BagOfWordsDocument document = documents.get(i);
+			documentWordCounts[i] = (tokenFilter != null) ? 
+					tokenFilter.countKept(document.getWordIndices(), 0, document.getNumDistinctWords()) : document.getNumDistinctWords();
+		}
+		int[] documentWordOffsets = LDAUtils.cumulativeSums(documentWordCounts, true);
+		int numWords = documentWordOffsets[numDocuments];
+		int[] documentsWordIndices = (wordIndicesBuffer != null && wordIndicesBuffer.length >= numWords) ? 
+				wordIndicesBuffer : new int[numWords];
+		int[] documentsWordFrequencies = (wordFrequenciesBuffer != null && wordFrequenciesBuffer.length >= numWords) ? 
+				wordFrequenciesBuffer : new int[numWords];
+		long[] tokenCounts = (tokenFilter != null) ? TokenFilter.newTokenCounts() : null;
+		for (int i = 0; i < numDocuments; ++i) {
+			BagOfWordsDocument document = documents.get(i);
+			if (tokenFilter != null) {
+				tokenFilter.copyKept(document.getWordIndices(), 0, document.getNumDistinctWords(), document.getWordFrequencies(), 
+						documentsWordIndices, documentsWordFrequencies, documentWordOffsets[i], tokenCounts);
+			} else {
+				System.arraycopy(document.getWordIndices(), 0, documentsWordIndices, documentWordOffsets[i], documentWordCounts[i]);
+				System.arraycopy(document.getWordFrequencies(), 0, documentsWordFrequencies, documentWordOffsets[i], documentWordCounts[i]);
+			}
+		}
+		if (tokenFilter != null) {
+			tokenFilter.count(tokenCounts);
+		}
+		return new MiniBatch(documentWordCounts, documentWordOffsets,
+				IntBuffer.wrap(documentsWordIndices, 0, numWords), IntBuffer.wrap(documentsWordFrequencies, 0, numWords), numDocuments);
+	}
+
+
+	/**
+	 * pack all documents to a bag-of-words mini-batch
+	 */
+	public static MiniBatch packBagOfWords(List<BagOfWordsDocument> documents) {
+		return packBagOfWords(documents, documents.size());
+	}
+
+
+	/**
+	 * @return a mini-batch of the first 'numDocuments' documents sharing the same buffers
+	 */
+	public MiniBatch head(int numDocuments) {
+		ArgumentChecker.checkEqualOrSmaller(numDocuments, this.numDocuments);
+		return new MiniBatch(docsWordCounts, docsWordOffsets, docsWordIndices, docsWordFrequencies, numDocuments);
+	}
+
+
+	/**
+	 * @return this mini-batch if not a bag-of-words mini-batch; otherwise a mini-batch with
+	 * each word index repeated by its frequency
+	 */
+	public MiniBatch toTokens() {
+		if (docsWordFrequencies == null) {
+			return this;
+		}
+		int[] documentWordCounts = new int[numDocuments];
+		for (int m = 0; m < numDocuments; m++) {
+			int end = docsWordOffsets[m] + docsWordCounts[m];
+			for (int i = docsWordOffsets[m]; i < end; i++) {
+				documentWordCounts[m] += docsWordFrequencies.get(i);
+			}
+		}
+		int[] documentWordOffsets = LDAUtils.cumulativeSums(documentWordCounts, true);
+		int[] documentsWordIndices = new int[documentWordOffsets[numDocuments]];
+		for (int m = 0; m < numDocuments; m++) {
+			int position = documentWordOffsets[m];
+			int end = docsWordOffsets[m] + docsWordCounts[m];
+			for (int i = docsWordOffsets[m]; i < end; i++) {
+				int frequency = docsWordFrequencies.get(i);
+				Arrays.fill(documentsWordIndices, position, position + frequency, docsWordIndices.get(i));
+				position += frequency;
+			}
+		}
+		return new MiniBatch(documentWordCounts, documentWordOffsets, IntBuffer.wrap(documentsWordIndices), numDocuments);
+	}
+
+
+	public int getNumDocuments() {
+		return numDocuments;
+	}
+
+	/**
+	 * @return total number of word indices of all documents
+	 */
+	public int getNumWords() {
+		return docsWordOffsets[numDocuments];
+	}
+
+	/**
+	 * @return total number of occurrences of words of all documents; the same as getNumWords() unless a bag-of-words mini-batch
+	 */
+	public long getNumTokens() {
+		if (docsWordFrequencies == null) {
+			return getNumWords();
+		}
+		long numTokens = 0;
+		int numWords = getNumWords();
+		for (int i = 0; i < numWords; i++) {
+			numTokens += docsWordFrequencies.get(i);
+		}
+		return numTokens;
+	}
+
+	public boolean isBagOfWords() {
+		return docsWordFrequencies != null;
+	}
+
+	public int[] getDocsWordCounts() {
+		return docsWordCounts;
+	}
+
+	public int[] getDocsWordOffsets() {
+		return docsWordOffsets;
+	}
+
+	public IntBuffer getDocsWordIndices() {
+		return docsWordIndices;
+	}
+
+	/**
+	 * @return null unless a bag-of-words mini-batch
+	 */
+	public IntBuffer getDocsWordFrequencies() {
+		return docsWordFrequencies;
+	}
+
+
+}
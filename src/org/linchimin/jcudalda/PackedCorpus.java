@@ -0,0 +1,225 @@
+package org.linchimin.jcudalda;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * <pre>
+ * the documents of a corpus packed in flat arrays and kept in memory across iterations,
+ * in the same format as MiniBatch:
+ *
+ * docsWordOffsets[m] : offset of the first word index of the m-th document; docsWordOffsets[numDocuments] is the total number of word indices
+ * docsWordIndices : word indices of all documents, one document after another
+ * docsWordFrequencies : null, or the frequencies of the word indices of bag-of-words documents
+ *
+ * A PackedCorpus is built by a Builder from the mini-batches of the first pass over a corpus,
+ * and 'iterator' hands out mini-batches that are views of the arrays.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+class PackedCorpus {
+
+	private final int numDocuments;
+
+	private final int[] docsWordOffsets;
+
+	private final int[] docsWordIndices;
+
+	private final int[] docsWordFrequencies;
+
+
+	private PackedCorpus(int numDocuments, int[] docsWordOffsets, int[] docsWordIndices, int[] docsWordFrequencies) {
+		this.numDocuments = numDocuments;
+		this.docsWordOffsets = docsWordOffsets;
+		this.docsWordIndices = docsWordIndices;
+		this.docsWordFrequencies = docsWordFrequencies;
+	}
+
+
+	public int getNumDocuments() {
+		return numDocuments;
+	}
+
+	public int getNumWords() {
+		return docsWordOffsets[numDocuments];
+	}
+
+	/**
+	 * @return number of bytes of the arrays
+	 */
+	public long getNumBytes() {
+		return 4L * (docsWordOffsets.length + docsWordIndices.length + ((docsWordFrequencies != null) ? docsWordFrequencies.length : 0));
+	}
+
+
+	/**
+	 * @return a mini-batch of the documents [firstDocument, firstDocument + numDocuments),
+	 * whose word indices and frequencies are views of the arrays
+	 */
+	public MiniBatch getMiniBatch(int firstDocument, int numDocuments) {
+		int wordOffset = docsWordOffsets[firstDocument];
+		int[] miniBatchWordCounts = new int[numDocuments];
+		int[] miniBatchWordOffsets = new int[numDocuments + 1];
+		for (int m = 0; m < numDocuments; m++) {
+			miniBatchWordOffsets[m] = docsWordOffsets[firstDocument + m] - wordOffset;
+			miniBatchWordCounts[m] = docsWordOffsets[firstDocument + m + 1] - docsWordOffsets[firstDocument + m];
+		}
+		int miniBatchNumWords = docsWordOffsets[firstDocument + numDocuments] - wordOffset;
+		miniBatchWordOffsets[numDocuments] = miniBatchNumWords;
+
+		IntBuffer indices = IntBuffer.wrap(docsWordIndices, wordOffset, miniBatchNumWords).slice();
+		IntBuffer frequencies = (docsWordFrequencies != null) ?
+				IntBuffer.wrap(docsWordFrequencies, wordOffset, miniBatchNumWords).slice() : null;
+		return new MiniBatch(miniBatchWordCounts, miniBatchWordOffsets, indices, frequencies, numDocuments);
+	}
+
+
+	/**
+	 * @return an iterator of mini-batches of 'numDocumentsInOneBatch' documents, except possibly the last one
+	 */
+	public Iterator<MiniBatch> iterator(final int numDocumentsInOneBatch) {
+		return new Iterator<MiniBatch>() {
+
+			private int currentDocIndex = 0;
+
+			@Override
+			public boolean hasNext() {
+				return currentDocIndex < numDocuments;
+			}
+
+			@Override
+			public MiniBatch next() {
+				int miniBatchNumDocuments = Math.min(numDocumentsInOneBatch, numDocuments - currentDocIndex);
+				MiniBatch miniBatch = getMiniBatch(currentDocIndex, miniBatchNumDocuments);
+				currentDocIndex += miniBatchNumDocuments;
+				return miniBatch;
+			}
+
+			@Override
+			public void remove() {
+
+			}
+		};
+	}
+
+
+
+	/**
+	 * appends mini-batches to growing arrays until they exceed a memory budget
+	 */
+	static class Builder {
+
+		private final long memoryBudget;
+
+		private int numDocuments = 0;
+		private int[] docsWordOffsets = new int[1024];
+		private int[] docsWordIndices = new int[1024];
+		private int[] docsWordFrequencies = null;
+
+		/**
+		 * true once a mini-batch exceeds the memory budget
+		 */
+		private boolean isOverBudget = false;
+
+
+		/**
+		 * @param memoryBudget : maximal number of bytes of the arrays of the PackedCorpus
+		 */
+		Builder(long memoryBudget) {
+			this.memoryBudget = memoryBudget;
+		}
+
+
+		/**
+		 * a builder whose arrays are allocated once for 'numDocuments' documents of 'numWords' word indices, 
+		 * like the counts of a CorpusManifest; 'build' then returns the arrays without copying them if exactly filled
+		 */
+		Builder(long memoryBudget, int numDocuments, int numWords, boolean isBagOfWords) {
+			this.memoryBudget = memoryBudget;
+			this.docsWordOffsets = new int[numDocuments + 1];
+			this.docsWordIndices = new int[numWords];
+			this.docsWordFrequencies = isBagOfWords ? new int[numWords] : null;
+		}
+
+
+		/**
+		 * append the documents of 'miniBatch' unless they exceed the memory budget
+		 * @return false if not appended; the documents appended so far are kept for 'build', and further calls return false
+		 */
+		boolean add(MiniBatch miniBatch) {
+			if (isOverBudget) {
+				return false;
+			}
+			int miniBatchNumDocuments = miniBatch.getNumDocuments();
+			int miniBatchNumWords = miniBatch.getNumWords();
+			boolean isBagOfWords = miniBatch.isBagOfWords();
+			int numWords = docsWordOffsets[numDocuments];
+
+			long newNumDocuments = (long) numDocuments + miniBatchNumDocuments;
+			long newNumWords = (long) numWords + miniBatchNumWords;
+			long numBytes = 4L * (newNumDocuments + 1 + newNumWords * (isBagOfWords ? 2 : 1));
+			if (numBytes > memoryBudget || newNumDocuments + 1 > Integer.MAX_VALUE - 8 || newNumWords > Integer.MAX_VALUE - 8
+					|| (numDocuments > 0 && isBagOfWords != (docsWordFrequencies != null))) {
+				isOverBudget = true;
+				return false;
+			}
+
+			docsWordOffsets = ensureCapacity(docsWordOffsets, (int) newNumDocuments + 1);
+			docsWordIndices = ensureCapacity(docsWordIndices, (int) newNumWords);
+			if (isBagOfWords) {
+				docsWordFrequencies = ensureCapacity((docsWordFrequencies != null) ? docsWordFrequencies : new int[1024], (int) newNumWords);
+			}
+
+			int[] miniBatchWordOffsets = miniBatch.getDocsWordOffsets();
+			for (int m = 1; m <= miniBatchNumDocuments; m++) {
+				docsWordOffsets[numDocuments + m] = numWords + miniBatchWordOffsets[m];
+			}
+			IntBuffer indices = miniBatch.getDocsWordIndices().duplicate();
+			indices.rewind();
+			indices.get(docsWordIndices, numWords, miniBatchNumWords);
+			if (isBagOfWords) {
+				IntBuffer frequencies = miniBatch.getDocsWordFrequencies().duplicate();
+				frequencies.rewind();
+				frequencies.get(docsWordFrequencies, numWords, miniBatchNumWords);
+			}
+			numDocuments += miniBatchNumDocuments;
+			return true;
+		}
+
+
+		/**
+		 * @return the documents appended so far
+		 */
+		PackedCorpus build() {
+			int numWords = docsWordOffsets[numDocuments];
+			return new PackedCorpus(numDocuments,
+					trim(docsWordOffsets, numDocuments + 1),
+					trim(docsWordIndices, numWords),
+					(docsWordFrequencies != null) ? trim(docsWordFrequencies, numWords) : null);
+		}
+
+
+		/**
+		 * @return 'array' if of 'length' elements, otherwise a copy of its first 'length' elements
+		 */
+		private static int[] trim(int[] array, int length) {
+			return (array.length == length) ? array : Arrays.copyOf(array, length);
+		}
+
+
+		/**
+		 * @return 'array' or a larger copy of it with at least 'capacity' elements
+		 */
+		private static int[] ensureCapacity(int[] array, int capacity) {
+			if (array.length >= capacity) {
+				return array;
+			}
+			long newLength = Math.max((long) array.length * 3 / 2, capacity);
+			return Arrays.copyOf(array, (int) Math.min(newLength, Integer.MAX_VALUE - 8));
+		}
+	}
+
+}
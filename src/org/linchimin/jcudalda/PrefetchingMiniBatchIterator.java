@@ -0,0 +1,218 @@
+package org.linchimin.jcudalda;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <pre>
+ * iterates mini-batches that a loader thread reads and packs ahead of the consumer:
+ *
+ * the loader thread calls documentsIterator.next(), which reads and decodes the documents, and 'pack's them
+ * into the reusable buffers of a free slot, while the consumer samples the previous mini-batch;
+ * at most 'queueDepth' mini-batches are loaded ahead, and the slot of a mini-batch is reused
+ * once the consumer calls 'next' again, so a returned mini-batch is valid only until then.
+ *
+ * The nanoseconds spent reading, packing, and waiting for the loader are accumulated for the timing output;
+ * 'close' stops the loader thread when the consumer stops early.
+ * </pre>
+ *
+ * @param <T> : the documents returned by documentsIterator, e.g. ArrayList&lt;int[]&gt;
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+abstract class PrefetchingMiniBatchIterator<T> implements Iterator<MiniBatch> {
+
+	/**
+	 * reusable buffers of a mini-batch; a slot with a null miniBatch marks the end of the documents
+	 */
+	static class Slot {
+		int[] wordIndicesBuffer;
+		int[] wordFrequenciesBuffer;
+		MiniBatch miniBatch;
+	}
+
+
+	private final Iterator<T> documentsIterator;
+
+	private final BlockingQueue<Slot> freeSlots;
+
+	private final BlockingQueue<Slot> loadedSlots;
+
+	private final Thread loaderThread;
+
+	private volatile boolean isClosed = false;
+
+	/**
+	 * the exception thrown by the loader thread, rethrown by the consumer
+	 */
+	private volatile RuntimeException loaderException = null;
+
+	private volatile long readNanos = 0;
+	private volatile long packNanos = 0;
+	private long waitNanos = 0;
+
+	private Slot currentSlot = null;
+	private Slot nextSlot = null;
+
+
+	/**
+	 * @param queueDepth : number of mini-batches loaded ahead; at least 1
+	 */
+	PrefetchingMiniBatchIterator(Iterator<T> documentsIterator, int queueDepth) {
+		if (queueDepth < 1) {
+			throw new IllegalArgumentException("IllegalArgumentException: queueDepth = " + queueDepth + " < 1");
+		}
+		this.documentsIterator = documentsIterator;
+		// one slot held by the consumer, one peeked by 'hasNext', and 'queueDepth' loaded ahead
+		int numSlots = queueDepth + 2;
+		this.freeSlots = new ArrayBlockingQueue<Slot>(numSlots);
+		this.loadedSlots = new ArrayBlockingQueue<Slot>(numSlots + 1);
+		for (int i = 0; i < numSlots; i++) {
+			freeSlots.add(new Slot());
+		}
+		this.loaderThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				load();
+			}
+		}, "PrefetchingMiniBatchIterator");
+		loaderThread.setDaemon(true);
+		loaderThread.start();
+	}
+
+
+	/**
+	 * pack 'documents' into the buffers of 'slot' if they are long enough, and set slot.miniBatch;
+	 * called by the loader thread
+	 */
+	protected abstract void pack(T documents, Slot slot);
+
+
+	private void load() {
+		try {
+			while (isClosed == false) {
+				long readStartTime = System.nanoTime();
+				if (documentsIterator.hasNext() == false) {
+					break;
+				}
+				T documents = documentsIterator.next();
+				long packStartTime = System.nanoTime();
+				readNanos += packStartTime - readStartTime;
+
+				Slot slot = freeSlots.take();
+				packStartTime = System.nanoTime();
+				pack(documents, slot);
+				packNanos += System.nanoTime() - packStartTime;
+				loadedSlots.put(slot);
+			}
+		} catch (InterruptedException e) {
+			return;
+		} catch (RuntimeException e) {
+			loaderException = e;
+		} catch (Error e) {
+			loaderException = new IllegalStateException("IllegalStateException: the loader thread failed", e);
+		}
+		loadedSlots.offer(new Slot());
+	}
+
+
+	@Override
+	public boolean hasNext() {
+		if (nextSlot == null) {
+			long waitStartTime = System.nanoTime();
+			try {
+				nextSlot = loadedSlots.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("IllegalStateException: interrupted while waiting for the loader thread", e);
+			}
+			waitNanos += System.nanoTime() - waitStartTime;
+			if (nextSlot.miniBatch == null) {
+				// put the end mark back for further calls
+				loadedSlots.offer(nextSlot);
+			}
+		}
+		if (nextSlot.miniBatch == null) {
+			nextSlot = null;
+			if (loaderException != null) {
+				throw loaderException;
+			}
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * @return the next mini-batch, valid until the next call of 'next' or 'close'
+	 */
+	@Override
+	public MiniBatch next() {
+		if (hasNext() == false) {
+			throw new NoSuchElementException();
+		}
+		releaseCurrentSlot();
+		currentSlot = nextSlot;
+		nextSlot = null;
+		return currentSlot.miniBatch;
+	}
+
+
+	private void releaseCurrentSlot() {
+		if (currentSlot != null) {
+			currentSlot.miniBatch = null;
+			freeSlots.offer(currentSlot);
+			currentSlot = null;
+		}
+	}
+
+
+	/**
+	 * stop the loader thread and release the buffers
+	 */
+	public void close() {
+		isClosed = true;
+		loaderThread.interrupt();
+		try {
+			loaderThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		releaseCurrentSlot();
+		nextSlot = null;
+		loadedSlots.clear();
+		freeSlots.clear();
+	}
+
+
+	/**
+	 * @return nanoseconds the loader thread spent reading and decoding documents
+	 */
+	public long getReadNanos() {
+		return readNanos;
+	}
+
+	/**
+	 * @return nanoseconds the loader thread spent packing documents into mini-batches
+	 */
+	public long getPackNanos() {
+		return packNanos;
+	}
+
+	/**
+	 * @return nanoseconds the consumer spent waiting for the loader thread
+	 */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+
+	@Override
+	public void remove() {
+
+	}
+
+}
@@ -0,0 +1,496 @@
+package org.linchimin.jcudalda;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.ejml_float.simple.SimpleFloatMatrix;
+import org.linchimin.utils.ArgumentChecker;
+
+
+/**
+ * <pre>
+ *
+ * 1. A collapsed Gibbs sampler for LDA with the bucket decomposition of SparseLDA, based on
+ * "Efficient Methods for Topic Model Inference on Streaming Document Collections" (Yao, Mimno and McCallum, KDD 2009):
+ *
+ * p(z = k) is proportional to (alpha + n_dk) * (beta + n_wk) / (beta * V + n_k), which is split into three buckets
+ *
+ * s = sum_k alpha * beta / (beta * V + n_k)                       : smoothing only bucket, rarely visited
+ * r = sum_k n_dk * beta / (beta * V + n_k)                        : document topic bucket, over topics with n_dk > 0
+ * q = sum_k (alpha + n_dk) * n_wk / (beta * V + n_k)              : topic word bucket, over topics with n_wk > 0
+ *
+ * so the cost of sampling a word scales with the numbers of non-zero topics of its document and its word, rather than K.
+ *
+ * 2. It reads the same ints corpus as LDAGPUTrainer.trainWithIntsCorpus and writes a phis file that can be loaded by LDAModel.
+ * The documents are re-read from the corpus in each iteration, and the topic assignments of all words of the
+ * first M documents are kept in memory.
+ *
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public class SparseLDATrainer {
+
+	private static final int NUM_DOCUMENTS_IN_ONE_BATCH = 10000;
+
+	private static final float DEFAULT_ALPHA = 0.1f;
+	private static final float DEFAULT_BETA = 0.01f;
+
+	/**
+	 * K : number of topics
+	 */
+	private final int K;
+
+	/**
+	 * V : number of vocabulary words
+	 */
+	private final int V;
+
+	/**
+	 * M : number of documents used for training
+	 */
+	private final int M;
+
+	/**
+	 * the alpha parameter
+	 */
+	private float alpha = DEFAULT_ALPHA;
+
+	/**
+	 * the beta parameter
+	 */
+	private float beta  = DEFAULT_BETA;
+
+	/**
+	 * the seed of the random number generator
+	 */
+	private long seed = 0;
+
+
+	/**
+	 * @param V : the vocabualry size; word indices < 0 or >= V are ignored.
+	 * @param K : numer of topics
+	 * @param M : number of top documents used for training
+	 */
+	public SparseLDATrainer(int V, int K, int M) {
+		this.V = V;
+		this.K = K;
+		this.M = M;
+	}
+
+	public void setAlpha(float alpha) {
+		this.alpha = alpha;
+	}
+
+	public void setBeta(float beta) {
+		this.beta = beta;
+	}
+
+	public float getAlpha() {
+		return alpha;
+	}
+
+	public float getBeta() {
+		return beta;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+
+	/**
+	 * method for training an LDA model with a directory of serializable files of ArrayList<int[]> documents
+	 *
+	 * @param intsCorpusDirectory : the same as the one of LDAGPUTrainer.trainWithIntsCorpus
+	 * @param resultPhisSerPath : the produced 'phis' matrix when training is done
+	 * @param numIterations : number of iterations
+	 */
+	public void trainWithIntsCorpus(String intsCorpusDirectory, String resultPhisSerPath, int numIterations) {
+
+		long startTime = System.currentTimeMillis();
+
+		SparseGibbsSampler sampler = new SparseGibbsSampler(new SplittableRandom(seed));
+
+		/**
+		 * topic assignments of the words of documents
+		 */
+		int[][] z = new int[M][];
+
+		for (int iteration = 0; iteration <= numIterations; ++iteration) {
+
+			long iterationStartTime = System.nanoTime();
+			long numIterationWords = 0;
+
+			if (iteration > 0) {
+				sampler.beginIteration();
+			}
+
+			int docIndex = 0;
+			CorpusIntsIterator iterator = new CorpusIntsIterator(intsCorpusDirectory, NUM_DOCUMENTS_IN_ONE_BATCH);
+			while (iterator.hasNext() && docIndex < M) {
+				ArrayList<int[]> miniBatchDocsIndices = iterator.next();
+				for (int i = 0; i < miniBatchDocsIndices.size() && docIndex < M; i++, docIndex++) {
+					int[] documentWordIndices = miniBatchDocsIndices.get(i);
+					if (iteration == 0) {
+						z[docIndex] = sampler.initializeDocument(documentWordIndices);
+					} else {
+						sampler.sampleDocument(documentWordIndices, z[docIndex]);
+					}
+					numIterationWords += documentWordIndices.length;
+				}
+			}
+
+			/**
+			 * iteration 0 only assigns random topics
+			 */
+			if (iteration > 0) {
+				float seconds = (System.nanoTime() - iterationStartTime) / 1e9f;
+				System.out.println("iteration = " + iteration + ", num documents = " + docIndex + ", num documents words = " + numIterationWords
+						+ ", seconds = " + seconds + ", sampled words per second = " + (long) (numIterationWords / Math.max(seconds, 1e-9f)));
+			}
+		}
+
+		SimpleFloatMatrix matrix = sampler.getPhis();
+		matrix.saveToFileBinary(resultPhisSerPath);
+
+		System.out.println("SparseLDATrainer.trainWithIntsCorpus() Time taken to run this part: "
+		+ (System.currentTimeMillis() - startTime) / 1000f  + " seconds.");
+	}
+
+
+
+	/**
+	 * the counts and buckets of the sampler
+	 */
+	private class SparseGibbsSampler {
+
+		private final SplittableRandom random;
+
+		/**
+		 * n_k : total words per topic
+		 */
+		private final int[] wt = new int[K];
+
+		/**
+		 * non-zero topics of words sorted by counts in descending order;
+		 * wordTopics[v][i] and wordTopicCounts[v][i], for i < wordNumTopics[v], are the i-th topic and its count n_wk of word v
+		 */
+		private final int[][] wordTopics = new int[V][];
+		private final int[][] wordTopicCounts = new int[V][];
+		private final int[] wordNumTopics = new int[V];
+
+		/**
+		 * n_dk : topics of the current document
+		 */
+		private final int[] tpd = new int[K];
+
+		/**
+		 * non-zero topics of the current document, and the positions of topics in 'docTopics'
+		 */
+		private final int[] docTopics = new int[K];
+		private final int[] docTopicPositions = new int[K];
+		private int docNumTopics = 0;
+
+		/**
+		 * coefficients[k] = (alpha + n_dk) / (beta * V + n_k), which is alpha / (beta * V + n_k) outside of a document
+		 */
+		private final double[] coefficients = new double[K];
+
+		/**
+		 * values of the topic word bucket for the non-zero topics of the current word
+		 */
+		private double[] topicWordValues = new double[16];
+
+		private final double betaV = (double) beta * V;
+
+		/**
+		 * the smoothing only bucket, kept across documents by 'updateCounts', and the document topic bucket
+		 */
+		private double s;
+		private double r;
+
+
+		private SparseGibbsSampler(SplittableRandom random) {
+			this.random = random;
+			for (int v = 0; v < V; v++) {
+				wordTopics[v] = new int[2];
+				wordTopicCounts[v] = new int[2];
+			}
+		}
+
+
+		/**
+		 * assign random topics to the words of a document
+		 */
+		private int[] initializeDocument(int[] documentWordIndices) {
+			int[] topics = new int[documentWordIndices.length];
+			for (int i = 0; i < documentWordIndices.length; i++) {
+				int word = documentWordIndices[i];
+				if (word < 0 || word >= V) {
+					topics[i] = -1;
+					continue;
+				}
+				int topic = random.nextInt(K);
+				topics[i] = topic;
+				wt[topic]++;
+				incrementWordTopic(word, topic);
+			}
+			return topics;
+		}
+
+
+		/**
+		 * resample the topics of the words of a document
+		 * @param topics : the current topics of the words, which are updated in place
+		 */
+		private void sampleDocument(int[] documentWordIndices, int[] topics) {
+			ArgumentChecker.checkEqualOrSmaller(documentWordIndices.length, topics.length);
+
+			enterDocument(topics);
+
+			for (int i = 0; i < documentWordIndices.length; i++) {
+				int word = documentWordIndices[i];
+				if (word < 0 || word >= V) {
+					continue;
+				}
+				int oldTopic = topics[i];
+				updateCounts(word, oldTopic, -1);
+				int newTopic = sampleTopic(word);
+				updateCounts(word, newTopic, +1);
+				topics[i] = newTopic;
+			}
+
+			leaveDocument();
+		}
+
+
+		/**
+		 * recompute s and the coefficients of all topics from the counts, once per iteration,
+		 * since 'initializeDocument' does not maintain them and the increments of 'updateCounts' drift
+		 */
+		private void beginIteration() {
+			s = 0;
+			for (int k = 0; k < K; k++) {
+				double denominator = betaV + wt[k];
+				s += alpha * beta / denominator;
+				coefficients[k] = alpha / denominator;
+			}
+		}
+
+
+		/**
+		 * set tpd, the non-zero topics, their coefficients, and r for a document;
+		 * the coefficients of the other topics are alpha / (beta * V + n_k) already
+		 */
+		private void enterDocument(int[] topics) {
+			for (int topic : topics) {
+				if (topic >= 0) {
+					if (tpd[topic]++ == 0) {
+						addDocTopic(topic);
+					}
+				}
+			}
+			r = 0;
+			for (int i = 0; i < docNumTopics; i++) {
+				int k = docTopics[i];
+				double denominator = betaV + wt[k];
+				r += tpd[k] * beta / denominator;
+				coefficients[k] = (alpha + tpd[k]) / denominator;
+			}
+		}
+
+
+		/**
+		 * reset tpd and the coefficients of the non-zero topics of the document
+		 */
+		private void leaveDocument() {
+			for (int i = 0; i < docNumTopics; i++) {
+				int k = docTopics[i];
+				tpd[k] = 0;
+				coefficients[k] = alpha / (betaV + wt[k]);
+			}
+			docNumTopics = 0;
+		}
+
+
+		/**
+		 * add 'delta' (+1 or -1) to n_dk, n_wk, and n_k of the current document, 'word' and 'topic',
+		 * and update s, r, and the coefficient of 'topic' accordingly
+		 */
+		private void updateCounts(int word, int topic, int delta) {
+			double denominator = betaV + wt[topic];
+			s -= alpha * beta / denominator;
+			r -= tpd[topic] * beta / denominator;
+
+			wt[topic] += delta;
+			tpd[topic] += delta;
+			if (delta > 0) {
+				if (tpd[topic] == 1) {
+					addDocTopic(topic);
+				}
+				incrementWordTopic(word, topic);
+			} else {
+				if (tpd[topic] == 0) {
+					removeDocTopic(topic);
+				}
+				decrementWordTopic(word, topic);
+			}
+
+			denominator = betaV + wt[topic];
+			s += alpha * beta / denominator;
+			r += tpd[topic] * beta / denominator;
+			coefficients[topic] = (alpha + tpd[topic]) / denominator;
+		}
+
+
+		private int sampleTopic(int word) {
+			final int[] topics = wordTopics[word];
+			final int[] counts = wordTopicCounts[word];
+			final int numTopics = wordNumTopics[word];
+			if (topicWordValues.length < numTopics) {
+				topicWordValues = new double[Math.max(numTopics, topicWordValues.length * 2)];
+			}
+
+			double q = 0;
+			for (int i = 0; i < numTopics; i++) {
+				double value = coefficients[topics[i]] * counts[i];
+				topicWordValues[i] = value;
+				q += value;
+			}
+
+			double u = random.nextDouble() * (s + r + q);
+
+			if (u < q) {
+				for (int i = 0; i < numTopics; i++) {
+					u -= topicWordValues[i];
+					if (u <= 0) {
+						return topics[i];
+					}
+				}
+				return topics[numTopics - 1];
+			}
+
+			u -= q;
+			if (u < r) {
+				for (int i = 0; i < docNumTopics; i++) {
+					int k = docTopics[i];
+					u -= tpd[k] * beta / (betaV + wt[k]);
+					if (u <= 0) {
+						return k;
+					}
+				}
+				return docTopics[docNumTopics - 1];
+			}
+
+			u -= r;
+			for (int k = 0; k < K; k++) {
+				u -= alpha * beta / (betaV + wt[k]);
+				if (u <= 0) {
+					return k;
+				}
+			}
+			return K - 1;
+		}
+
+
+		private void addDocTopic(int topic) {
+			docTopicPositions[topic] = docNumTopics;
+			docTopics[docNumTopics++] = topic;
+		}
+
+		private void removeDocTopic(int topic) {
+			int position = docTopicPositions[topic];
+			int lastTopic = docTopics[--docNumTopics];
+			docTopics[position] = lastTopic;
+			docTopicPositions[lastTopic] = position;
+		}
+
+
+		/**
+		 * increment n_wk and move the entry forward to keep the counts in descending order
+		 */
+		private void incrementWordTopic(int word, int topic) {
+			int[] topics = wordTopics[word];
+			int[] counts = wordTopicCounts[word];
+			int numTopics = wordNumTopics[word];
+			int i = indexOf(topics, numTopics, topic);
+			if (i < 0) {
+				if (numTopics == topics.length) {
+					int newLength = Math.min(K, numTopics * 2);
+					topics = wordTopics[word] = Arrays.copyOf(topics, newLength);
+					counts = wordTopicCounts[word] = Arrays.copyOf(counts, newLength);
+				}
+				i = numTopics;
+				topics[i] = topic;
+				counts[i] = 0;
+				wordNumTopics[word] = ++numTopics;
+			}
+			int count = ++counts[i];
+			while (i > 0 && counts[i - 1] < count) {
+				topics[i] = topics[i - 1];
+				counts[i] = counts[i - 1];
+				i--;
+			}
+			topics[i] = topic;
+			counts[i] = count;
+		}
+
+
+		/**
+		 * decrement n_wk and move the entry backward to keep the counts in descending order;
+		 * the entry is removed when its count becomes zero
+		 */
+		private void decrementWordTopic(int word, int topic) {
+			int[] topics = wordTopics[word];
+			int[] counts = wordTopicCounts[word];
+			int numTopics = wordNumTopics[word];
+			int i = indexOf(topics, numTopics, topic);
+			int count = --counts[i];
+			while (i < numTopics - 1 && counts[i + 1] > count) {
+				topics[i] = topics[i + 1];
+				counts[i] = counts[i + 1];
+				i++;
+			}
+			topics[i] = topic;
+			counts[i] = count;
+			if (count == 0) {
+				wordNumTopics[word] = numTopics - 1;
+			}
+		}
+
+
+		private int indexOf(int[] topics, int numTopics, int topic) {
+			for (int i = 0; i < numTopics; i++) {
+				if (topics[i] == topic) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+
+		/**
+		 * @return a K * V row major matrix, phis = (n_wk + beta) / (n_k + beta * V)
+		 */
+		private SimpleFloatMatrix getPhis() {
+			float[] phis = new float[K * V];
+			for (int k = 0; k < K; k++) {
+				float value = (float) (beta / (betaV + wt[k]));
+				Arrays.fill(phis, k * V, (k + 1) * V, value);
+			}
+			for (int v = 0; v < V; v++) {
+				int[] topics = wordTopics[v];
+				int[] counts = wordTopicCounts[v];
+				for (int i = 0; i < wordNumTopics[v]; i++) {
+					int k = topics[i];
+					phis[k * V + v] = (float) ((counts[i] + beta) / (betaV + wt[k]));
+				}
+			}
+			return new SimpleFloatMatrix(K, V, phis);
+		}
+	}
+
+}
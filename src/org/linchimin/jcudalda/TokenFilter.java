@@ -0,0 +1,418 @@
+package org.linchimin.jcudalda;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import org.linchimin.common.HashingVocabulary;
+import org.linchimin.common.Vocabulary;
+import org.linchimin.utils.FileUtils;
+
+
+/**
+ * <pre>
+ * a set of word indices removed from documents before they are stored or sampled:
+ *
+ * removeSeparators() : the negative word indices, like the -1 and -2 separators of sentences and paragraphs
+ * removeUnknownToken(vocabulary) : the unknown token "UUUNKKK" of words not in the vocabulary
+ * removeStopwords(vocabulary, stopwords) : the words of a stopword list
+ * removeByDocumentFrequency(documentFrequencies, min, max) : the words of document frequencies outside [min, max],
+ * e.g. from the third column of a word list built by VocabularyBuilder
+ *
+ * A removed token is never sampled, so it costs neither the transfer to the device nor the sampling of any iteration,
+ * and does not take a share of the topics of its document.
+ *
+ * CorpusProcessor.setTokenFilter filters the documents converted by convertTextsToIntsCorpus,
+ * and LDAGPUTrainer.setTokenFilter and LDACPUTrainer.setTokenFilter filter the documents as they are packed into mini-batches;
+ * the numbers of removed tokens by each Reason are counted across threads and printed by toString.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+public class TokenFilter {
+
+	public enum Reason {
+		SEPARATOR, UNKNOWN_TOKEN, STOPWORD, DOCUMENT_FREQUENCY
+	}
+
+	private static final Reason[] REASONS = Reason.values();
+
+	private final int V;
+
+	/**
+	 * reasons[wordIndex] : 0 if the word is kept; otherwise 1 + the ordinal of the Reason it is removed for
+	 */
+	private final byte[] reasons;
+
+	private boolean removesSeparators = false;
+
+	private final AtomicLong numTokens = new AtomicLong();
+
+	/**
+	 * numRemovedTokens[reason.ordinal()]
+	 */
+	private final AtomicLongArray numRemovedTokens = new AtomicLongArray(REASONS.length);
+
+
+	/**
+	 * @param V : the vocabulary size; word indices >= V are kept, to be rejected by the trainers as before
+	 */
+	public TokenFilter(int V) {
+		if (V <= 0) {
+			throw new IllegalArgumentException("IllegalArgumentException: V = " + V + " <= 0");
+		}
+		this.V = V;
+		this.reasons = new byte[V];
+	}
+
+
+	public int getV() {
+		return V;
+	}
+
+	/**
+	 * remove the negative word indices, like the -1 and -2 separators of sentences and paragraphs
+	 */
+	public void removeSeparators() {
+		this.removesSeparators = true;
+	}
+
+	/**
+	 * remove 'wordIndex' for 'reason', unless it is already removed for another reason
+	 */
+	public void removeWord(int wordIndex, Reason reason) {
+		if (wordIndex < 0 || wordIndex >= V) {
+			throw new IndexOutOfBoundsException("IndexOutOfBoundsException: wordIndex = " + wordIndex + ", V = " + V);
+		}
+		if (reasons[wordIndex] == 0) {
+			reasons[wordIndex] = (byte) (reason.ordinal() + 1);
+		}
+	}
+
+	/**
+	 * remove the unknown token of 'vocabulary'; a HashingVocabulary is rejected, since it has no unknown token 
+	 * and the bucket of "UUUNKKK" is shared by real words
+	 */
+	public void removeUnknownToken(Vocabulary vocabulary) {
+		checkVocabulary(vocabulary);
+		if (vocabulary instanceof HashingVocabulary) {
+			throw new IllegalArgumentException("IllegalArgumentException: a HashingVocabulary has no unknown token to remove");
+		}
+		int unknownTokenIndex = vocabulary.lookupIndex(LDAGPUTrainer.UNKNOWN_TOKEN);
+		if (unknownTokenIndex < 0) {
+			throw new IllegalArgumentException("IllegalArgumentException: the vocabulary does not contain the unknown token " + LDAGPUTrainer.UNKNOWN_TOKEN);
+		}
+		removeWord(unknownTokenIndex, Reason.UNKNOWN_TOKEN);
+	}
+
+	/**
+	 * remove the lower cases of 'stopwords'; with a HashingVocabulary, the other words of their buckets are also removed
+	 * @return number of stopwords found in 'vocabulary'
+	 */
+	public int removeStopwords(Vocabulary vocabulary, Collection<String> stopwords) {
+		checkVocabulary(vocabulary);
+		int numFound = 0;
+		for (String stopword : stopwords) {
+			String word = stopword.trim().toLowerCase();
+			if (word.isEmpty()) {
+				continue;
+			}
+			int wordIndex = vocabulary.lookupIndex(word);
+			if (wordIndex >= 0) {
+				removeWord(wordIndex, Reason.STOPWORD);
+				numFound++;
+			}
+		}
+		return numFound;
+	}
+
+	/**
+	 * remove the stopwords of a file of one stopword per line
+	 * @return number of stopwords found in 'vocabulary'
+	 */
+	public int removeStopwords(Vocabulary vocabulary, String stopwordsFilePath) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stopwordsFilePath), StandardCharsets.UTF_8))) {
+			return removeStopwords(vocabulary, FileUtils.readLines(reader));
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot read " + stopwordsFilePath, e);
+		}
+	}
+
+	/**
+	 * remove the words whose document frequencies are outside [minDocumentFrequency, maxDocumentFrequency]
+	 * @param documentFrequencies : documentFrequencies[wordIndex]; the word indices >= documentFrequencies.length,
+	 * like the unknown token appended to a word list, are kept
+	 * @return number of words removed for their document frequencies
+	 */
+	public int removeByDocumentFrequency(int[] documentFrequencies, int minDocumentFrequency, int maxDocumentFrequency) {
+		if (documentFrequencies.length > V || minDocumentFrequency > maxDocumentFrequency) {
+			throw new IllegalArgumentException("IllegalArgumentException: documentFrequencies.length = " + documentFrequencies.length
+					+ ", V = " + V + ", minDocumentFrequency = " + minDocumentFrequency + ", maxDocumentFrequency = " + maxDocumentFrequency);
+		}
+		int numRemoved = 0;
+		for (int wordIndex = 0; wordIndex < documentFrequencies.length; wordIndex++) {
+			int documentFrequency = documentFrequencies[wordIndex];
+			if (documentFrequency < minDocumentFrequency || documentFrequency > maxDocumentFrequency) {
+				removeWord(wordIndex, Reason.DOCUMENT_FREQUENCY);
+				numRemoved++;
+			}
+		}
+		return numRemoved;
+	}
+
+	/**
+	 * @return the document frequencies of the third column of a word list of lines "word \t term frequency \t document frequency",
+	 * like those written by VocabularyBuilder.buildWordList, indexed the same as the words
+	 */
+	public static int[] readDocumentFrequencies(String wordListFilePath) {
+		final Pattern spaceOrTabPattern = Pattern.compile("[\t ]");
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(wordListFilePath), StandardCharsets.UTF_8))) {
+			ArrayList<String> lines = FileUtils.readLines(reader);
+			int[] documentFrequencies = new int[lines.size()];
+			for (int i = 0; i < documentFrequencies.length; i++) {
+				String[] columns = spaceOrTabPattern.split(lines.get(i));
+				if (columns.length < 3) {
+					throw new IllegalArgumentException("IllegalArgumentException: no document frequency at line " + (i + 1)
+							+ " of " + wordListFilePath + ": " + lines.get(i));
+				}
+				documentFrequencies[i] = Integer.parseInt(columns[2]);
+			}
+			return documentFrequencies;
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot read " + wordListFilePath, e);
+		}
+	}
+
+
+	private void checkVocabulary(Vocabulary vocabulary) {
+		if (vocabulary.size() != V) {
+			throw new IllegalArgumentException("IllegalArgumentException: vocabulary.size() = " + vocabulary.size() + " != V = " + V);
+		}
+	}
+
+
+	/**
+	 * @return the Reason 'wordIndex' is removed for, or null if kept
+	 */
+	public Reason getReason(int wordIndex) {
+		if (wordIndex < 0) {
+			return removesSeparators ? Reason.SEPARATOR : null;
+		}
+		if (wordIndex >= V || reasons[wordIndex] == 0) {
+			return null;
+		}
+		return REASONS[reasons[wordIndex] - 1];
+	}
+
+	public boolean isRemoved(int wordIndex) {
+		if (wordIndex < 0) {
+			return removesSeparators;
+		}
+		return wordIndex < V && reasons[wordIndex] != 0;
+	}
+
+
+	/**
+	 * @return 'wordIndices' if no word is removed; otherwise a new array of the kept word indices in the same order
+	 */
+	public int[] filter(int[] wordIndices) {
+		int numKept = countKept(wordIndices, 0, wordIndices.length);
+		if (numKept == wordIndices.length) {
+			count(wordIndices.length, null);
+			return wordIndices;
+		}
+		int[] result = new int[numKept];
+		long[] tokenCounts = newTokenCounts();
+		copyKept(wordIndices, 0, wordIndices.length, null, result, null, 0, tokenCounts);
+		count(tokenCounts);
+		return result;
+	}
+
+
+	/**
+	 * @return 'miniBatch' if no word is removed; otherwise a new mini-batch of the kept word indices,
+	 * and of their frequencies for a bag-of-words mini-batch
+	 */
+	public MiniBatch filter(MiniBatch miniBatch) {
+		final int numDocuments = miniBatch.getNumDocuments();
+		int[] offsets = miniBatch.getDocsWordOffsets();
+		int[] counts = miniBatch.getDocsWordCounts();
+		IntBuffer indices = miniBatch.getDocsWordIndices();
+		IntBuffer frequencies = miniBatch.getDocsWordFrequencies();
+
+		int[] documentWordCounts = new int[numDocuments];
+		int numKept = 0;
+		for (int m = 0; m < numDocuments; m++) {
+			int end = offsets[m] + counts[m];
+			for (int i = offsets[m]; i < end; i++) {
+				if (isRemoved(indices.get(i)) == false) {
+					documentWordCounts[m]++;
+				}
+			}
+			numKept += documentWordCounts[m];
+		}
+		if (numKept == miniBatch.getNumWords()) {
+			count(miniBatch.getNumTokens(), null);
+			return miniBatch;
+		}
+
+		int[] documentWordOffsets = LDAUtils.cumulativeSums(documentWordCounts, true);
+		int[] keptIndices = new int[numKept];
+		int[] keptFrequencies = (frequencies != null) ? new int[numKept] : null;
+		long[] removed = new long[REASONS.length];
+		long numSeen = 0;
+		for (int m = 0; m < numDocuments; m++) {
+			int position = documentWordOffsets[m];
+			int end = offsets[m] + counts[m];
+			for (int i = offsets[m]; i < end; i++) {
+				int wordIndex = indices.get(i);
+				int frequency = (frequencies != null) ? frequencies.get(i) : 1;
+				numSeen += frequency;
+				Reason reason = getReason(wordIndex);
+				if (reason == null) {
+					keptIndices[position] = wordIndex;
+					if (keptFrequencies != null) {
+						keptFrequencies[position] = frequency;
+					}
+					position++;
+				} else {
+					removed[reason.ordinal()] += frequency;
+				}
+			}
+		}
+		count(numSeen, removed);
+		return new MiniBatch(documentWordCounts, documentWordOffsets, IntBuffer.wrap(keptIndices),
+				(keptFrequencies != null) ? IntBuffer.wrap(keptFrequencies) : null, numDocuments);
+	}
+
+
+	/**
+	 * @return number of the word indices of array[start, end) that are kept
+	 */
+	int countKept(int[] wordIndices, int start, int end) {
+		int numKept = 0;
+		for (int i = start; i < end; i++) {
+			if (isRemoved(wordIndices[i]) == false) {
+				numKept++;
+			}
+		}
+		return numKept;
+	}
+
+
+	/**
+	 * copy the kept word indices of wordIndices[start, end), and their frequencies if not null, to 'target' from 'targetOffset',
+	 * and add the tokens to 'tokenCounts' of newTokenCounts, which a caller of many documents passes to 'count' once
+	 * @return number of copied word indices
+	 */
+	int copyKept(int[] wordIndices, int start, int end, int[] wordFrequencies, int[] target, int[] targetFrequencies, int targetOffset, 
+			long[] tokenCounts) {
+		long numSeen = 0;
+		int position = targetOffset;
+		for (int i = start; i < end; i++) {
+			int wordIndex = wordIndices[i];
+			int frequency = (wordFrequencies != null) ? wordFrequencies[i] : 1;
+			numSeen += frequency;
+			Reason reason = getReason(wordIndex);
+			if (reason == null) {
+				target[position] = wordIndex;
+				if (targetFrequencies != null) {
+					targetFrequencies[position] = frequency;
+				}
+				position++;
+			} else {
+				tokenCounts[reason.ordinal()] += frequency;
+			}
+		}
+		tokenCounts[REASONS.length] += numSeen;
+		return position - targetOffset;
+	}
+
+
+	/**
+	 * @return the counts of copyKept: the removed tokens by the ordinals of the Reasons, and the filtered tokens at [REASONS.length]
+	 */
+	static long[] newTokenCounts() {
+		return new long[REASONS.length + 1];
+	}
+
+	/**
+	 * add 'tokenCounts' of copyKept to the counts of this filter
+	 */
+	void count(long[] tokenCounts) {
+		count(tokenCounts[REASONS.length], tokenCounts);
+	}
+
+
+	private void count(long numSeen, long[] removed) {
+		numTokens.addAndGet(numSeen);
+		if (removed != null) {
+			for (int r = 0; r < REASONS.length; r++) {
+				if (removed[r] != 0) {
+					numRemovedTokens.addAndGet(r, removed[r]);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * @return number of tokens filtered since the last resetCounts, including the removed ones
+	 */
+	public long getNumTokens() {
+		return numTokens.get();
+	}
+
+	/**
+	 * @return number of tokens removed for 'reason' since the last resetCounts
+	 */
+	public long getNumRemovedTokens(Reason reason) {
+		return numRemovedTokens.get(reason.ordinal());
+	}
+
+	/**
+	 * @return number of tokens removed for any reason since the last resetCounts
+	 */
+	public long getNumRemovedTokens() {
+		long result = 0;
+		for (Reason reason : REASONS) {
+			result += getNumRemovedTokens(reason);
+		}
+		return result;
+	}
+
+	public void resetCounts() {
+		numTokens.set(0);
+		for (int r = 0; r < REASONS.length; r++) {
+			numRemovedTokens.set(r, 0);
+		}
+	}
+
+
+	/**
+	 * @return the numbers of tokens removed by each Reason and in total, with their percentages of the filtered tokens
+	 */
+	@Override
+	public String toString() {
+		long tokens = getNumTokens();
+		StringBuilder builder = new StringBuilder("TokenFilter [tokens = ").append(tokens);
+		for (Reason reason : REASONS) {
+			builder.append(", ").append(reason.name().toLowerCase()).append(" = ").append(percentage(getNumRemovedTokens(reason), tokens));
+		}
+		builder.append(", removed = ").append(percentage(getNumRemovedTokens(), tokens));
+		return builder.append(']').toString();
+	}
+
+	private static String percentage(long count, long total) {
+		return count + " (" + String.format("%.2f", (total > 0) ? 100.0 * count / total : 0.0) + "%)";
+	}
+
+}
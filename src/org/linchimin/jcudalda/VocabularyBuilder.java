@@ -0,0 +1,368 @@
+package org.linchimin.jcudalda;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.linchimin.common.CountMinSketch;
+import org.linchimin.common.VocabularyIndex;
+import org.linchimin.common.WordCounts;
+import org.linchimin.utils.ArgumentChecker;
+import org.linchimin.utils.FileUtils;
+
+import smile.nlp.tokenizer.PennTreebankScanner;
+
+
+/**
+ * <pre>
+ * Build a vocabulary word list like "resources/enVocabulary-45k.txt" from a directory of text files of format like "resources/example-docs.txt",
+ * tokenized and lower-cased the same as CorpusProcessor.lookupTextWordIndices:
+ *
+ * 1. each of 'numThreads' threads takes the text files one at a time and counts the term and document frequencies of the words
+ * in its own WordCounts, a primitive map keyed by the spans of the texts; the maps are merged at the end;
+ * 2. the words of document frequency < minDocumentFrequency or > maxDocumentFrequencyRatio * number of documents are removed,
+ * and the remaining words are sorted by term frequency in descending order and cut to the first maxVocabularySize words.
+ *
+ * The words are written one per line as "word \t term frequency \t document frequency",
+ * which Dictionary.loadFromWordList and CorpusProcessor read by the first column.
+ * The vocabulary size V is the number of columns of the phis matrix, so pruning rare and very common words
+ * directly reduces the memory of the phis and the sampling cost of each iteration.
+ *
+ * For corpora whose distinct tokens do not fit in memory, e.g. with many misspellings and numbers, setCountMinSketch(width, depth)
+ * adds a first pass that counts the document frequencies in a shared CountMinSketch of fixed memory;
+ * the second pass then keeps only the words whose estimated document frequency is at least minDocumentFrequency.
+ * The estimates are never less than the true document frequencies, so the result is the same as without the sketch,
+ * and the maps keep only the frequent words and those sharing counters with them.
+ *
+ * Example:
+ *
+ * VocabularyBuilder builder = new VocabularyBuilder();
+ * builder.setMinDocumentFrequency(5);
+ * builder.setMaxDocumentFrequencyRatio(0.5f);
+ * builder.setMaxVocabularySize(100000);
+ * builder.buildWordList(textsCorpusDirectory, "vocabulary.txt");
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+public class VocabularyBuilder {
+
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
+	private int minDocumentFrequency = 1;
+
+	private float maxDocumentFrequencyRatio = 1f;
+
+	private int maxVocabularySize = Integer.MAX_VALUE;
+
+	/**
+	 * 0 if the document frequencies are not sketched
+	 */
+	private int sketchWidth = 0;
+
+	private int sketchDepth = 0;
+
+	/**
+	 * the counts of the last 'build', before pruning
+	 */
+	private WordCounts wordCounts;
+
+	private int numDocuments;
+
+
+	public void setNumThreads(int numThreads) {
+		ArgumentChecker.checkLarger(numThreads, 0);
+		this.numThreads = numThreads;
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * remove the words that appear in fewer than 'minDocumentFrequency' documents; 1 by default
+	 */
+	public void setMinDocumentFrequency(int minDocumentFrequency) {
+		ArgumentChecker.checkLarger(minDocumentFrequency, 0);
+		this.minDocumentFrequency = minDocumentFrequency;
+	}
+
+	public int getMinDocumentFrequency() {
+		return minDocumentFrequency;
+	}
+
+	/**
+	 * remove the words that appear in more than 'maxDocumentFrequencyRatio' of the documents, like stop words for 0.5; 1 by default
+	 */
+	public void setMaxDocumentFrequencyRatio(float maxDocumentFrequencyRatio) {
+		if ((maxDocumentFrequencyRatio > 0 && maxDocumentFrequencyRatio <= 1) == false) {
+			throw new IllegalArgumentException("IllegalArgumentException: maxDocumentFrequencyRatio = " + maxDocumentFrequencyRatio + " not in (0, 1]");
+		}
+		this.maxDocumentFrequencyRatio = maxDocumentFrequencyRatio;
+	}
+
+	public float getMaxDocumentFrequencyRatio() {
+		return maxDocumentFrequencyRatio;
+	}
+
+	/**
+	 * keep at most the 'maxVocabularySize' most frequent words; unlimited by default
+	 */
+	public void setMaxVocabularySize(int maxVocabularySize) {
+		ArgumentChecker.checkLarger(maxVocabularySize, 0);
+		this.maxVocabularySize = maxVocabularySize;
+	}
+
+	public int getMaxVocabularySize() {
+		return maxVocabularySize;
+	}
+
+	/**
+	 * <pre>
+	 * count the document frequencies in a CountMinSketch of 4 * width * depth bytes first, and count only the words
+	 * whose estimated document frequency is at least minDocumentFrequency; the texts are then read twice.
+	 * A width of a few times the number of distinct words of document frequency >= minDocumentFrequency, and a depth of 4,
+	 * keep few of the rare words. Has no effect if minDocumentFrequency is 1.
+	 * </pre>
+	 * @param width : 0 to disable the sketch
+	 */
+	public void setCountMinSketch(int width, int depth) {
+		if (width < 0 || (width > 0 && depth <= 0)) {
+			throw new IllegalArgumentException("IllegalArgumentException: width = " + width + ", depth = " + depth);
+		}
+		this.sketchWidth = width;
+		this.sketchDepth = (width > 0) ? depth : 0;
+	}
+
+	/**
+	 * @return the counts of the words of the last 'build' before pruning, or null before 'build'
+	 */
+	public WordCounts getWordCounts() {
+		return wordCounts;
+	}
+
+	/**
+	 * @return number of documents of the last 'build'
+	 */
+	public int getNumDocuments() {
+		return numDocuments;
+	}
+
+
+	/**
+	 * build the vocabulary of 'textsCorpusDirectory' and write it to 'wordListFilePath'
+	 * @return number of words written
+	 */
+	public int buildWordList(String textsCorpusDirectory, String wordListFilePath) {
+		int[] wordIndices = build(textsCorpusDirectory);
+		File parent = new File(wordListFilePath).getAbsoluteFile().getParentFile();
+		if (parent != null && parent.exists() == false) {
+			parent.mkdirs();
+		}
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(wordListFilePath), StandardCharsets.UTF_8))) {
+			for (int wordIndex : wordIndices) {
+				writer.write(wordCounts.getWord(wordIndex));
+				writer.write('\t');
+				writer.write(Long.toString(wordCounts.getTermFrequency(wordIndex)));
+				writer.write('\t');
+				writer.write(Integer.toString(wordCounts.getDocumentFrequency(wordIndex)));
+				writer.write('\n');
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot write " + wordListFilePath, e);
+		}
+		return wordIndices.length;
+	}
+
+
+	/**
+	 * count and prune the words of 'textsCorpusDirectory'
+	 * @return indices of the kept words in getWordCounts(), sorted by term frequency in descending order,
+	 * then by document frequency in descending order, then by word
+	 */
+	public int[] build(String textsCorpusDirectory) {
+		ArrayList<String> textFilePaths = FileUtils.getFileListRecursively(textsCorpusDirectory);
+		if (textFilePaths == null) {
+			throw new IllegalArgumentException("IllegalArgumentException: not a directory: " + textsCorpusDirectory);
+		}
+		Collections.sort(textFilePaths);
+		long startTime = System.currentTimeMillis();
+
+		CountMinSketch sketch = null;
+		if (sketchWidth > 0 && minDocumentFrequency > 1) {
+			sketch = new CountMinSketch(sketchWidth, sketchDepth);
+			countAll(textFilePaths, sketch, null);
+			System.out.println("VocabularyBuilder.build() sketched the document frequencies of " + numDocuments + " documents with " + sketch
+					+ ", seconds = " + (System.currentTimeMillis() - startTime) / 1000f);
+		}
+		this.wordCounts = countAll(textFilePaths, null, sketch);
+
+		final WordCounts counts = wordCounts;
+		long maxDocumentFrequency = (long) Math.floor((double) maxDocumentFrequencyRatio * numDocuments);
+		ArrayList<Integer> kept = new ArrayList<Integer>();
+		for (int i = 0; i < counts.size(); i++) {
+			int documentFrequency = counts.getDocumentFrequency(i);
+			if (documentFrequency >= minDocumentFrequency && documentFrequency <= maxDocumentFrequency) {
+				kept.add(i);
+			}
+		}
+		final String[] words = new String[counts.size()];
+		Collections.sort(kept, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				int result = Long.compare(counts.getTermFrequency(i2), counts.getTermFrequency(i1));
+				if (result == 0) {
+					result = Integer.compare(counts.getDocumentFrequency(i2), counts.getDocumentFrequency(i1));
+				}
+				if (result == 0) {
+					result = word(i1).compareTo(word(i2));
+				}
+				return result;
+			}
+
+			private String word(int i) {
+				if (words[i] == null) {
+					words[i] = counts.getWord(i);
+				}
+				return words[i];
+			}
+		});
+
+		int[] result = new int[Math.min(kept.size(), maxVocabularySize)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = kept.get(i);
+		}
+		System.out.println("VocabularyBuilder.build() text files = " + textFilePaths.size() + ", documents = " + numDocuments
+				+ ", counted words = " + counts.size() + ", kept words = " + result.length
+				+ ", seconds = " + (System.currentTimeMillis() - startTime) / 1000f);
+		return result;
+	}
+
+
+	/**
+	 * count the words of the text files by 'numThreads' threads, each with its own WordCounts, and merge them;
+	 * only the document frequencies are added to 'sketchToAdd' if not null;
+	 * only the words of estimated document frequency >= minDocumentFrequency are counted if 'sketchToCheck' is not null
+	 * @return the merged counts, or null if 'sketchToAdd' is not null
+	 */
+	private WordCounts countAll(final ArrayList<String> textFilePaths, final CountMinSketch sketchToAdd, final CountMinSketch sketchToCheck) {
+		final AtomicInteger nextTextFileIndex = new AtomicInteger();
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		ArrayList<ForkJoinTask<WordCounts>> tasks = new ArrayList<ForkJoinTask<WordCounts>>(numThreads);
+		final int[] numThreadDocuments = new int[numThreads];
+		try {
+			for (int t = 0; t < numThreads; t++) {
+				final int thread = t;
+				tasks.add(pool.submit(new Callable<WordCounts>() {
+					@Override
+					public WordCounts call() {
+						WordCounts counts = (sketchToAdd == null) ? new WordCounts() : null;
+						int document = 0;
+						for (int i = nextTextFileIndex.getAndIncrement(); i < textFilePaths.size(); i = nextTextFileIndex.getAndIncrement()) {
+							document = countDocuments(textFilePaths.get(i), document, counts, sketchToAdd, sketchToCheck);
+						}
+						numThreadDocuments[thread] = document;
+						return counts;
+					}
+				}));
+			}
+			WordCounts result = null;
+			long numDocuments = 0;
+			for (int t = 0; t < numThreads; t++) {
+				WordCounts counts = tasks.get(t).get();
+				numDocuments += numThreadDocuments[t];
+				if (counts == null) {
+					continue;
+				}
+				if (result == null || result.size() < counts.size()) {
+					WordCounts swapped = result;
+					result = counts;
+					counts = swapped;
+				}
+				if (counts != null) {
+					result.addAll(counts);
+				}
+			}
+			if (numDocuments > Integer.MAX_VALUE) {
+				throw new IllegalStateException("IllegalStateException: too many documents: " + numDocuments);
+			}
+			this.numDocuments = (int) numDocuments;
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("IllegalStateException: interrupted while counting the words", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("IllegalStateException: cannot count the words", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * count the documents of a text file
+	 * @param document : number of documents counted by the thread so far
+	 * @return number of documents counted by the thread including those of the file
+	 */
+	private int countDocuments(String textFilePath, int document, WordCounts counts, CountMinSketch sketchToAdd, CountMinSketch sketchToCheck) {
+		PennTreebankScanner scanner = new PennTreebankScanner();
+		StringBuilder builder = new StringBuilder(2000);
+		int[] hashes = new int[256];
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(textFilePath), StandardCharsets.UTF_8))) {
+			for (;;) {
+				CharSequence docText = CorpusProcessor.nextDocText(reader, builder);
+				if (docText == null) {
+					break;
+				}
+				document++;
+				int numTokens = scanner.scan(docText);
+				if (sketchToAdd != null && hashes.length < numTokens) {
+					hashes = new int[Math.max(numTokens, hashes.length * 2)];
+				}
+				for (int t = 0; t < numTokens; t++) {
+					CharSequence text = docText;
+					int start = scanner.getTokenStart(t);
+					int end = scanner.getTokenEnd(t);
+					if (scanner.isPeriodAppended(t)) {
+						text = scanner.getToken(docText, t);
+						start = 0;
+						end = text.length();
+					}
+					if (sketchToAdd != null) {
+						hashes[t] = VocabularyIndex.lowerCaseHashCode(text, start, end);
+					} else if (sketchToCheck == null || sketchToCheck.estimate(VocabularyIndex.lowerCaseHashCode(text, start, end)) >= minDocumentFrequency) {
+						counts.add(text, start, end, document);
+					}
+				}
+				if (sketchToAdd != null) {
+					// each distinct hash of the document once
+					Arrays.sort(hashes, 0, numTokens);
+					for (int t = 0; t < numTokens; t++) {
+						if (t == 0 || hashes[t] != hashes[t - 1]) {
+							sketchToAdd.add(hashes[t]);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("IllegalStateException: cannot read " + textFilePath, e);
+		}
+		return document;
+	}
+
+}
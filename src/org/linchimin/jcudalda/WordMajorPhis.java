@@ -0,0 +1,134 @@
+package org.linchimin.jcudalda;
+
+import org.ejml_float.simple.SimpleFloatMatrix;
+
+/**
+ * <pre>
+ * the phis of an LDA model, the probabilities of words given topics, stored word by word:
+ *
+ * data[v * K + k] : the probability of word v given topic k
+ *
+ * The phis files are K * V row major matrices, where the K probabilities of a word are V floats apart,
+ * so the sampling loops over K topics for a word would touch K cache lines;
+ * here they are contiguous, in one or two cache lines for a small K.
+ * It is the same column major layout as the device matrices and the wpt and phis of LDAHostUtils,
+ * so it is built once when a model is loaded, and used by both backends without further copies.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ *
+ */
+public final class WordMajorPhis {
+
+	/**
+	 * the tiles of the transposes are TILE_SIZE * TILE_SIZE floats, so the rows read and the rows written of a tile stay in the cache
+	 */
+	private static final int TILE_SIZE = 64;
+
+	private final int K;
+
+	private final int V;
+
+	private final float[] data;
+
+
+	/**
+	 * @param data : K * V probabilities stored word by word; not copied
+	 */
+	WordMajorPhis(int K, int V, float[] data) {
+		if (K <= 0 || V <= 0 || (long) K * V != data.length) {
+			throw new IllegalArgumentException("IllegalArgumentException: K = " + K + ", V = " + V + ", data.length = " + data.length);
+		}
+		this.K = K;
+		this.V = V;
+		this.data = data;
+	}
+
+
+	/**
+	 * @param rowMajorPhis : a K * V row major matrix, the format of the phis files produced by the trainers
+	 */
+	public static WordMajorPhis fromRowMajor(SimpleFloatMatrix rowMajorPhis) {
+		int K = rowMajorPhis.numRows();
+		int V = rowMajorPhis.numCols();
+		return new WordMajorPhis(K, V, transpose(rowMajorPhis.getData(), K, V));
+	}
+
+
+	/**
+	 * load a phis file, a K * V row major matrix, and transpose it; the row major matrix is not kept
+	 */
+	public static WordMajorPhis load(String phisSerPath) {
+		SimpleFloatMatrix rowMajorPhis = SimpleFloatMatrix.loadFromBinary(phisSerPath);
+		if (rowMajorPhis == null) {
+			throw new IllegalArgumentException("IllegalArgumentException: cannot load the phis matrix of " + phisSerPath);
+		}
+		return fromRowMajor(rowMajorPhis);
+	}
+
+
+	/**
+	 * @return a K * V row major matrix, the format of the phis files
+	 */
+	public SimpleFloatMatrix toRowMajor() {
+		return new SimpleFloatMatrix(K, V, transpose(data, V, K));
+	}
+
+
+	/**
+	 * @return a numCols * numRows row major matrix, the transpose of the numRows * numCols row major 'matrix'
+	 */
+	static float[] transpose(float[] matrix, int numRows, int numCols) {
+		float[] result = new float[matrix.length];
+		for (int startRow = 0; startRow < numRows; startRow += TILE_SIZE) {
+			int endRow = Math.min(startRow + TILE_SIZE, numRows);
+			for (int startCol = 0; startCol < numCols; startCol += TILE_SIZE) {
+				int endCol = Math.min(startCol + TILE_SIZE, numCols);
+				for (int row = startRow; row < endRow; row++) {
+					int offset = row * numCols;
+					for (int col = startCol; col < endCol; col++) {
+						result[col * numRows + row] = matrix[offset + col];
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * number of topics
+	 */
+	public int getK() {
+		return K;
+	}
+
+	/**
+	 * number of vocabulary words
+	 */
+	public int getV() {
+		return V;
+	}
+
+	/**
+	 * @return the probability of word 'v' given topic 'k'
+	 */
+	public float get(int k, int v) {
+		return data[v * K + k];
+	}
+
+	/**
+	 * @return the offset of the K probabilities of word 'v' in 'getData()'
+	 */
+	public int getWordOffset(int v) {
+		return v * K;
+	}
+
+	/**
+	 * @return the probabilities stored word by word; not a copy
+	 */
+	float[] getData() {
+		return data;
+	}
+
+}
@@ -1,5 +1,7 @@
 package org.linchimin.utils;
 
+import java.nio.IntBuffer;
+
 
 
 
@@ -36,6 +38,19 @@ public class ArgumentChecker {
 		}
 	}
 	
+	/**
+	 * check if all indices at positions from 'fromPosition' (inclusive) to 'toPosition' (exclusive) are in bounds
+	 */
+	public static void checkAllInBounds(IntBuffer indices, final int fromPosition, final int toPosition, final int startIndex, final int endIndex){
+		for (int i = fromPosition; i < toPosition; i++) {
+			int index = indices.get(i);
+			if (index < startIndex || index >= endIndex) {
+				throw new IndexOutOfBoundsException("IndexOutOfBoundsException: index = "
+						+ index + ", startIndex = " + startIndex + ", endIndex = " + endIndex);
+			}
+		}
+	}
+	
 	/**
 	 * check if the values are of non-decrasing order
 	 * @param values
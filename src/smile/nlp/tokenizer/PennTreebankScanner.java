@@ -0,0 +1,376 @@
+package smile.nlp.tokenizer;
+
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * A single-pass scanner that produces the same tokens as the regular expressions of
+ * PennTreebankTokenizer.splitWithRegex, without rewriting the text once per regular expression.
+ *
+ * All the rewrites of the regular expressions only insert spaces, so the text is scanned
+ * by runs of non-whitespace characters, 'chunks', and the spaces that the contractions,
+ * delimiters, commas, single quotes, and final periods would insert are marked as splits of the chunk,
+ * in the same order as the regular expressions, including their quirks:
+ * - word boundaries treat Unicode letters and digits as word characters, as java.util.regex does by default,
+ *   while the delimiters separate every character other than ASCII letters, digits, '_', '.', ''', '-', '/', ',', and '&amp;';
+ * - the text starting with a separated character or a whitespace yields a leading empty token,
+ *   the same as Pattern.split.
+ *
+ * Each token is a span [getTokenStart(i), getTokenEnd(i)) of the text, except that
+ * the abbreviation rule may append a '.' to the second last token; see isPeriodAppended.
+ *
+ * An instance reuses its buffers and is not thread-safe; use one instance per thread.
+ * </pre>
+ *
+ * @author Lin Chi-Min (v381654729@gmail.com)
+ */
+public final class PennTreebankScanner {
+
+    /**
+     * the contractions of CONTRACTIONS2 and CONTRACTIONS3 of PennTreebankTokenizer except the first one,
+     * matched as whole words in lower case, and the offsets of the inserted spaces
+     */
+    private static final String[] WORD_CONTRACTIONS = {
+        "cannot", "d'ye", "gimme", "gonna", "gotta", "lemme", "mor'n", "tis", "twas", "wanna", "whadddya", "whatcha"
+    };
+
+    private static final int[][] WORD_CONTRACTION_SPLITS = {
+        {3}, {1}, {3}, {3}, {3}, {3}, {3}, {1}, {1}, {3}, {4, 6}, {3, 4}
+    };
+
+    /**
+     * the suffixes of the first contraction of CONTRACTIONS2, in lower case
+     */
+    private static final String[] SUFFIX_CONTRACTIONS = {
+        "'ll", "'re", "'ve", "n't", "'s", "'m", "'d"
+    };
+
+    private int[] tokenStarts = new int[256];
+
+    private int[] tokenEnds = new int[256];
+
+    private int numTokens;
+
+    /**
+     * -1, or the token followed by an appended '.' that is not the next character of the text
+     */
+    private int periodAppendedToken;
+
+    /**
+     * splits[i] : a space is inserted before the i-th character of the current chunk
+     */
+    private boolean[] splits = new boolean[256];
+
+
+    /**
+     * scan 'text' to tokens
+     * @return number of tokens
+     */
+    public int scan(CharSequence text) {
+        numTokens = 0;
+        periodAppendedToken = -1;
+        int length = text.length();
+        if (length == 0) {
+            addToken(0, 0);
+            return numTokens;
+        }
+        if (isSpace(text.charAt(0))) {
+            addToken(0, 0);
+        }
+
+        int i = 0;
+        while (i < length) {
+            if (isSpace(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int chunkStart = i;
+            while (i < length && isSpace(text.charAt(i)) == false) {
+                i++;
+            }
+            scanChunk(text, chunkStart, i);
+        }
+
+        if (numTokens == 1 && tokenEnds[0] == 0) {
+            // only the leading empty token; Pattern.split removes trailing empty strings
+            numTokens = 0;
+        }
+
+        if (numTokens > 1 && isPeriod(text, numTokens - 1)) {
+            int previous = numTokens - 2;
+            if (EnglishAbbreviations.contains(text.subSequence(tokenStarts[previous], tokenEnds[previous]).toString())) {
+                if (tokenEnds[previous] == tokenStarts[numTokens - 1]) {
+                    tokenEnds[previous]++;
+                } else {
+                    periodAppendedToken = previous;
+                }
+            }
+        }
+        return numTokens;
+    }
+
+
+    /**
+     * @return the tokens of 'text', the same as PennTreebankTokenizer.splitWithRegex
+     */
+    public String[] split(CharSequence text) {
+        scan(text);
+        String[] words = new String[numTokens];
+        for (int t = 0; t < numTokens; t++) {
+            words[t] = getToken(text, t);
+        }
+        return words;
+    }
+
+
+    private boolean isPeriod(CharSequence text, int token) {
+        return tokenEnds[token] - tokenStarts[token] == 1 && text.charAt(tokenStarts[token]) == '.';
+    }
+
+
+    private void scanChunk(CharSequence text, int start, int end) {
+        int n = end - start;
+        if (splits.length < n + 1) {
+            splits = new boolean[Math.max(n + 1, splits.length * 2)];
+        }
+        for (int i = 0; i <= n; i++) {
+            splits[i] = false;
+        }
+        boolean isFollowedBySpace = end < text.length();
+
+        // CONTRACTIONS2[0] "(?i)(.)('ll|'re|'ve|n't|'s|'m|'d)\\b", matched on the original text;
+        // the (.) at position p may be the whitespace before the chunk
+        int p = (start > 0) ? -1 : 0;
+        while (p + 1 < n) {
+            char dot = text.charAt(start + p);
+            if (isLineTerminator(dot) == false) {
+                int suffixLength = matchSuffixContraction(text, start + p + 1, end);
+                if (suffixLength > 0) {
+                    int q = start + p + 1 + suffixLength;
+                    if (q == end || isWordOrMark(Character.codePointAt(text, q)) == false) {
+                        splits[p + 1] = true;
+                        p = p + 1 + suffixLength;
+                        continue;
+                    }
+                }
+            }
+            p++;
+        }
+
+        // the other contractions, whole words between word boundaries
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(start + i);
+            if (isAsciiLetter(c) == false || isBoundaryBefore(text, start, i) == false) {
+                continue;
+            }
+            for (int w = 0; w < WORD_CONTRACTIONS.length; w++) {
+                String word = WORD_CONTRACTIONS[w];
+                int wordEnd = i + word.length();
+                if (wordEnd <= n && matchesIgnoreCase(text, start + i, word) && hasNoSplits(i + 1, wordEnd)
+                        && (wordEnd == n || splits[wordEnd] || isWordOrMark(Character.codePointAt(text, start + wordEnd)) == false)) {
+                    for (int offset : WORD_CONTRACTION_SPLITS[w]) {
+                        splits[i + offset] = true;
+                    }
+                    i = wordEnd - 1;
+                    break;
+                }
+            }
+        }
+
+        // DELIMITERS[0] "([^\\w\\.\\'\\-\\/,&])" separates the character, or the surrogate pair
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(start + i);
+            if (isDelimiter(c)) {
+                splits[i] = true;
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(start + i + 1))) {
+                    i++;
+                }
+                splits[i + 1] = true;
+            }
+        }
+
+        // DELIMITERS[1] "(,\\s)" and DELIMITERS[2] "('\\s)" separate commas and then single quotes followed by a space
+        for (int i = 0; i < n; i++) {
+            if (text.charAt(start + i) == ',' && ((i + 1 == n) ? isFollowedBySpace : splits[i + 1])) {
+                splits[i] = true;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (text.charAt(start + i) == '\'' && ((i + 1 == n) ? isFollowedBySpace : splits[i + 1])) {
+                splits[i] = true;
+            }
+        }
+
+        // DELIMITERS[3] "\\. *(\\n|$)" separates a final period followed by spaces and a new line or the end of the text
+        if (text.charAt(end - 1) == '.') {
+            int i = end;
+            while (i < text.length() && text.charAt(i) == ' ') {
+                i++;
+            }
+            if (i == text.length() || text.charAt(i) == '\n') {
+                splits[n - 1] = true;
+            }
+        }
+
+        if (start == 0 && splits[0]) {
+            addToken(0, 0);
+        }
+        int tokenStart = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || splits[i]) {
+                if (i > tokenStart) {
+                    addToken(start + tokenStart, start + i);
+                }
+                tokenStart = i;
+            }
+        }
+    }
+
+
+    /**
+     * @return length of the suffix contraction at 'index', or 0
+     */
+    private static int matchSuffixContraction(CharSequence text, int index, int end) {
+        for (String suffix : SUFFIX_CONTRACTIONS) {
+            if (index + suffix.length() <= end && matchesIgnoreCase(text, index, suffix)) {
+                return suffix.length();
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     * @return whether the word boundary \b holds before the i-th character of the chunk, a word character
+     */
+    private boolean isBoundaryBefore(CharSequence text, int start, int i) {
+        if (i == 0 || splits[i]) {
+            return true;
+        }
+        int before = Character.codePointBefore(text, start + i);
+        if (before == '_' || Character.isLetterOrDigit(before)) {
+            return false;
+        }
+        if (Character.getType(before) != Character.NON_SPACING_MARK) {
+            return true;
+        }
+        // a non-spacing mark counts as a word character if it follows a letter or a digit
+        for (int x = i - 1; x >= 0; x--) {
+            int c = Character.codePointAt(text, start + x);
+            if (Character.isLetterOrDigit(c)) {
+                return false;
+            }
+            if (Character.getType(c) != Character.NON_SPACING_MARK || splits[x]) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+
+    private boolean hasNoSplits(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (splits[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @param lowerCase : ASCII characters in lower case; (?i) matches ASCII characters case-insensitively
+     */
+    private static boolean matchesIgnoreCase(CharSequence text, int index, String lowerCase) {
+        for (int k = 0; k < lowerCase.length(); k++) {
+            char c = text.charAt(index + k);
+            char l = lowerCase.charAt(k);
+            if (c != l && (c < 'A' || c > 'Z' || c + ('a' - 'A') != l)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @return whether a word boundary does not hold between a letter and 'codePoint'
+     */
+    private static boolean isWordOrMark(int codePoint) {
+        return codePoint == '_' || Character.isLetterOrDigit(codePoint) || Character.getType(codePoint) == Character.NON_SPACING_MARK;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * @return whether 'c' matches [^\\w\\.\\'\\-\\/,&amp;]
+     */
+    private static boolean isDelimiter(char c) {
+        if (isAsciiLetter(c) || (c >= '0' && c <= '9')) {
+            return false;
+        }
+        switch (c) {
+        case '_': case '.': case '\'': case '-': case '/': case ',': case '&':
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * @return whether 'c' matches \\s
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * @return whether '.' does not match 'c'
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+
+    private void addToken(int start, int end) {
+        if (numTokens == tokenStarts.length) {
+            tokenStarts = Arrays.copyOf(tokenStarts, numTokens * 2);
+            tokenEnds = Arrays.copyOf(tokenEnds, numTokens * 2);
+        }
+        tokenStarts[numTokens] = start;
+        tokenEnds[numTokens] = end;
+        numTokens++;
+    }
+
+
+    public int getNumTokens() {
+        return numTokens;
+    }
+
+    public int getTokenStart(int token) {
+        return tokenStarts[token];
+    }
+
+    public int getTokenEnd(int token) {
+        return tokenEnds[token];
+    }
+
+    /**
+     * @return whether the token is its span followed by an appended '.'; true for at most one token,
+     * when the abbreviation rule applies to a token and a period separated by whitespace
+     */
+    public boolean isPeriodAppended(int token) {
+        return token == periodAppendedToken;
+    }
+
+    /**
+     * @return the token as a String
+     */
+    public String getToken(CharSequence text, int token) {
+        String span = text.subSequence(tokenStarts[token], tokenEnds[token]).toString();
+        return (token == periodAppendedToken) ? span + "." : span;
+    }
+
+}
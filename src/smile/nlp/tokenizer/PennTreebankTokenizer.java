@@ -102,9 +102,27 @@ public class PennTreebankTokenizer  {
     }
 
     /**
-     * warning: has bugs; call 'splitToWords' to avoid the bugs
+     * the scanners of the threads calling 'split'
+     */
+    private static final ThreadLocal<PennTreebankScanner> SCANNERS = new ThreadLocal<PennTreebankScanner>() {
+        @Override
+        protected PennTreebankScanner initialValue() {
+            return new PennTreebankScanner();
+        }
+    };
+
+    /**
+     * @return the tokens of 'text', the same as 'splitWithRegex' but scanned in a single pass by a PennTreebankScanner
      */
     public String[] split(String text) {
+        return SCANNERS.get().split(text);
+    }
+
+    /**
+     * the original implementation with regular expressions, which rewrites the text once per regular expression;
+     * kept as the reference of PennTreebankScanner; see TokenizerBenchmark in jcudalda.example
+     */
+    public String[] splitWithRegex(String text) {
         for (Pattern regexp : CONTRACTIONS2)
             text = regexp.matcher(text).replaceAll("$1 $2");
 